@@ -0,0 +1,107 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates synthetic output of {@code darcs changes --xml-output} for benchmarks.
+ *
+ * With mixed encodings the names rotate between UTF-8, ISO-8859-1 and UTF-16 encoded umlauts, like in repositories
+ * recorded on different machines. Otherwise all names are UTF-8 encoded.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class ChangeLogGenerator {
+
+    /**
+     * Encodings used for the names if mixed.
+     */
+    private static final String[] MIXED_ENCODINGS = {"UTF-8", "ISO-8859-1", "UTF-16"};
+    /**
+     * Number of distinct authors.
+     */
+    private static final int AUTHORS = 7;
+
+    /**
+     * Hidden because pure static helper class.
+     */
+    private ChangeLogGenerator() {
+        super();
+    }
+
+    /**
+     * Generates a change log w/o summary with mixed encodings.
+     *
+     * @param patches number of patches
+     * @param withComments whether the patches have comments
+     * @return raw XML bytes
+     */
+    static byte[] generate(final int patches, final boolean withComments) {
+        return generate(patches, withComments, false, true);
+    }
+
+    /**
+     * Generates a change log.
+     *
+     * @param patches number of patches
+     * @param withComments whether the patches have comments
+     * @param withSummary whether to add the output of {@code --summary}
+     * @param mixedEncodings whether the names are in mixed encodings
+     * @return raw XML bytes
+     */
+    static byte[] generate(final int patches, final boolean withComments, final boolean withSummary,
+            final boolean mixedEncodings) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(patches * (withSummary ? 512 : 320));
+            ascii(out, "<changelog>\n");
+
+            for (int i = 0; i < patches; i++) {
+                final String date = String.format("2013%010d", i);
+                ascii(out, String.format("<patch author='author%d@example.com' date='%s' "
+                        + "local_date='Sun Feb 24 21:45:31 CET 2013' inverted='False' "
+                        + "hash='%s-7677a-%040x.gz'>\n\t<name>", i % AUTHORS, date, date, i));
+                out.write(String.format("Patch %d with umlauts äöü", i)
+                        .getBytes(mixedEncodings ? MIXED_ENCODINGS[i % MIXED_ENCODINGS.length] : "UTF-8"));
+                ascii(out, "</name>\n");
+
+                if (withComments) {
+                    ascii(out, String.format("\t<comment>Ignore-this: %032x\nComment of patch %d.</comment>\n", i, i));
+                }
+
+                if (withSummary) {
+                    ascii(out, String.format("\t<summary>\n\t<modify_file>\n\tsrc/File%d.java"
+                            + "<removed_lines num='1'/><added_lines num='2'/>\n\t</modify_file>\n"
+                            + "\t<add_file>\n\tsrc/New%d.java\n\t</add_file>\n\t</summary>\n", i % AUTHORS, i));
+                }
+
+                ascii(out, "</patch>\n");
+            }
+
+            ascii(out, "</changelog>\n");
+            return out.toByteArray();
+        } catch (IOException ex) {
+            // writing to a byte array never fails, the encodings are always supported
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes an ASCII string.
+     *
+     * @param out stream to write to
+     * @param s ASCII string
+     * @throws IOException never
+     */
+    private static void ascii(final ByteArrayOutputStream out, final String s) throws IOException {
+        out.write(s.getBytes("US-ASCII"));
+    }
+}
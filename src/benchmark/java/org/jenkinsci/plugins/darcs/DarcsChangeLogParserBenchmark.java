@@ -0,0 +1,108 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Measures each stage of the change log parse pipeline and the whole pipeline.
+ *
+ * The stages are: sanitizing the raw bytes, SAX parsing the sanitized XML into change sets and building the change
+ * set list including its digest. The StAX reader is measured as an alternative to SAX parsing. Run with
+ * {@code -prof gc} to see the allocation rate of each stage.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DarcsChangeLogParserBenchmark {
+
+    @Param({"1000", "10000", "100000", "500000"})
+    private int patches;
+    @Param({"false", "true"})
+    private boolean withSummary;
+    @Param({"false", "true"})
+    private boolean mixedEncodings;
+    private byte[] changeLog;
+    private String sanitized;
+    private List<DarcsChangeSet> changeSets;
+
+    @Setup
+    public void generate() throws IOException, SAXException {
+        changeLog = ChangeLogGenerator.generate(patches, true, withSummary, mixedEncodings);
+        sanitized = new DarcsXmlSanitizer().cleanse(changeLog);
+        changeSets = parse(sanitized);
+    }
+
+    private static List<DarcsChangeSet> parse(final String xml) throws IOException, SAXException {
+        final XMLReader reader = XMLReaderFactory.createXMLReader();
+        final DarcsSaxHandler handler = new DarcsSaxHandler();
+        reader.setContentHandler(handler);
+        reader.setErrorHandler(handler);
+        reader.parse(new InputSource(new StringReader(xml)));
+        return handler.getChangeSets();
+    }
+
+    @Benchmark
+    public String sanitize() {
+        return new DarcsXmlSanitizer().cleanse(changeLog);
+    }
+
+    @Benchmark
+    public List<DarcsChangeSet> saxParse() throws IOException, SAXException {
+        return parse(sanitized);
+    }
+
+    @Benchmark
+    public List<DarcsChangeSet> staxParse() throws IOException, SAXException {
+        final DarcsChangeSetReader reader = new DarcsChangeSetReader(new StringReader(sanitized));
+
+        try {
+            return reader.readAll();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    public String buildChangeSetList() {
+        // the list sorts in place, so always start from the order darcs printed
+        return new DarcsChangeSetList(new ArrayList<DarcsChangeSet>(changeSets)).digest();
+    }
+
+    @Benchmark
+    public String pipeline() throws IOException, SAXException {
+        return new DarcsChangeLogParser().parse(new ByteArrayInputStream(changeLog)).digest();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the retained heap of change sets in the former layout with three lists of path strings and the compact
+ * layout with interned paths.
+ *
+ * Each invocation builds the change sets of a large change log and reports the heap they retain as the secondary
+ * result {@code retainedBytes}.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DarcsChangeSetFootprintBenchmark {
+
+    @Param({"1000", "10000"})
+    private int patches;
+    @Param({"100"})
+    private int pathsPerPatch;
+    @Param({"legacy", "compact"})
+    private String layout;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public Object retain(final Footprint footprint) {
+        final long before = usedHeap();
+        final List<Object> changeSets = "legacy".equals(layout) ? buildLegacy() : buildCompact();
+        footprint.retainedBytes = usedHeap() - before;
+        return changeSets;
+    }
+
+    private List<Object> buildCompact() {
+        final List<Object> changeSets = new ArrayList<Object>(patches);
+
+        for (int i = 0; i < patches; i++) {
+            final DarcsChangeSet changeSet = new DarcsChangeSet();
+            changeSet.setAuthor("author" + (i % 10) + "@example.com");
+            changeSet.setName("patch " + i);
+            changeSet.setHash("20130101000000-7677a-" + i + ".gz");
+
+            for (int j = 0; j < pathsPerPatch; j++) {
+                changeSet.getModifiedPaths().add(path(i, j));
+            }
+
+            changeSets.add(changeSet);
+        }
+
+        return changeSets;
+    }
+
+    private List<Object> buildLegacy() {
+        final List<Object> changeSets = new ArrayList<Object>(patches);
+
+        for (int i = 0; i < patches; i++) {
+            final LegacyChangeSet changeSet = new LegacyChangeSet();
+            changeSet.author = "author" + (i % 10) + "@example.com";
+            changeSet.name = "patch " + i;
+            changeSet.hash = "20130101000000-7677a-" + i + ".gz";
+
+            for (int j = 0; j < pathsPerPatch; j++) {
+                changeSet.modified.add(path(i, j));
+            }
+
+            changeSets.add(changeSet);
+        }
+
+        return changeSets;
+    }
+
+    /**
+     * Creates a new string per path like the SAX handler does.
+     */
+    private static String path(final int patch, final int index) {
+        return "src/main/java/org/example/module" + (patch % 20) + "/package" + (index % 10) + "/Class"
+                + (index + patch % 50) + ".java";
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * The former layout of {@link DarcsChangeSet}.
+     */
+    @SuppressWarnings("unused")
+    private static final class LegacyChangeSet {
+
+        private String author;
+        private String date;
+        private String localDate;
+        private boolean inverted;
+        private String hash;
+        private String name;
+        private String comment;
+        private final List<String> added = new ArrayList<String>();
+        private final List<String> deleted = new ArrayList<String>();
+        private final List<String> modified = new ArrayList<String>();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares calculating the revision state of a workspace from its inventory with asking `darcs changes`.
+ *
+ * By default a repository with the given amount of patches is generated. It only consists of the inventory and the
+ * format file, which is all `darcs changes` w/o summary reads. To measure a real repository run with
+ * {@code -p repo=/path/to/repo}. The {@code darcsChanges} benchmark needs darcs on the path.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DarcsInventoryReaderBenchmark {
+
+    private static final int AUTHORS = 7;
+
+    @Param({"50000"})
+    private int patches;
+    @Param({""})
+    private String repo;
+    private File directory;
+    private boolean generated;
+
+    @Setup
+    public void generate() throws IOException {
+        if (repo.length() > 0) {
+            directory = new File(repo);
+            return;
+        }
+
+        directory = File.createTempFile("inventory", "");
+        directory.delete();
+        new File(directory, "_darcs/inventories").mkdirs();
+        new File(directory, "_darcs/pristine.hashed").mkdirs();
+        generated = true;
+        write(new File(directory, "_darcs/format"), "hashed\ndarcs-2\n");
+        final StringBuilder inventory = new StringBuilder("pristine:0000000000-"
+                + "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855\n");
+
+        for (int i = 0; i < patches; i++) {
+            inventory.append(String.format("[patch %d\nauthor%d@example.com**2012%010d\n Ignore-this: %032x\n] \n"
+                    + "hash: 0000000100-%064x\n", i, i % AUTHORS, i, i, i));
+        }
+
+        write(new File(directory, DarcsInventoryReader.INVENTORY), inventory.toString());
+    }
+
+    @TearDown
+    public void delete() {
+        if (!generated) {
+            return;
+        }
+
+        new File(directory, DarcsInventoryReader.INVENTORY).delete();
+        new File(directory, "_darcs/format").delete();
+        new File(directory, "_darcs/inventories").delete();
+        new File(directory, "_darcs/pristine.hashed").delete();
+        new File(directory, "_darcs").delete();
+        directory.delete();
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public DarcsRevisionState inventory() throws IOException {
+        return DarcsRevisionState.fromHashes(DarcsInventoryReader.read(directory));
+    }
+
+    @Benchmark
+    public DarcsRevisionState darcsChanges() throws IOException, SAXException, InterruptedException {
+        final Process darcs = new ProcessBuilder("darcs", "changes", "--xml-output", "--repodir",
+                directory.getAbsolutePath()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        final InputStream in = darcs.getInputStream();
+
+        try {
+            return DarcsRevisionState.fromChanges(new DarcsChangeLogParser().parseChangeSets(in));
+        } finally {
+            in.close();
+
+            if (0 != darcs.waitFor()) {
+                throw new IOException("darcs changes failed with " + darcs.exitValue());
+            }
+        }
+    }
+}
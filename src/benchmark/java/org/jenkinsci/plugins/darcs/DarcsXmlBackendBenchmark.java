@@ -0,0 +1,76 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Compares creating a SAX reader per parse with the pooled readers of the {@link DarcsXmlBackend}s.
+ *
+ * The change logs are as small as those of a poll which found a few new patches, so the setup of the parser
+ * dominates the time of a parse.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DarcsXmlBackendBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int patches;
+    private String sanitized;
+
+    @Setup
+    public void generate() {
+        sanitized = new DarcsXmlSanitizer().cleanse(ChangeLogGenerator.generate(patches, true));
+    }
+
+    @Benchmark
+    public List<DarcsChangeSet> readerPerParse() throws IOException, SAXException {
+        final XMLReader reader = XMLReaderFactory.createXMLReader();
+        final DarcsSaxHandler handler = new DarcsSaxHandler();
+        reader.setContentHandler(handler);
+        reader.setErrorHandler(handler);
+        reader.parse(new InputSource(new StringReader(sanitized)));
+        return handler.getChangeSets();
+    }
+
+    @Benchmark
+    public List<DarcsChangeSet> pooledSax() throws IOException, SAXException {
+        return DarcsXmlBackend.SAX.parse(new InputSource(new StringReader(sanitized)));
+    }
+
+    @Benchmark
+    public List<DarcsChangeSet> pooledStax() throws IOException, SAXException {
+        return DarcsXmlBackend.STAX.parse(new InputSource(new StringReader(sanitized)));
+    }
+}
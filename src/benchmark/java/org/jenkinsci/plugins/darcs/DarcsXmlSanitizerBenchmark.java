@@ -0,0 +1,88 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures sanitizing of synthetic change logs.
+ *
+ * The time per operation must grow linear with the number of patches, also if the patches have no comments. The
+ * parallel variant splits change logs of at least {@link DarcsXmlSanitizer#PARALLEL_THRESHOLD} bytes into chunks.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DarcsXmlSanitizerBenchmark {
+
+    @Param({"10000", "100000"})
+    private int patches;
+    @Param({"true", "false"})
+    private boolean withComments;
+    private byte[] changeLog;
+    private final char[] buffer = new char[8192];
+    private ExecutorService executor;
+
+    @Setup
+    public void generate() {
+        changeLog = ChangeLogGenerator.generate(patches, withComments);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public long cleanse() throws IOException {
+        return count(new DarcsXmlSanitizer().cleanse(new ByteArrayInputStream(changeLog)));
+    }
+
+    @Benchmark
+    public long cleanseParallel() throws IOException {
+        return count(new DarcsXmlSanitizer().cleanse(ByteBuffer.wrap(changeLog), executor));
+    }
+
+    private long count(final Reader reader) throws IOException {
+        long count = 0;
+        int read;
+
+        while ((read = reader.read(buffer)) != -1) {
+            count += read;
+        }
+
+        reader.close();
+        return count;
+    }
+}
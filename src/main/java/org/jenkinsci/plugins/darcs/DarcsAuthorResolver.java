@@ -0,0 +1,317 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.model.User;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves darcs author strings to Jenkins users.
+ *
+ * Looking up a user is expensive and may create a user record, so rendering the changes of many patches should not
+ * look up the same author again and again. The resolved users are kept in a bounded cache which evicts the least
+ * recently used author.
+ *
+ * Darcs authors look like {@code Name <email>}. An author may be mapped to the ID of an existing user by its email,
+ * its name or the whole author string, case insensitive. Authors w/o mapping are looked up by the whole author string
+ * with normalized white space, like before.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsAuthorResolver {
+
+    /**
+     * Looks up a user by its ID.
+     */
+    interface Lookup {
+
+        /**
+         * Looks up a user.
+         *
+         * @param id user ID
+         * @param create whether to create the user if it does not exist
+         * @return {@code null} if the user does not exist and is not created
+         */
+        User get(String id, boolean create);
+    }
+
+    /**
+     * Default max number of cached authors.
+     */
+    static final int DEFAULT_CAPACITY = 1000;
+    /**
+     * Initial size of the cache map.
+     */
+    private static final int INITIAL_SIZE = 16;
+    /**
+     * Load factor of the cache map.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Looks up the users of Jenkins.
+     */
+    private static final Lookup USERS = new Lookup() {
+        public User get(final String id, final boolean create) {
+            return User.get(id, create);
+        }
+    };
+    /**
+     * Controller wide instance.
+     */
+    private static final DarcsAuthorResolver INSTANCE = new DarcsAuthorResolver(USERS, DEFAULT_CAPACITY, null);
+
+    /**
+     * Looks up the users.
+     */
+    private final Lookup lookup;
+    /**
+     * Resolved users by author in access order.
+     *
+     * Guarded by this.
+     */
+    private final Map<String, User> users = new LinkedHashMap<String, User>(INITIAL_SIZE, LOAD_FACTOR, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, User> eldest) {
+            return size() > capacity;
+        }
+    };
+    /**
+     * Number of lookups served from the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Number of lookups which had to resolve the user.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * Max number of cached authors, zero disables the cache.
+     *
+     * Guarded by this.
+     */
+    private int capacity;
+    /**
+     * User IDs by lower case email, name or author.
+     *
+     * Guarded by this.
+     */
+    private Map<String, String> mappings = Collections.emptyMap();
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param lookup looks up the users
+     * @param capacity max number of cached authors, zero disables the cache
+     * @param mappings one {@code author userId} pair per line, may be {@code null}
+     */
+    DarcsAuthorResolver(final Lookup lookup, final int capacity, final String mappings) {
+        super();
+        this.lookup = lookup;
+        configure(capacity, mappings);
+    }
+
+    /**
+     * Returns the controller wide instance.
+     *
+     * @return never {@code null}
+     */
+    static DarcsAuthorResolver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Changes the configuration and empties the cache.
+     *
+     * Lines which are not a {@code author userId} pair are ignored. The author may be an email, a name or a whole
+     * author string and may contain spaces, the user ID is the last word of the line.
+     *
+     * @param capacity max number of cached authors, zero disables the cache
+     * @param mappings one {@code author userId} pair per line, may be {@code null}
+     */
+    synchronized void configure(final int capacity, final String mappings) {
+        this.capacity = capacity;
+        this.mappings = parseMappings(mappings);
+        users.clear();
+    }
+
+    /**
+     * Parses the author mappings.
+     *
+     * @param mappings one {@code author userId} pair per line, may be {@code null}
+     * @return user IDs by lower case author
+     */
+    private static Map<String, String> parseMappings(final String mappings) {
+        if (null == mappings) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, String> parsed = new HashMap<String, String>();
+
+        for (final String line : mappings.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            final int separator = Math.max(trimmed.lastIndexOf(' '), trimmed.lastIndexOf('\t'));
+
+            if (separator > 0) {
+                parsed.put(normalize(trimmed.substring(0, separator)).toLowerCase(),
+                           trimmed.substring(separator + 1));
+            }
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Collapses the white space of an author string.
+     *
+     * @param author author string
+     * @return trimmed author with single spaces
+     */
+    static String normalize(final String author) {
+        return author.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Returns the email of a normalized author string.
+     *
+     * @param author normalized author string
+     * @return the text in angle brackets, or the whole author if it looks like an email, else {@code null}
+     */
+    static String emailOf(final String author) {
+        final int start = author.lastIndexOf('<');
+        final int end = author.lastIndexOf('>');
+
+        if (start >= 0 && end > start) {
+            return author.substring(start + 1, end).trim();
+        }
+
+        return author.indexOf('@') > 0 && author.indexOf(' ') < 0 ? author : null;
+    }
+
+    /**
+     * Returns the name of a normalized author string.
+     *
+     * @param author normalized author string
+     * @return the text before the angle brackets, or {@code null} if there is none
+     */
+    static String nameOf(final String author) {
+        final int start = author.lastIndexOf('<');
+
+        if (start < 0) {
+            return null == emailOf(author) ? author : null;
+        }
+
+        final String name = author.substring(0, start).trim();
+        return name.length() == 0 ? null : name;
+    }
+
+    /**
+     * Resolves a darcs author to a user.
+     *
+     * @param author darcs author string, may be {@code null}
+     * @return {@code null} if the author is {@code null} or empty
+     */
+    User resolve(final String author) {
+        if (null == author || author.trim().length() == 0) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (users.containsKey(author)) {
+                hits.incrementAndGet();
+                return users.get(author);
+            }
+        }
+
+        misses.incrementAndGet();
+        final User user = lookup(normalize(author));
+
+        synchronized (this) {
+            if (capacity > 0) {
+                users.put(author, user);
+            }
+        }
+
+        return user;
+    }
+
+    /**
+     * Looks up the user of a normalized author.
+     *
+     * @param author normalized author string
+     * @return the mapped user if it exists, else the user of the author string
+     */
+    private User lookup(final String author) {
+        final String id = mappedId(author);
+
+        if (null != id) {
+            final User user = lookup.get(id, false);
+
+            if (null != user) {
+                return user;
+            }
+        }
+
+        return lookup.get(author, true);
+    }
+
+    /**
+     * Returns the mapped user ID of a normalized author.
+     *
+     * @param author normalized author string
+     * @return {@code null} if not mapped
+     */
+    private synchronized String mappedId(final String author) {
+        if (mappings.isEmpty()) {
+            return null;
+        }
+
+        final String email = emailOf(author);
+        final String name = nameOf(author);
+        String id = null == email ? null : mappings.get(email.toLowerCase());
+
+        if (null == id && null != name) {
+            id = mappings.get(name.toLowerCase());
+        }
+
+        return null == id ? mappings.get(author.toLowerCase()) : id;
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return count since start
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which had to resolve the user.
+     *
+     * @return count since start
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cached authors.
+     *
+     * @return never negative
+     */
+    synchronized int size() {
+        return users.size();
+    }
+}
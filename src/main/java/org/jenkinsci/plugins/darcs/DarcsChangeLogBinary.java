@@ -0,0 +1,650 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Compact binary encoding of the parsed change sets of a change log, stored in a sidecar file next to it.
+ *
+ * The change sets are stored already sanitized and in change set list order, so loading them is a read of the file
+ * w/o charset guessing and XML parsing. All strings are stored once in a string table as length prefixed UTF-8, so
+ * repeated authors and paths cost only a reference. The sidecar is gzip compressed if the change log is, and is read
+ * into the heap as a whole, so no file stays open or mapped.
+ *
+ * Layout, all numbers big endian:
+ * <pre>
+ * int magic, int version, long length of the change log, string digest, long[2] fingerprint, int count of strings,
+ * int count of change sets, int[] offsets of the strings, int[] offsets of the change sets,
+ * strings: int length, byte[] UTF-8
+ * change sets: int author, int date, int local date, int hash, int name, int comment, byte inverted,
+ *              int count of paths, paths: byte kind, int path
+ * </pre>
+ * Strings in change sets are indexes in the string table, -1 for {@code null}.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsChangeLogBinary implements DarcsChangeSetSource {
+
+    /**
+     * Logger facility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DarcsChangeLogBinary.class.getName());
+    /**
+     * Suffix of the sidecar file name.
+     */
+    static final String SUFFIX = ".bin";
+    /**
+     * Identifies the file format.
+     */
+    private static final int MAGIC = 0x44434c42;
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Encoding of strings.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * Reference for {@code null} strings.
+     */
+    private static final int NULL = -1;
+    /**
+     * Kind of added paths.
+     */
+    private static final byte ADDED = 0;
+    /**
+     * Kind of deleted paths.
+     */
+    private static final byte DELETED = 1;
+    /**
+     * Kind of modified paths.
+     */
+    private static final byte MODIFIED = 2;
+    /**
+     * Size of magic number and version.
+     */
+    private static final int PREFIX_SIZE = 8;
+    /**
+     * Size of an int.
+     */
+    private static final int INT_SIZE = 4;
+    /**
+     * Size of a long.
+     */
+    private static final int LONG_SIZE = 8;
+    /**
+     * Size of a change set record w/o its paths.
+     */
+    private static final int RECORD_SIZE = 7 * INT_SIZE + 1;
+    /**
+     * Size of a path in a change set record.
+     */
+    private static final int PATH_SIZE = 1 + INT_SIZE;
+    /**
+     * Size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Content of the sidecar file.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * Digest of the change set list.
+     */
+    private final String digest;
+    /**
+     * Fingerprint of the change set list.
+     */
+    private final DarcsRevisionFingerprint fingerprint;
+    /**
+     * Count of strings.
+     */
+    private final int stringCount;
+    /**
+     * Count of change sets.
+     */
+    private final int count;
+    /**
+     * Position of the string offsets.
+     */
+    private final int stringOffsets;
+    /**
+     * Position of the change set offsets.
+     */
+    private final int changeSetOffsets;
+
+    /**
+     * Reads the header of a sidecar.
+     *
+     * @param buffer content of the sidecar, positioned after version and change log length
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private DarcsChangeLogBinary(final ByteBuffer buffer) throws UnsupportedEncodingException {
+        super();
+        this.buffer = buffer;
+        digest = readString(buffer, buffer.position());
+        buffer.position(buffer.position() + INT_SIZE + buffer.getInt(buffer.position()));
+        fingerprint = new DarcsRevisionFingerprint(buffer.getLong(), buffer.getLong());
+        stringCount = buffer.getInt();
+        count = buffer.getInt();
+        stringOffsets = buffer.position();
+        changeSetOffsets = stringOffsets + stringCount * INT_SIZE;
+    }
+
+    /**
+     * Whether the tables and the last string and change set are within the file.
+     *
+     * The last string and change set are written last, so a truncated file misses at least one of them.
+     *
+     * @return {@code false} if the sidecar is truncated
+     */
+    private boolean isComplete() {
+        final long capacity = buffer.capacity();
+
+        if (stringCount < 0 || count < 0
+                || (long) changeSetOffsets + (long) count * INT_SIZE > capacity) {
+            return false;
+        }
+
+        if (stringCount > 0) {
+            final long last = buffer.getInt(stringOffsets + (stringCount - 1) * INT_SIZE);
+
+            if (last < 0 || last + INT_SIZE > capacity || last + INT_SIZE + buffer.getInt((int) last) > capacity) {
+                return false;
+            }
+        }
+
+        if (count > 0) {
+            final long last = buffer.getInt(changeSetOffsets + (count - 1) * INT_SIZE);
+
+            if (last < 0 || last + RECORD_SIZE > capacity
+                    || last + RECORD_SIZE + (long) buffer.getInt((int) last + RECORD_SIZE - INT_SIZE) * PATH_SIZE
+                    > capacity) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the sidecar file of a change log.
+     *
+     * @param changeLog change log file
+     * @return may not exist
+     */
+    static File fileFor(final File changeLog) {
+        return new File(changeLog.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the count of change sets.
+     *
+     * @return not negative
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the digest of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#digest()} of the fully parsed change log
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the fingerprint of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#getFingerprint()} of the fully parsed change log
+     */
+    public DarcsRevisionFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Decodes a range of change sets.
+     *
+     * @param from index of the first change set, inclusive
+     * @param to index of the last change set, exclusive
+     * @return change sets in change set list order
+     * @throws IOException if the sidecar is corrupt
+     */
+    public List<DarcsChangeSet> load(final int from, final int to) throws IOException {
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>(to - from);
+
+        try {
+            for (int i = from; i < to; i++) {
+                changeSets.add(decode(buffer.getInt(changeSetOffsets + i * INT_SIZE)));
+            }
+        } catch (RuntimeException ex) {
+            // buffer under flows and bad references of a corrupt file
+            throw new IOException("Corrupt change log sidecar: " + ex);
+        }
+
+        return changeSets;
+    }
+
+    /**
+     * Decodes one change set.
+     *
+     * Uses only absolute reads, so concurrent loads don't interfere.
+     *
+     * @param offset position of the change set
+     * @return decoded change set
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private DarcsChangeSet decode(final int offset) throws UnsupportedEncodingException {
+        int position = offset;
+        final DarcsChangeSet changeSet = new DarcsChangeSet();
+        changeSet.setAuthor(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setDate(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setLocalDate(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setHash(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setName(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setComment(string(buffer.getInt(position)));
+        position += INT_SIZE;
+        changeSet.setInverted(0 != buffer.get(position));
+        position += 1;
+        final int paths = buffer.getInt(position);
+        position += INT_SIZE;
+
+        for (int i = 0; i < paths; i++) {
+            final byte kind = buffer.get(position);
+            final String path = string(buffer.getInt(position + 1));
+            position += 1 + INT_SIZE;
+
+            if (ADDED == kind) {
+                changeSet.getAddedPaths().add(path);
+            } else if (DELETED == kind) {
+                changeSet.getDeletedPaths().add(path);
+            } else {
+                changeSet.getModifiedPaths().add(path);
+            }
+        }
+
+        return changeSet;
+    }
+
+    /**
+     * Resolves a string reference.
+     *
+     * @param ref index in the string table or {@value #NULL}
+     * @return may be {@code null}
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private String string(final int ref) throws UnsupportedEncodingException {
+        if (NULL == ref) {
+            return null;
+        }
+
+        if (ref < 0 || ref >= stringCount) {
+            throw new IndexOutOfBoundsException("String reference " + ref);
+        }
+
+        return readString(buffer, buffer.getInt(stringOffsets + ref * INT_SIZE));
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     *
+     * @param buffer buffer to read from
+     * @param position position of the length
+     * @return decoded string
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported
+     */
+    private static String readString(final ByteBuffer buffer, final int position) throws UnsupportedEncodingException {
+        final byte[] bytes = new byte[buffer.getInt(position)];
+        // a duplicate has its own position
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position + INT_SIZE);
+        view.get(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Reads the sidecar of a change log.
+     *
+     * @param changeLog change log file
+     * @return {@code null} if there is no valid sidecar for the change log
+     */
+    static DarcsChangeLogBinary read(final File changeLog) {
+        final File file = fileFor(changeLog);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(load(file));
+
+            if (MAGIC != buffer.getInt() || VERSION != buffer.getInt() || changeLog.length() != buffer.getLong()) {
+                LOGGER.info(String.format("Ignoring outdated change log sidecar %s.", file));
+                return null;
+            }
+
+            final DarcsChangeLogBinary binary = new DarcsChangeLogBinary(buffer);
+
+            if (!binary.isComplete()) {
+                LOGGER.warning(String.format("Ignoring truncated change log sidecar %s.", file));
+                return null;
+            }
+
+            return binary;
+        } catch (IOException ex) {
+            LOGGER.warning(String.format("Can't read change log sidecar %s: %s", file, ex));
+        } catch (RuntimeException ex) {
+            // buffer under flows of a truncated or corrupt header
+            LOGGER.warning(String.format("Corrupt change log sidecar %s: %s", file, ex));
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a whole sidecar file.
+     *
+     * @param file sidecar file, compressed or not
+     * @return uncompressed content
+     * @throws IOException on read errors
+     */
+    private static byte[] load(final File file) throws IOException {
+        final InputStream in = DarcsChangeLogFile.open(file);
+
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(file.length(),
+                    Integer.MAX_VALUE));
+            copy(in, content);
+            return content.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the sidecar of a change log.
+     *
+     * The strings and change sets are streamed to temporary files first, because the offsets in the header are known
+     * only afterwards. The sidecar is written to a temporary file next to the old one and then moved in place, so a
+     * failed write leaves no partial sidecar behind, and concurrent writes don't mix.
+     *
+     * @param changeLog change log file
+     * @param changeSets change set list of the change log
+     * @throws IOException on write errors
+     */
+    static void write(final File changeLog, final DarcsChangeSetList changeSets) throws IOException {
+        final File file = fileFor(changeLog);
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File stringsFile = File.createTempFile(file.getName(), ".strings", dir);
+        final File recordsFile = File.createTempFile(file.getName(), ".records", dir);
+
+        try {
+            write(changeLog, changeSets, stringsFile, recordsFile);
+        } finally {
+            delete(stringsFile);
+            delete(recordsFile);
+        }
+    }
+
+    /**
+     * Writes the sidecar of a change log with the given temporary files.
+     *
+     * @param changeLog change log file
+     * @param changeSets change set list of the change log
+     * @param stringsFile temporary file of the strings
+     * @param recordsFile temporary file of the change sets
+     * @throws IOException on write errors
+     */
+    private static void write(final File changeLog, final DarcsChangeSetList changeSets, final File stringsFile,
+            final File recordsFile) throws IOException {
+        final StringTable strings = new StringTable(stringsFile);
+        final DataOutputStream recordsOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(recordsFile)));
+        final List<Integer> recordOffsets = new ArrayList<Integer>();
+
+        try {
+            writeRecords(changeSets, strings, recordsOut, recordOffsets);
+        } finally {
+            strings.out.close();
+            recordsOut.close();
+        }
+
+        final byte[] digest = changeSets.digest().getBytes(ENCODING);
+        final int header = PREFIX_SIZE + 2 * INT_SIZE + INT_SIZE + digest.length + 2 * LONG_SIZE + 2 * INT_SIZE
+                + (strings.size() + recordOffsets.size()) * INT_SIZE;
+        final long total = (long) header + stringsFile.length() + recordsFile.length();
+
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Change log sidecar too large: %d bytes!", total));
+        }
+
+        final File file = fileFor(changeLog);
+        final File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                DarcsChangeLogFile.create(tmp, DarcsChangeLogFile.isCompressed(changeLog)), BUFFER_SIZE));
+        boolean written = false;
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(changeLog.length());
+            out.writeInt(digest.length);
+            out.write(digest);
+            out.writeLong(changeSets.getFingerprint().getHigh());
+            out.writeLong(changeSets.getFingerprint().getLow());
+            out.writeInt(strings.size());
+            out.writeInt(recordOffsets.size());
+
+            for (final int offset : strings.offsets) {
+                out.writeInt(header + offset);
+            }
+
+            final int recordsStart = header + (int) stringsFile.length();
+
+            for (final int offset : recordOffsets) {
+                out.writeInt(recordsStart + offset);
+            }
+
+            copy(stringsFile, out);
+            copy(recordsFile, out);
+            out.close();
+            written = true;
+        } finally {
+            out.close();
+
+            if (!written) {
+                delete(tmp);
+            }
+        }
+
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            delete(tmp);
+            throw new IOException(String.format("Can't move change log sidecar %s to %s!", tmp, file));
+        }
+    }
+
+    /**
+     * Writes the change set records and collects their strings.
+     *
+     * @param changeSets change set list of the change log
+     * @param strings string table
+     * @param recordsOut receives the records
+     * @param recordOffsets receives the offset of each record
+     * @throws IOException on write errors
+     */
+    private static void writeRecords(final DarcsChangeSetList changeSets, final StringTable strings,
+            final DataOutputStream recordsOut, final List<Integer> recordOffsets) throws IOException {
+        for (final DarcsChangeSet changeSet : changeSets) {
+            recordOffsets.add(recordsOut.size());
+            recordsOut.writeInt(strings.ref(changeSet.getPlainAuthor()));
+            recordsOut.writeInt(strings.ref(changeSet.getDate()));
+            recordsOut.writeInt(strings.ref(changeSet.getLocalDate()));
+            recordsOut.writeInt(strings.ref(changeSet.getHash()));
+            recordsOut.writeInt(strings.ref(changeSet.getName()));
+            recordsOut.writeInt(strings.ref(changeSet.getComment()));
+            recordsOut.writeByte(changeSet.isInverted() ? 1 : 0);
+            recordsOut.writeInt(changeSet.getAffectedPaths().size());
+            writePaths(recordsOut, strings, ADDED, changeSet.getAddedPaths());
+            writePaths(recordsOut, strings, DELETED, changeSet.getDeletedPaths());
+            writePaths(recordsOut, strings, MODIFIED, changeSet.getModifiedPaths());
+        }
+    }
+
+    /**
+     * Copies a file to a stream.
+     *
+     * @param file file to copy
+     * @param out receives the file, not closed
+     * @throws IOException on read or write errors
+     */
+    private static void copy(final File file, final OutputStream out) throws IOException {
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies a stream to another.
+     *
+     * @param in stream to copy, not closed
+     * @param out receives the stream, not closed
+     * @throws IOException on read or write errors
+     */
+    private static void copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        while (-1 != (read = in.read(buffer))) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Deletes a temporary file.
+     *
+     * @param file file to delete, may not exist
+     */
+    private static void delete(final File file) {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warning(String.format("Can't delete %s.", file));
+        }
+    }
+
+    /**
+     * Writes the paths of one kind.
+     *
+     * @param out receives the paths
+     * @param strings string table
+     * @param kind kind of the paths
+     * @param paths paths to write
+     * @throws IOException on write errors
+     */
+    private static void writePaths(final DataOutputStream out, final StringTable strings, final byte kind,
+            final List<String> paths) throws IOException {
+        for (final String path : paths) {
+            out.writeByte(kind);
+            out.writeInt(strings.ref(path));
+        }
+    }
+
+    /**
+     * Collects each distinct string once and writes it to a file.
+     */
+    private static final class StringTable {
+
+        /**
+         * References by string.
+         */
+        private final Map<String, Integer> refs = new HashMap<String, Integer>();
+        /**
+         * Offset of each string in the file.
+         */
+        private final List<Integer> offsets = new ArrayList<Integer>();
+        /**
+         * Writes the encoded strings.
+         */
+        private final DataOutputStream out;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param file receives the encoded strings
+         * @throws IOException if the file can't be created
+         */
+        StringTable(final File file) throws IOException {
+            super();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * Returns the reference of a string and adds it if new.
+         *
+         * @param value string to reference, may be {@code null}
+         * @return index in the table or {@value DarcsChangeLogBinary#NULL}
+         * @throws IOException on encoding errors
+         */
+        int ref(final String value) throws IOException {
+            if (null == value) {
+                return NULL;
+            }
+
+            Integer ref = refs.get(value);
+
+            if (null == ref) {
+                ref = offsets.size();
+                refs.put(value, ref);
+                offsets.add(out.size());
+                final byte[] encoded = value.getBytes(ENCODING);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+
+            return ref;
+        }
+
+        /**
+         * Returns the count of strings.
+         *
+         * @return not negative
+         */
+        int size() {
+            return offsets.size();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the change log files of builds, which may be gzip compressed.
+ *
+ * Change logs with summary of large merges take tens of MB, so they are stored compressed. Whether a file is
+ * compressed is detected by the gzip magic number, so change logs of older builds, which are plain XML, are read as
+ * before.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsChangeLogFile {
+
+    /**
+     * First byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    /**
+     * Second byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    /**
+     * Size of the read and write buffers.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Hidden because pure utility class.
+     */
+    private DarcsChangeLogFile() {
+        super();
+    }
+
+    /**
+     * Whether a change log file is gzip compressed.
+     *
+     * @param changeLog change log file
+     * @return {@code true} if the file starts with the gzip magic number, else {@code false}
+     * @throws IOException on read errors
+     */
+    static boolean isCompressed(final File changeLog) throws IOException {
+        final InputStream in = new FileInputStream(changeLog);
+
+        try {
+            return GZIP_MAGIC_1 == in.read() && GZIP_MAGIC_2 == in.read();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens a change log file for reading.
+     *
+     * @param changeLog change log file, compressed or not
+     * @return stream of the plain XML, must be closed by the caller
+     * @throws IOException on read errors
+     */
+    static InputStream open(final File changeLog) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(changeLog), BUFFER_SIZE);
+
+        try {
+            in.mark(2);
+            final boolean compressed = GZIP_MAGIC_1 == in.read() && GZIP_MAGIC_2 == in.read();
+            in.reset();
+            return compressed ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Creates a change log file for writing.
+     *
+     * @param changeLog change log file, overwritten if it exists
+     * @param compressed whether to compress the file
+     * @return stream to write the plain XML to, must be closed by the caller to finish the file
+     * @throws IOException on write errors
+     */
+    static OutputStream create(final File changeLog, final boolean compressed) throws IOException {
+        final OutputStream out = new FileOutputStream(changeLog);
+
+        if (!compressed) {
+            return out;
+        }
+
+        try {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        } catch (IOException ex) {
+            out.close();
+            throw ex;
+        }
+    }
+}
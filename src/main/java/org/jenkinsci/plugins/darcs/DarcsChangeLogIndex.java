@@ -0,0 +1,385 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Index of the patches in a change log file, stored in a sidecar file next to it.
+ *
+ * The index holds the count of patches, the digest and fingerprint of the change set list and the byte range of each
+ * patch element in the raw change log, ordered like {@link DarcsChangeSetList} orders its change sets. So the count,
+ * digest and fingerprint of a build's changes are known w/o parsing and the change sets can be loaded page by page by
+ * parsing only the byte ranges of the page.
+ *
+ * Builds get a {@link DarcsChangeLogBinary} sidecar now, which needs no parsing at all. Indexes written for older
+ * builds are still read.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsChangeLogIndex implements DarcsChangeSetSource {
+
+    /**
+     * Logger facility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DarcsChangeLogIndex.class.getName());
+    /**
+     * Suffix of the sidecar file name.
+     */
+    static final String SUFFIX = ".idx";
+    /**
+     * Identifies the file format.
+     */
+    private static final int MAGIC = 0x44434c49;
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 2;
+    /**
+     * Start of a patch element.
+     */
+    private static final byte[] PATCH_START = {'<', 'p', 'a', 't', 'c', 'h'};
+    /**
+     * End of a patch element.
+     */
+    private static final byte[] PATCH_END = {'<', '/', 'p', 'a', 't', 'c', 'h', '>'};
+    /**
+     * Wraps the patch elements of a page.
+     */
+    private static final byte[] PAGE_START = {'<', 'c', 'h', 'a', 'n', 'g', 'e', 'l', 'o', 'g', '>'};
+    /**
+     * Wraps the patch elements of a page.
+     */
+    private static final byte[] PAGE_END = {'<', '/', 'c', 'h', 'a', 'n', 'g', 'e', 'l', 'o', 'g', '>'};
+
+    /**
+     * Indexed change log file.
+     */
+    private final File changeLog;
+    /**
+     * Digest of the change set list.
+     */
+    private final String digest;
+    /**
+     * Fingerprint of the change set list.
+     */
+    private final DarcsRevisionFingerprint fingerprint;
+    /**
+     * Start offset of each patch element in change set list order.
+     */
+    private final long[] offsets;
+    /**
+     * Length of each patch element in change set list order.
+     */
+    private final int[] lengths;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param changeLog indexed change log file
+     * @param digest digest of the change set list
+     * @param fingerprint fingerprint of the change set list
+     * @param offsets start offset of each patch element
+     * @param lengths length of each patch element
+     */
+    private DarcsChangeLogIndex(final File changeLog, final String digest, final DarcsRevisionFingerprint fingerprint,
+            final long[] offsets, final int[] lengths) {
+        super();
+        this.changeLog = changeLog;
+        this.digest = digest;
+        this.fingerprint = fingerprint;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Returns the sidecar file of a change log.
+     *
+     * @param changeLog change log file
+     * @return may not exist
+     */
+    static File fileFor(final File changeLog) {
+        return new File(changeLog.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the count of patches.
+     *
+     * @return not negative
+     */
+    public int getCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the digest of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#digest()} of the fully parsed change log
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the fingerprint of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#getFingerprint()} of the fully parsed change log
+     */
+    public DarcsRevisionFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Parses a range of change sets.
+     *
+     * @param from index of the first change set, inclusive
+     * @param to index of the last change set, exclusive
+     * @return change sets in change set list order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    public List<DarcsChangeSet> load(final int from, final int to) throws IOException, SAXException {
+        final List<InputStream> parts = new ArrayList<InputStream>();
+        parts.add(new ByteArrayInputStream(PAGE_START));
+        final RandomAccessFile file = new RandomAccessFile(changeLog, "r");
+
+        try {
+            for (int i = from; i < to; i++) {
+                final byte[] patch = new byte[lengths[i]];
+                file.seek(offsets[i]);
+                file.readFully(patch);
+                parts.add(new ByteArrayInputStream(patch));
+            }
+        } finally {
+            file.close();
+        }
+
+        parts.add(new ByteArrayInputStream(PAGE_END));
+        return new DarcsChangeLogParser().parseChangeSets(new SequenceInputStream(Collections.enumeration(parts)));
+    }
+
+    /**
+     * Reads the index of a change log.
+     *
+     * @param changeLog change log file
+     * @return {@code null} if there is no valid index for the change log
+     */
+    static DarcsChangeLogIndex read(final File changeLog) {
+        final File file = fileFor(changeLog);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                if (MAGIC != in.readInt() || VERSION != in.readInt() || changeLog.length() != in.readLong()) {
+                    LOGGER.info(String.format("Ignoring outdated change log index %s.", file));
+                    return null;
+                }
+
+                final String digest = in.readUTF();
+                final DarcsRevisionFingerprint fingerprint = new DarcsRevisionFingerprint(in.readLong(), in.readLong());
+                final int count = in.readInt();
+                final long[] offsets = new long[count];
+                final int[] lengths = new int[count];
+
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                }
+
+                return new DarcsChangeLogIndex(changeLog, digest, fingerprint, offsets, lengths);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.warning(String.format("Can't read change log index %s: %s", file, ex));
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index of a change log.
+     *
+     * The change log is parsed once to get the hashes of the patches.
+     *
+     * @param changeLog change log file
+     * @throws IOException on read or write errors, if the change log is compressed or if the patch elements can't be
+     *                     located
+     * @throws SAXException on parse errors
+     */
+    static void write(final File changeLog) throws IOException, SAXException {
+        final InputStream in = DarcsChangeLogFile.open(changeLog);
+
+        try {
+            write(changeLog, new DarcsChangeLogParser().parseChangeSets(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the index of a change log.
+     *
+     * @param changeLog change log file
+     * @param changeSets parsed change sets of the change log in document order
+     * @throws IOException on read or write errors, if the change log is compressed or if the patch elements can't be
+     *                     located
+     */
+    static void write(final File changeLog, final List<DarcsChangeSet> changeSets) throws IOException {
+        if (DarcsChangeLogFile.isCompressed(changeLog)) {
+            throw new IOException(String.format("Can't index compressed change log %s!", changeLog));
+        }
+
+        final List<long[]> ranges = scan(changeLog);
+
+        if (changeSets.size() != ranges.size()) {
+            throw new IOException(String.format("Found %d patch elements but parsed %d patches in %s!",
+                    ranges.size(), changeSets.size(), changeLog));
+        }
+
+        final List<Integer> order = new ArrayList<Integer>(changeSets.size());
+
+        for (int i = 0; i < changeSets.size(); i++) {
+            order.add(i);
+        }
+
+        // same order as the change set list
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                return changeSets.get(a).getHash().compareTo(changeSets.get(b).getHash());
+            }
+        });
+        final DarcsChangeSetList list = new DarcsChangeSetList(new ArrayList<DarcsChangeSet>(changeSets));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(fileFor(changeLog))));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(changeLog.length());
+            out.writeUTF(list.digest());
+            out.writeLong(list.getFingerprint().getHigh());
+            out.writeLong(list.getFingerprint().getLow());
+            out.writeInt(order.size());
+
+            for (final int i : order) {
+                final long[] range = ranges.get(i);
+                out.writeLong(range[0]);
+                out.writeInt((int) (range[1] - range[0]));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Locates the patch elements in the raw change log.
+     *
+     * The markup of darcs change logs is ASCII in any encoding darcs writes, and {@literal <} in names or comments
+     * is escaped, so searching the bytes is safe.
+     *
+     * @param changeLog change log file
+     * @return start and end offset of each patch element in document order
+     * @throws IOException on read errors or unbalanced patch elements
+     */
+    private static List<long[]> scan(final File changeLog) throws IOException {
+        final List<long[]> ranges = new ArrayList<long[]>();
+        final InputStream in = new BufferedInputStream(new FileInputStream(changeLog));
+
+        try {
+            final byte[] window = new byte[PATCH_END.length];
+            long position = 0;
+            long start = -1;
+            int b;
+
+            while (-1 != (b = in.read())) {
+                System.arraycopy(window, 1, window, 0, window.length - 1);
+                window[window.length - 1] = (byte) b;
+                ++position;
+
+                if (-1 == start && isPatchStart(window)) {
+                    // the window ends with the byte after "<patch"
+                    start = position - PATCH_START.length - 1;
+                } else if (-1 != start && endsWith(window, PATCH_END)) {
+                    ranges.add(new long[] {start, position});
+                    start = -1;
+                }
+            }
+
+            if (-1 != start) {
+                throw new IOException(String.format("Unclosed patch element at offset %d in %s!", start, changeLog));
+            }
+        } finally {
+            in.close();
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Whether the window ends with the start of a patch element.
+     *
+     * @param window last read bytes
+     * @return {@code true} if {@literal <patch} followed by white space or {@literal >}
+     */
+    private static boolean isPatchStart(final byte[] window) {
+        final int last = window[window.length - 1];
+
+        if (' ' != last && '\t' != last && '\n' != last && '\r' != last && '>' != last) {
+            return false;
+        }
+
+        for (int i = 0; i < PATCH_START.length; i++) {
+            if (window[window.length - 1 - PATCH_START.length + i] != PATCH_START[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the window ends with the given bytes.
+     *
+     * @param window last read bytes
+     * @param suffix bytes to look for
+     * @return {@code true} if ends with suffix
+     */
+    private static boolean endsWith(final byte[] window, final byte[] suffix) {
+        for (int i = 0; i < suffix.length; i++) {
+            if (window[window.length - suffix.length + i] != suffix[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
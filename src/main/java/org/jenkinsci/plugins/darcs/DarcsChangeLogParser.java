@@ -10,16 +10,21 @@
 package org.jenkinsci.plugins.darcs;
 
 import hudson.model.AbstractBuild;
+import hudson.model.Computer;
 import hudson.scm.ChangeLogParser;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
 import java.util.logging.Logger;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Parses the output of Darcs log.
@@ -34,14 +39,46 @@ class DarcsChangeLogParser extends ChangeLogParser {
      * Logger facility.
      */
     private static final Logger LOGGER = Logger.getLogger(DarcsChangeLogParser.class.getName());
+    /**
+     * Backend of parsers created w/o explicit backend, configured controller wide.
+     */
+    private static volatile DarcsXmlBackend defaultBackend = DarcsXmlBackend.SAX;
+    /**
+     * Change log files of at least this size in bytes get a {@link DarcsChangeLogBinary} sidecar when parsed.
+     */
+    static final int SIDECAR_THRESHOLD = 64 * 1024;
+
+    /**
+     * Parses the sanitized XML.
+     */
+    private final DarcsXmlBackend backend;
 
     /**
-     * Factory method for custom SAX parser.
+     * Creates a parser with the {@link #setDefaultBackend(DarcsXmlBackend) default backend}.
+     */
+    DarcsChangeLogParser() {
+        this(defaultBackend);
+    }
+
+    /**
+     * Dedicated constructor.
      *
-     * @return never {@code null}, always new instance
+     * @param backend parses the sanitized XML
      */
-    private static DarcsSaxHandler makeHandler() {
-        return new DarcsSaxHandler();
+    DarcsChangeLogParser(final DarcsXmlBackend backend) {
+        super();
+        this.backend = backend;
+    }
+
+    /**
+     * Sets the backend of parsers created w/o explicit backend.
+     *
+     * Only affects the JVM it is called in, parses on other nodes use {@link DarcsXmlBackend#SAX}.
+     *
+     * @param backend {@code null} for {@link DarcsXmlBackend#SAX}
+     */
+    static void setDefaultBackend(final DarcsXmlBackend backend) {
+        defaultBackend = null == backend ? DarcsXmlBackend.SAX : backend;
     }
 
     /**
@@ -57,7 +94,13 @@ class DarcsChangeLogParser extends ChangeLogParser {
      * Parses the Darcs change log file.
      *
      * The Darcs change log file is in XML format (as given by the command
-     * {@literal darcs changes --xml-output --summary}).
+     * {@literal darcs changes --xml-output --summary}). If there is a valid {@link DarcsChangeLogBinary} or
+     * {@link DarcsChangeLogIndex} sidecar for the file, a lazy change set list is returned which loads only the changes
+     * it is asked for. The binary sidecar is preferred, because it needs no parsing at all.
+     *
+     * Otherwise the change log is parsed completely and, if it is at least {@link #SIDECAR_THRESHOLD} bytes large,
+     * the binary sidecar is written from the parsed change sets for the next parse. So the sidecar costs no extra
+     * parse and only builds whose changes are looked at get one.
      *
      * @param build the current build
      * @param changelogFile the change log file
@@ -68,9 +111,53 @@ class DarcsChangeLogParser extends ChangeLogParser {
     @Override
     public DarcsChangeSetList parse(final AbstractBuild build, final File changelogFile)
         throws IOException, SAXException {
+        final DarcsChangeLogBinary binary = DarcsChangeLogBinary.read(changelogFile);
+
+        if (null != binary) {
+            return new DarcsChangeSetList(build, binary);
+        }
+
+        final DarcsChangeLogIndex index = DarcsChangeLogIndex.read(changelogFile);
+
+        if (null != index) {
+            return new DarcsChangeSetList(build, index);
+        }
+
         LOGGER.info(String.format("Parsing changelog file %s...", changelogFile.toString()));
-        final StringReader input = new StringReader(makeSanitizer().cleanse(changelogFile));
-        return parse(build, new InputSource(input));
+        final DarcsChangeSetList changeSets = new DarcsChangeSetList(build, parseChangeSets(changelogFile));
+
+        if (changelogFile.length() >= SIDECAR_THRESHOLD) {
+            writeSidecar(changelogFile, changeSets);
+        }
+
+        return changeSets;
+    }
+
+    /**
+     * Writes the binary sidecar of a change log from its parsed change sets.
+     *
+     * Failures are only logged, because the change log is parsed completely if there is no sidecar.
+     *
+     * @param changelogFile the change log file
+     * @param changeSets parsed change sets of the change log
+     */
+    private static void writeSidecar(final File changelogFile, final DarcsChangeSetList changeSets) {
+        try {
+            DarcsChangeLogBinary.write(changelogFile, changeSets);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Failed to write change log sidecar: %s", e));
+        }
+    }
+
+    /**
+     * Parses a change log and writes its binary sidecar, regardless of its size.
+     *
+     * @param changelogFile the change log file
+     * @throws IOException on read or write errors
+     * @throws SAXException on parse errors
+     */
+    void writeSidecar(final File changelogFile) throws IOException, SAXException {
+        DarcsChangeLogBinary.write(changelogFile, new DarcsChangeSetList(parseChangeSets(changelogFile)));
     }
 
     /**
@@ -82,16 +169,130 @@ class DarcsChangeLogParser extends ChangeLogParser {
      * @throws SAXException on parse errors
      */
     DarcsChangeSetList parse(final ByteArrayOutputStream changeLog) throws IOException, SAXException {
-        final StringReader input = new StringReader(makeSanitizer().cleanse(changeLog.toByteArray()));
-        return parse(null, new InputSource(input));
+        return parse(new ByteArrayInputStream(changeLog.toByteArray()));
     }
 
-    private DarcsChangeSetList parse(final AbstractBuild build, final InputSource changeLog) throws IOException, SAXException {
-        final XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-        final DarcsSaxHandler handler = makeHandler();
-        xmlReader.setContentHandler(handler);
-        xmlReader.setErrorHandler(handler);
-        xmlReader.parse(changeLog);
-        return new DarcsChangeSetList(build, handler.getChangeSets());
+    /**
+     * Parses the raw XML while it is read from the stream.
+     *
+     * The stream is sanitized on the fly, so the change log is never held in memory as a whole.
+     *
+     * @see #parse(hudson.model.AbstractBuild, java.io.File)
+     *
+     * @param changeLog stream to read XML from
+     * @return change set list w/ current build null
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    DarcsChangeSetList parse(final InputStream changeLog) throws IOException, SAXException {
+        return parse(null, changeLog);
+    }
+
+    /**
+     * Parses the raw XML from the stream into a list of change sets.
+     *
+     * Other than {@link #parse(java.io.InputStream)} the change sets are not sorted, but in the order darcs printed
+     * them, which is newest patch first.
+     *
+     * @param changeLog stream to read XML from
+     * @return list of change sets in document order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    List<DarcsChangeSet> parseChangeSets(final InputStream changeLog) throws IOException, SAXException {
+        return parse(new InputSource(makeSanitizer().cleanse(changeLog)));
+    }
+
+    /**
+     * Reads the change sets one by one while the raw XML is read from the stream.
+     *
+     * Other than the parse methods this lets the caller stop early, e.g. after the newest patches. The change sets are
+     * in the order darcs printed them, regardless of the backend of this parser.
+     *
+     * @param changeLog stream to read XML from, closed with the returned reader
+     * @return never {@code null}, must be closed by the caller
+     * @throws SAXException if the reader can't be created
+     */
+    DarcsChangeSetReader read(final InputStream changeLog) throws SAXException {
+        return new DarcsChangeSetReader(makeSanitizer().cleanse(changeLog));
+    }
+
+    /**
+     * Parses a change log file into a list of change sets.
+     *
+     * Files of at least {@link DarcsXmlSanitizer#PARALLEL_THRESHOLD} bytes are read at once and sanitized in parallel,
+     * smaller ones and compressed ones are streamed. The file is not mapped, because a mapping keeps the file locked
+     * on Windows until it is garbage collected.
+     *
+     * @param changelogFile the change log file
+     * @return list of change sets in document order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    List<DarcsChangeSet> parseChangeSets(final File changelogFile) throws IOException, SAXException {
+        if (changelogFile.length() < DarcsXmlSanitizer.PARALLEL_THRESHOLD
+                || DarcsChangeLogFile.isCompressed(changelogFile)) {
+            final InputStream input = DarcsChangeLogFile.open(changelogFile);
+
+            try {
+                return parseChangeSets(input);
+            } finally {
+                input.close();
+            }
+        }
+
+        final RandomAccessFile file = new RandomAccessFile(changelogFile, "r");
+        final ByteBuffer content;
+
+        try {
+            final FileChannel channel = file.getChannel();
+            content = ByteBuffer.allocate((int) channel.size());
+
+            while (content.hasRemaining()) {
+                if (-1 == channel.read(content)) {
+                    throw new IOException(String.format("Unexpected end of change log %s!", changelogFile));
+                }
+            }
+
+            content.flip();
+        } finally {
+            file.close();
+        }
+
+        // Jenkins manages the threads, the sanitizer bounds the chunks in flight
+        final Reader sanitized = makeSanitizer().cleanse(content, Computer.threadPoolForRemoting);
+
+        try {
+            return parse(new InputSource(sanitized));
+        } finally {
+            // cancels the chunks not sanitized yet if parsing failed
+            sanitized.close();
+        }
+    }
+
+    /**
+     * Sanitizes and parses the raw XML from the stream.
+     *
+     * @param build the current build, may be {@code null}
+     * @param changeLog stream to read XML from
+     * @return change set list
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    private DarcsChangeSetList parse(final AbstractBuild build, final InputStream changeLog)
+        throws IOException, SAXException {
+        return new DarcsChangeSetList(build, parseChangeSets(changeLog));
+    }
+
+    /**
+     * Parses the change sets from the input source.
+     *
+     * @param changeLog sanitized XML
+     * @return list of change sets in document order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    private List<DarcsChangeSet> parse(final InputSource changeLog) throws IOException, SAXException {
+        return backend.parse(changeLog);
     }
 }
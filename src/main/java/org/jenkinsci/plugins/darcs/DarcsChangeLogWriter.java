@@ -0,0 +1,156 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes change sets as Darcs XML change log which is readable by {@link DarcsChangeLogParser}.
+ *
+ * Only the data of {@link DarcsChangeSet} is written, so moves are written as removed and added file.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsChangeLogWriter {
+
+    /**
+     * Encoding of the written XML.
+     */
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * Receives the XML.
+     */
+    private final Writer out;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param out receives the XML, not closed by the writer
+     */
+    DarcsChangeLogWriter(final OutputStream out) {
+        super();
+
+        try {
+            this.out = new OutputStreamWriter(out, ENCODING);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Writes a change log with the given change sets.
+     *
+     * @param changeSets change sets in the order to write
+     * @throws IOException on write errors
+     */
+    void write(final List<DarcsChangeSet> changeSets) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"" + ENCODING + "\"?>\n<changelog>\n");
+
+        for (final DarcsChangeSet changeSet : changeSets) {
+            write(changeSet);
+        }
+
+        out.write("</changelog>\n");
+        out.flush();
+    }
+
+    /**
+     * Writes one patch element.
+     *
+     * @param changeSet change set to write
+     * @throws IOException on write errors
+     */
+    private void write(final DarcsChangeSet changeSet) throws IOException {
+        out.write("<patch author=\"");
+        out.write(escape(changeSet.getPlainAuthor()));
+        out.write("\" date=\"");
+        out.write(escape(changeSet.getDate()));
+        out.write("\" local_date=\"");
+        out.write(escape(changeSet.getLocalDate()));
+        out.write("\" inverted=\"");
+        out.write(String.valueOf(changeSet.isInverted()));
+        out.write("\" hash=\"");
+        out.write(escape(changeSet.getHash()));
+        out.write("\">\n\t<name>");
+        out.write(escape(changeSet.getName()));
+        out.write("</name>\n\t<comment>");
+        out.write(escape(changeSet.getComment()));
+        out.write("</comment>\n\t<summary>\n");
+
+        for (final String path : changeSet.getModifiedPaths()) {
+            // the parser takes the path when the first child of modify_file starts
+            out.write("\t\t<modify_file>");
+            out.write(escape(path));
+            out.write("<added_lines num=\"0\"/></modify_file>\n");
+        }
+
+        writePaths("add_file", changeSet.getAddedPaths());
+        writePaths("remove_file", changeSet.getDeletedPaths());
+        out.write("\t</summary>\n</patch>\n");
+    }
+
+    /**
+     * Writes a summary element for each path.
+     *
+     * @param tag element name
+     * @param paths paths to write
+     * @throws IOException on write errors
+     */
+    private void writePaths(final String tag, final List<String> paths) throws IOException {
+        for (final String path : paths) {
+            out.write("\t\t<" + tag + ">");
+            out.write(escape(path));
+            out.write("</" + tag + ">\n");
+        }
+    }
+
+    /**
+     * Escapes XML special characters.
+     *
+     * @param value value to escape, may be {@code null}
+     * @return never {@code null}
+     */
+    static String escape(final String value) {
+        if (null == value) {
+            return "";
+        }
+
+        final StringBuilder escaped = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            switch (c) {
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+
+        return escaped.toString();
+    }
+}
@@ -13,9 +13,11 @@ import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.EditType;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.kohsuke.stapler.export.Exported;
 
@@ -29,6 +31,31 @@ import org.kohsuke.stapler.export.Exported;
  */
 public class DarcsChangeSet extends ChangeLogSet.Entry {
 
+    /**
+     * Kind of files added by this patch.
+     */
+    private static final byte ADDED = 0;
+    /**
+     * Kind of files deleted by this patch.
+     */
+    private static final byte DELETED = 1;
+    /**
+     * Kind of files modified by this patch.
+     */
+    private static final byte MODIFIED = 2;
+    /**
+     * Shared by all change sets w/o paths.
+     */
+    private static final DarcsPathTrie.Node[] NO_PATHS = new DarcsPathTrie.Node[0];
+    /**
+     * Shared by all change sets w/o paths.
+     */
+    private static final byte[] NO_KINDS = new byte[0];
+    /**
+     * Initial capacity of the path arrays.
+     */
+    private static final int INITIAL_CAPACITY = 4;
+
     /**
      * The patch author.
      */
@@ -58,28 +85,33 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
      */
     private String comment;
     /**
-     * Filles added by this patch.
+     * Interned paths of all files affected by this patch in order of adding.
      */
-    private List<String> added = new ArrayList<String>();
+    private DarcsPathTrie.Node[] paths = NO_PATHS;
     /**
-     * Filles deleted by this patch.
+     * Kind of change per path, one of {@link #ADDED}, {@link #DELETED} or {@link #MODIFIED}.
      */
-    private List<String> deleted = new ArrayList<String>();
+    private byte[] kinds = NO_KINDS;
     /**
-     * Filles modified by this patch.
+     * Number of used entries in {@link #paths} and {@link #kinds}.
      */
-    private List<String> modified = new ArrayList<String>();
+    private int pathCount;
+    /**
+     * Number of paths per kind, indexed by kind.
+     */
+    private final int[] kindCounts = new int[MODIFIED + 1];
 
     /**
      * Returns the author as User object.
      *
-     * If you want the parsed author string from Darcs call getPlainAuthor().
+     * If you want the parsed author string from Darcs call getPlainAuthor(). The users are cached controller wide
+     * by {@link DarcsAuthorResolver}.
      *
      * @return a Jenkins user object
      */
     @Exported
     public User getAuthor() {
-        return User.get(getPlainAuthor());
+        return DarcsAuthorResolver.getInstance().resolve(getPlainAuthor());
     }
 
     /**
@@ -241,17 +273,89 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
     }
 
     /**
-     * Returns a lazy computed list of all files affected by this patch.
+     * Returns all files affected by this patch.
+     *
+     * The added files come first, then the deleted and then the modified files.
      *
-     * @return the list is recalculated on each call
+     * @return read-only view
      */
     @Override
     public List<String> getAffectedPaths() {
-        return new ArrayList<String>() {
-            {
-                addAll(added);
-                addAll(deleted);
-                addAll(modified);
+        return new AbstractList<String>() {
+            @Override
+            public String get(final int index) {
+                int offset = index;
+
+                for (byte kind = ADDED; kind <= MODIFIED && offset >= 0; kind++) {
+                    if (offset < count(kind)) {
+                        return pathAt(positionOf(kind, offset));
+                    }
+
+                    offset -= count(kind);
+                }
+
+                throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, pathCount));
+            }
+
+            @Override
+            public int size() {
+                return pathCount;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                // one pass per kind instead of searching each index
+                return new Iterator<String>() {
+                    /**
+                     * Kind of the next path.
+                     */
+                    private byte kind = ADDED;
+                    /**
+                     * Position of the next path of {@link #kind}.
+                     */
+                    private int next = advance(0);
+
+                    /**
+                     * Finds the next path, switching to the next kind at the end of the paths.
+                     *
+                     * @param from first position to look at
+                     * @return position or {@link #pathCount} if there is none
+                     */
+                    private int advance(final int from) {
+                        int position = from;
+
+                        while (true) {
+                            while (position < pathCount && kinds[position] != kind) {
+                                ++position;
+                            }
+
+                            if (position < pathCount || MODIFIED == kind) {
+                                return position;
+                            }
+
+                            ++kind;
+                            position = 0;
+                        }
+                    }
+
+                    public boolean hasNext() {
+                        return next < pathCount;
+                    }
+
+                    public String next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        final int current = next;
+                        next = advance(next + 1);
+                        return pathAt(current);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Affected paths are read-only!");
+                    }
+                };
             }
         };
     }
@@ -259,31 +363,147 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
     /**
      * Gets all the files that were added.
      *
-     * @return modifiable list
+     * @return view which supports adding and removing paths
      */
     @Exported
     public List<String> getAddedPaths() {
-        return added;
+        return new PathList(ADDED);
     }
 
     /**
      * Gets all the files that were deleted.
      *
-     * @return modifiable list
+     * @return view which supports adding and removing paths
      */
     @Exported
     public List<String> getDeletedPaths() {
-        return deleted;
+        return new PathList(DELETED);
     }
 
     /**
      * Gets all the files that were modified.
      *
-     * @return modifiable list
+     * @return view which supports adding and removing paths
      */
     @Exported
     public List<String> getModifiedPaths() {
-        return modified;
+        return new PathList(MODIFIED);
+    }
+
+    /**
+     * Returns the path at a position of {@link #paths}.
+     *
+     * @param position position in {@link #paths}
+     * @return may be {@code null}
+     */
+    private String pathAt(final int position) {
+        final DarcsPathTrie.Node node = paths[position];
+        return null == node ? null : node.toString();
+    }
+
+    /**
+     * Counts the paths of a kind.
+     *
+     * @param kind kind of change
+     * @return count of paths
+     */
+    private int count(final byte kind) {
+        return kindCounts[kind];
+    }
+
+    /**
+     * Returns the position of the n-th path of a kind in {@link #paths}.
+     *
+     * @param kind kind of change
+     * @param index n-th path of the kind
+     * @return position or -1 if there are not enough paths of the kind
+     */
+    private int positionOf(final byte kind, final int index) {
+        int seen = 0;
+
+        for (int i = 0; i < pathCount; i++) {
+            if (kinds[i] == kind) {
+                if (seen == index) {
+                    return i;
+                }
+
+                ++seen;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Inserts a path at a position of {@link #paths}.
+     *
+     * @param position position in {@link #paths}
+     * @param kind kind of change
+     * @param path path to intern
+     */
+    private void insertPath(final int position, final byte kind, final String path) {
+        if (pathCount == paths.length) {
+            final int capacity = Math.max(INITIAL_CAPACITY, pathCount + (pathCount >> 1));
+            final DarcsPathTrie.Node[] grownPaths = new DarcsPathTrie.Node[capacity];
+            final byte[] grownKinds = new byte[capacity];
+            System.arraycopy(paths, 0, grownPaths, 0, pathCount);
+            System.arraycopy(kinds, 0, grownKinds, 0, pathCount);
+            paths = grownPaths;
+            kinds = grownKinds;
+        }
+
+        System.arraycopy(paths, position, paths, position + 1, pathCount - position);
+        System.arraycopy(kinds, position, kinds, position + 1, pathCount - position);
+        paths[position] = DarcsPathTrie.SHARED.intern(path);
+        kinds[position] = kind;
+        ++pathCount;
+        ++kindCounts[kind];
+    }
+
+    /**
+     * Removes a path at a position of {@link #paths}.
+     *
+     * @param position position in {@link #paths}
+     */
+    private void removePath(final int position) {
+        --kindCounts[kinds[position]];
+        System.arraycopy(paths, position + 1, paths, position, pathCount - position - 1);
+        System.arraycopy(kinds, position + 1, kinds, position, pathCount - position - 1);
+        --pathCount;
+        paths[pathCount] = null;
+    }
+
+    /**
+     * Compares the paths of a kind with those of an other change set in one pass.
+     *
+     * @param other change set to compare with
+     * @param kind kind of change
+     * @return {@code true} if both have the same paths of the kind in the same order
+     */
+    private boolean equalPaths(final DarcsChangeSet other, final byte kind) {
+        if (count(kind) != other.count(kind)) {
+            return false;
+        }
+
+        int position = 0;
+        int otherPosition = 0;
+
+        for (int i = 0; i < count(kind); i++, position++, otherPosition++) {
+            while (kinds[position] != kind) {
+                ++position;
+            }
+
+            while (other.kinds[otherPosition] != kind) {
+                ++otherPosition;
+            }
+
+            if (paths[position] != other.paths[otherPosition]
+                    && !equal(pathAt(position), other.pathAt(otherPosition))) {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     /**
@@ -308,6 +528,35 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
         return null;
     }
 
+    /**
+     * Copies the patch data w/o the parent.
+     *
+     * Change sets shared by several lists must be copied, because each list sets itself as parent.
+     *
+     * @return new change set equal to this one
+     */
+    DarcsChangeSet copy() {
+        final DarcsChangeSet copy = new DarcsChangeSet();
+        copy.author = author;
+        copy.date = date;
+        copy.localDate = localDate;
+        copy.inverted = inverted;
+        copy.hash = hash;
+        copy.name = name;
+        copy.comment = comment;
+
+        if (pathCount > 0) {
+            copy.paths = new DarcsPathTrie.Node[pathCount];
+            copy.kinds = new byte[pathCount];
+            System.arraycopy(paths, 0, copy.paths, 0, pathCount);
+            System.arraycopy(kinds, 0, copy.kinds, 0, pathCount);
+            copy.pathCount = pathCount;
+            System.arraycopy(kindCounts, 0, copy.kindCounts, 0, kindCounts.length);
+        }
+
+        return copy;
+    }
+
     @Override
     protected void setParent(final ChangeLogSet parent) {
         super.setParent(parent);
@@ -331,24 +580,24 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
                 + ", date=" + date
                 + ", localDate=" + localDate
                 + ", inverted=" + inverted
-                + ", added=" + added
-                + ", modified=" + modified
-                + ", deleted=" + deleted
+                + ", added=" + getAddedPaths()
+                + ", modified=" + getModifiedPaths()
+                + ", deleted=" + getDeletedPaths()
                 + '}';
     }
 
     @Override
     public int hashCode() {
         return Arrays.hashCode(new Object[]{
-            added,
+            getAddedPaths(),
             author,
             comment,
             date,
-            deleted,
+            getDeletedPaths(),
             hash,
             inverted,
             localDate,
-            modified,
+            getModifiedPaths(),
             name,
         });
     }
@@ -361,7 +610,7 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
 
         final DarcsChangeSet other = (DarcsChangeSet) obj;
 
-        if (!equal(added, other.added)) {
+        if (!equalPaths(other, ADDED)) {
             return false;
         }
 
@@ -377,7 +626,7 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
             return false;
         }
 
-        if (!equal(deleted, other.deleted)) {
+        if (!equalPaths(other, DELETED)) {
             return false;
         }
 
@@ -389,7 +638,7 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
             return false;
         }
 
-        if (!equal(modified, other.modified)) {
+        if (!equalPaths(other, MODIFIED)) {
             return false;
         }
 
@@ -415,4 +664,136 @@ public class DarcsChangeSet extends ChangeLogSet.Entry {
         return a == b || (a != null && a.equals(b));
     }
 
+    /**
+     * View of the paths of one kind.
+     */
+    private final class PathList extends AbstractList<String> {
+
+        /**
+         * Kind of change.
+         */
+        private final byte kind;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param kind kind of change
+         */
+        PathList(final byte kind) {
+            super();
+            this.kind = kind;
+        }
+
+        @Override
+        public String get(final int index) {
+            return pathAt(position(index));
+        }
+
+        @Override
+        public int size() {
+            return count(kind);
+        }
+
+        @Override
+        public boolean add(final String path) {
+            insertPath(pathCount, kind, path);
+            return true;
+        }
+
+        @Override
+        public void add(final int index, final String path) {
+            if (index == size()) {
+                insertPath(pathCount, kind, path);
+            } else {
+                insertPath(position(index), kind, path);
+            }
+        }
+
+        @Override
+        public String set(final int index, final String path) {
+            final int position = position(index);
+            final String previous = pathAt(position);
+            paths[position] = DarcsPathTrie.SHARED.intern(path);
+            return previous;
+        }
+
+        @Override
+        public String remove(final int index) {
+            final int position = position(index);
+            final String previous = pathAt(position);
+            removePath(position);
+            return previous;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            // one pass instead of searching each index
+            return new Iterator<String>() {
+                /**
+                 * Position of the next path of this kind.
+                 */
+                private int next = advance(0);
+                /**
+                 * Position of the last returned path, -1 if removed or none returned yet.
+                 */
+                private int last = -1;
+
+                /**
+                 * Finds the next path of this kind.
+                 *
+                 * @param from first position to look at
+                 * @return position or {@link #pathCount} if there is none
+                 */
+                private int advance(final int from) {
+                    int position = from;
+
+                    while (position < pathCount && kinds[position] != kind) {
+                        ++position;
+                    }
+
+                    return position;
+                }
+
+                public boolean hasNext() {
+                    return next < pathCount;
+                }
+
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    last = next;
+                    next = advance(next + 1);
+                    return pathAt(last);
+                }
+
+                public void remove() {
+                    if (-1 == last) {
+                        throw new IllegalStateException();
+                    }
+
+                    removePath(last);
+                    next = advance(last);
+                    last = -1;
+                }
+            };
+        }
+
+        /**
+         * Returns the position of a path of this kind in {@link #paths}.
+         *
+         * @param index index in this view
+         * @return position in {@link #paths}
+         */
+        private int position(final int index) {
+            final int position = positionOf(kind, index);
+
+            if (-1 == position) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size()));
+            }
+
+            return position;
+        }
+    }
 }
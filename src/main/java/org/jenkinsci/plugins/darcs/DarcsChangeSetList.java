@@ -12,15 +12,19 @@ package org.jenkinsci.plugins.darcs;
 import hudson.scm.ChangeLogSet;
 import hudson.model.AbstractBuild;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.NoSuchElementException;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import org.xml.sax.SAXException;
+
 /**
  * List of change set that went into a particular build.
  *
@@ -38,13 +42,34 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
     private static final int BYTE_MASK = 0xFF;
 
     /**
-     * Set of the changes.
+     * Number of change sets loaded at once when iterating a lazy list.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Set of the changes, {@code null} until loaded if lazy.
+     */
+    private List<DarcsChangeSet> changeSets;
+    /**
+     * Whether {@link #changeSets} is ordered by hash.
+     *
+     * The order is only needed for presentation, so the changes are sorted on first access.
      */
-    private final List<DarcsChangeSet> changeSets;
+    private boolean sorted;
+    /**
+     * Source to load the changes from, {@code null} if not lazy.
+     */
+    private final DarcsChangeSetSource source;
     /**
      * Lazy computed digest over all change set hashes.
      */
     private String digest;
+    /**
+     * Order independent fingerprint over all change set hashes.
+     *
+     * May be {@code null} for lists unmarshalled from prior versions.
+     */
+    private DarcsRevisionFingerprint fingerprint;
 
     /**
      * Convenience constructor with empty change set list.
@@ -71,23 +96,37 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
     @SuppressWarnings("LeakingThisInConstructor") // because its' at the end od constructor
     public DarcsChangeSetList(final AbstractBuild build, final List<DarcsChangeSet> changes) {
         super(build);
-
-        // we want the changesets allways in same order for digesting
-        Collections.sort(changes, new Comparator<DarcsChangeSet>() {
-            public int compare(DarcsChangeSet a, DarcsChangeSet b) {
-                return a.getHash().compareTo(b.getHash());
-            }
-        });
-        changeSets = Collections.unmodifiableList(changes);
+        changeSets = changes;
+        source = null;
+        final DarcsRevisionFingerprint.Accumulator accumulator = new DarcsRevisionFingerprint.Accumulator();
 
         for (final DarcsChangeSet log : changes) {
             log.setParent(this);
+            accumulator.add(log.getHash());
         }
+
+        fingerprint = accumulator.toFingerprint();
+    }
+
+    /**
+     * Constructs a lazy list which loads the changes from a sidecar of the change log.
+     *
+     * Count, emptiness and digest are taken from the sidecar. The iterator loads the changes page by page, and only
+     * {@link #getChangeSets()} loads all of them.
+     *
+     * @param build current build associated with change set
+     * @param source sidecar of the change log
+     */
+    DarcsChangeSetList(final AbstractBuild build, final DarcsChangeSetSource source) {
+        super(build);
+        this.source = source;
+        this.digest = source.getDigest();
+        this.fingerprint = source.getFingerprint();
     }
 
     @Override
     public boolean isEmptySet() {
-        return getChangeSets().isEmpty();
+        return 0 == size();
     }
 
     /**
@@ -96,7 +135,11 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
      * @return change set iterator
      */
     public Iterator<DarcsChangeSet> iterator() {
-        return getChangeSets().iterator();
+        if (null == source || isLoaded()) {
+            return getChangeSets().iterator();
+        }
+
+        return new PageIterator();
     }
 
     /**
@@ -105,16 +148,73 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
      * @return size of changes
      */
     public int size() {
-        return getChangeSets().size();
+        if (null == source) {
+            return changeSets.size();
+        }
+
+        return source.getCount();
     }
 
     /**
-     * Returns the change set list.
+     * Returns the change set list ordered by hash.
+     *
+     * A lazy list loads all changes on the first call. Sidecars store the changes already ordered.
      *
      * @return change set list
      */
     public List<DarcsChangeSet> getChangeSets() {
-        return changeSets;
+        synchronized (this) {
+            if (null == changeSets) {
+                changeSets = Collections.unmodifiableList(load(0, source.getCount()));
+                sorted = true;
+            } else if (!sorted) {
+                // copy to not reorder the list of the caller
+                final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>(changeSets);
+                Collections.sort(changes, new Comparator<DarcsChangeSet>() {
+                    public int compare(DarcsChangeSet a, DarcsChangeSet b) {
+                        return a.getHash().compareTo(b.getHash());
+                    }
+                });
+                changeSets = Collections.unmodifiableList(changes);
+                sorted = true;
+            }
+
+            return changeSets;
+        }
+    }
+
+    /**
+     * Whether all changes are loaded.
+     *
+     * @return {@code true} if loaded, else {@code false}
+     */
+    private synchronized boolean isLoaded() {
+        return null != changeSets;
+    }
+
+    /**
+     * Loads a range of changes from the source.
+     *
+     * @param from index of the first change set, inclusive
+     * @param to index of the last change set, exclusive
+     * @return loaded change sets with this list as parent
+     */
+    private List<DarcsChangeSet> load(final int from, final int to) {
+        final List<DarcsChangeSet> loaded;
+
+        try {
+            loaded = source.load(from, to);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Can't load changes of change log sidecar!", ex);
+        } catch (SAXException ex) {
+            throw new IllegalStateException("Can't load changes of change log sidecar!", ex);
+        }
+
+        for (final DarcsChangeSet log : loaded) {
+            log.setParent(this);
+        }
+
+        return loaded;
     }
 
     /**
@@ -182,6 +282,33 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
         return digest;
     }
 
+    /**
+     * Returns the order independent fingerprint over all change set hashes.
+     *
+     * Computed while constructing the list, or on first call for lists unmarshalled from prior versions.
+     *
+     * @return never {@code null}
+     */
+    public DarcsRevisionFingerprint getFingerprint() {
+        if (null == fingerprint) {
+            final DarcsRevisionFingerprint.Accumulator accumulator = new DarcsRevisionFingerprint.Accumulator();
+
+            for (final DarcsChangeSet cs : this) {
+                accumulator.add(cs.getHash());
+            }
+
+            fingerprint = accumulator.toFingerprint();
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Compares the fingerprints of two lists.
+     *
+     * @param object other object
+     * @return {@code true} if the other list contains changes with the same hashes in any order
+     */
     @Override
     public boolean equals(final Object object) {
         if (!(object instanceof DarcsChangeSetList)) {
@@ -189,17 +316,56 @@ public class DarcsChangeSetList extends ChangeLogSet<DarcsChangeSet> {
         }
 
         final DarcsChangeSetList other = (DarcsChangeSetList) object;
-        return digest().equals(other.digest());
+        return getFingerprint().equals(other.getFingerprint());
     }
 
     @Override
     public int hashCode() {
-        return digest().hashCode();
+        return getFingerprint().hashCode();
     }
 
     @Override
     public String toString() {
-        return String.format("DarcsChangeSetList{changeSets=%s, digest=%s}", changeSets, digest());
+        return String.format("DarcsChangeSetList{changeSets=%s, digest=%s}", getChangeSets(), digest());
     }
 
+    /**
+     * Iterates a lazy list page by page w/o holding all changes.
+     */
+    private final class PageIterator implements Iterator<DarcsChangeSet> {
+
+        /**
+         * Index of the next change set.
+         */
+        private int next;
+        /**
+         * Current page.
+         */
+        private List<DarcsChangeSet> page = Collections.emptyList();
+        /**
+         * Index of the first change set of the current page.
+         */
+        private int pageStart;
+
+        public boolean hasNext() {
+            return next < size();
+        }
+
+        public DarcsChangeSet next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (next - pageStart >= page.size()) {
+                pageStart = next;
+                page = load(next, Math.min(next + PAGE_SIZE, size()));
+            }
+
+            return page.get(next++ - pageStart);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Change set list is read only!");
+        }
+    }
 }
@@ -0,0 +1,424 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.xml.sax.SAXException;
+
+/**
+ * StAX based change log parser which pulls one change set at a time.
+ *
+ * Other than {@link DarcsSaxHandler} the caller decides how far the change log is read, so reading the newest patches
+ * of a long history stops right after them. The change sets are equal to those the {@link DarcsSaxHandler} collects.
+ *
+ * Not thread safe.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsChangeSetReader implements Closeable {
+
+    /**
+     * Logging facility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DarcsChangeSetReader.class.getName());
+    /**
+     * True attribute value for boolean tag attributes.
+     */
+    private static final String ATTR_TRUE = "True";
+    /**
+     * False attribute value for boolean tag attributes.
+     */
+    private static final String ATTR_FALSE = "False";
+    /**
+     * One factory per thread, factories are not guaranteed to be thread safe.
+     */
+    private static final ThreadLocal<XMLInputFactory> FACTORIES = new ThreadLocal<XMLInputFactory>();
+
+    /**
+     * The tags used in the change log XML.
+     *
+     * The tag names are literals and so interned. StAX implementations usually intern the names they report too,
+     * which makes the lookup a few reference comparisons.
+     */
+    private enum Tag {
+
+        /**
+         * Tag {@literal <patch>}.
+         */
+        PATCH("patch"),
+        /**
+         * Tag {@literal <name>}.
+         */
+        NAME("name"),
+        /**
+         * Tag {@literal <comment>}.
+         */
+        COMMENT("comment"),
+        /**
+         * Tag {@literal <summary>}.
+         */
+        SUMMARY("summary"),
+        /**
+         * Tag {@literal <modify_file>}.
+         */
+        MODIFY_FILE("modify_file"),
+        /**
+         * Tag {@literal <added_lines>}.
+         */
+        ADDED_LINES("added_lines"),
+        /**
+         * Tag {@literal <removed_lines>}.
+         */
+        REMOVED_LINES("removed_lines"),
+        /**
+         * Tag {@literal <add_file>}.
+         */
+        ADD_FILE("add_file"),
+        /**
+         * Tag {@literal <remove_file>}.
+         */
+        REMOVE_FILE("remove_file"),
+        /**
+         * Tag {@literal <move>}.
+         */
+        MOVE_FILE("move"),
+        /**
+         * Tag {@literal <add_directory>}.
+         */
+        ADD_DIRECTORY("add_directory"),
+        /**
+         * Tag {@literal <remove_directory>}.
+         */
+        REMOVE_DIRECTORY("remove_directory"),
+        /**
+         * Tag {@literal <changelog>}.
+         */
+        CHANGELOG("changelog"),
+        /**
+         * Tag {@literal <patches>}, root of {@code darcs pull --dry-run --xml-output}.
+         */
+        PATCHES("patches");
+
+        /**
+         * All tags, most frequent first.
+         */
+        private static final Tag[] ALL = values();
+        /**
+         * Literal tag name.
+         */
+        private final String tagName;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param tagName the string between the angle brackets
+         */
+        private Tag(final String tagName) {
+            this.tagName = tagName;
+        }
+
+        /**
+         * Returns the tag of a tag name.
+         *
+         * @param tagName literal tag name
+         * @return {@code null} if the tag name is unknown
+         */
+        static Tag forTagName(final String tagName) {
+            for (final Tag tag : ALL) {
+                if (tag.tagName == tagName) {
+                    return tag;
+                }
+            }
+
+            // not interned by the StAX implementation
+            for (final Tag tag : ALL) {
+                if (tag.tagName.equals(tagName)) {
+                    return tag;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Pulls the events.
+     */
+    private final XMLStreamReader reader;
+    /**
+     * Sanitized XML, closed with the reader.
+     */
+    private final Reader source;
+    /**
+     * Buffers scanned literals, reused for all elements.
+     */
+    private final StringBuilder literalBuffer = new StringBuilder();
+    /**
+     * The current parsed tag.
+     */
+    private Tag currentTag;
+    /**
+     * Current processed change set.
+     */
+    private DarcsChangeSet currentChangeSet;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param source sanitized XML
+     * @throws SAXException if the reader can't be created
+     */
+    DarcsChangeSetReader(final Reader source) throws SAXException {
+        super();
+        this.source = source;
+
+        try {
+            reader = factory().createXMLStreamReader(source);
+        } catch (XMLStreamException ex) {
+            throw new SAXException(ex);
+        }
+    }
+
+    /**
+     * Returns the factory of the current thread.
+     *
+     * The factory neither reads DTDs nor resolves external entities.
+     *
+     * @return never {@code null}
+     */
+    private static XMLInputFactory factory() {
+        XMLInputFactory factory = FACTORIES.get();
+
+        if (null == factory) {
+            factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            FACTORIES.set(factory);
+        }
+
+        return factory;
+    }
+
+    /**
+     * Reads the next change set.
+     *
+     * @return {@code null} if there are no more change sets
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    DarcsChangeSet read() throws IOException, SAXException {
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement();
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        final DarcsChangeSet changeSet = endElement();
+
+                        if (null != changeSet) {
+                            return changeSet;
+                        }
+
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        characters();
+                        break;
+                    default:
+                        // comments and processing instructions are not part of the change sets
+                }
+            }
+        } catch (XMLStreamException ex) {
+            if (ex.getNestedException() instanceof IOException) {
+                throw (IOException) ex.getNestedException();
+            }
+
+            throw new SAXException(ex);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads all remaining change sets.
+     *
+     * @return list of change sets in document order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    List<DarcsChangeSet> readAll() throws IOException, SAXException {
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>();
+
+        for (DarcsChangeSet changeSet = read(); null != changeSet; changeSet = read()) {
+            changeSets.add(changeSet);
+        }
+
+        return changeSets;
+    }
+
+    /**
+     * Reads the change sets up to and including the first one whose hash is not known.
+     *
+     * @param known hashes of the known patches
+     * @return change sets in document order, the last one is unknown unless all were known
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    List<DarcsChangeSet> readUntilUnknown(final Set<String> known) throws IOException, SAXException {
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>();
+
+        for (DarcsChangeSet changeSet = read(); null != changeSet; changeSet = read()) {
+            changeSets.add(changeSet);
+
+            if (!known.contains(changeSet.getHash())) {
+                break;
+            }
+        }
+
+        return changeSets;
+    }
+
+    /**
+     * Closes the reader and the sanitized XML.
+     *
+     * @throws IOException if the sanitized XML can't be closed
+     */
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            LOGGER.log(Level.FINE, "Can't close XML stream reader", ex);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Handles a start element.
+     */
+    private void startElement() {
+        if (Tag.MODIFY_FILE == currentTag) {
+            currentChangeSet.getModifiedPaths().add(literalBuffer.toString());
+        }
+
+        recognizeTag(reader.getLocalName());
+
+        if (Tag.PATCH == currentTag) {
+            currentChangeSet = new DarcsChangeSet();
+            currentChangeSet.setAuthor(reader.getAttributeValue(null, "author"));
+            currentChangeSet.setDate(reader.getAttributeValue(null, "date"));
+            currentChangeSet.setLocalDate(reader.getAttributeValue(null, "local_date"));
+            currentChangeSet.setHash(reader.getAttributeValue(null, "hash"));
+            final String inverted = reader.getAttributeValue(null, "inverted");
+
+            if (ATTR_TRUE.equalsIgnoreCase(inverted)) {
+                currentChangeSet.setInverted(true);
+            } else if (ATTR_FALSE.equalsIgnoreCase(inverted)) {
+                currentChangeSet.setInverted(false);
+            }
+        } else if (Tag.MOVE_FILE == currentTag) {
+            currentChangeSet.getDeletedPaths().add(reader.getAttributeValue(null, "from"));
+            currentChangeSet.getAddedPaths().add(reader.getAttributeValue(null, "to"));
+        }
+
+        literalBuffer.setLength(0);
+    }
+
+    /**
+     * Handles an end element.
+     *
+     * @return the change set if it's the end of a patch, else {@code null}
+     */
+    private DarcsChangeSet endElement() {
+        recognizeTag(reader.getLocalName());
+        final Tag tag = currentTag;
+        currentTag = null;
+
+        if (null == tag) {
+            return null;
+        }
+
+        switch (tag) {
+            case PATCH:
+                final DarcsChangeSet changeSet = currentChangeSet;
+                currentChangeSet = null;
+                return changeSet;
+            case NAME:
+                currentChangeSet.setName(literalBuffer.toString());
+                break;
+            case COMMENT:
+                currentChangeSet.setComment(DarcsSaxHandler.stripIgnoreThisFromComment(literalBuffer.toString()));
+                break;
+            case ADD_FILE:
+            case ADD_DIRECTORY:
+                currentChangeSet.getAddedPaths().add(literalBuffer.toString());
+                break;
+            case REMOVE_FILE:
+            case REMOVE_DIRECTORY:
+                currentChangeSet.getDeletedPaths().add(literalBuffer.toString());
+                break;
+            default:
+                // the paths of modified files are taken at their first nested element
+        }
+
+        return null;
+    }
+
+    /**
+     * Recognizes the current scanned tag.
+     *
+     * Logs a warning if the tag is unknown and keeps the {@link #currentTag}, like {@link DarcsSaxHandler} does.
+     *
+     * @param tagName scanned tag name
+     */
+    private void recognizeTag(final String tagName) {
+        final Tag tag = Tag.forTagName(tagName);
+
+        if (null == tag) {
+            LOGGER.warning(String.format("Unrecognized tag <%s>!", tagName));
+        } else {
+            currentTag = tag;
+        }
+    }
+
+    /**
+     * Handles character data.
+     *
+     * White spaces are skipped except in the text of name and comment tags.
+     */
+    private void characters() {
+        final char[] chars = reader.getTextCharacters();
+        final int end = reader.getTextStart() + reader.getTextLength();
+        final boolean skipWhiteSpace = Tag.NAME != currentTag && Tag.COMMENT != currentTag;
+
+        for (int i = reader.getTextStart(); i < end; i++) {
+            final char c = chars[i];
+
+            if (skipWhiteSpace && (' ' == c || '\n' == c || '\r' == c || '\t' == c)) {
+                continue;
+            }
+
+            literalBuffer.append(c);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.IOException;
+import java.util.List;
+import org.xml.sax.SAXException;
+
+/**
+ * Source a lazy {@link DarcsChangeSetList} loads its change sets from.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+interface DarcsChangeSetSource {
+
+    /**
+     * Returns the count of change sets.
+     *
+     * @return not negative
+     */
+    int getCount();
+
+    /**
+     * Returns the digest of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#digest()} of the fully parsed change log
+     */
+    String getDigest();
+
+    /**
+     * Returns the fingerprint of the change set list.
+     *
+     * @return same as {@link DarcsChangeSetList#getFingerprint()} of the fully parsed change log
+     */
+    DarcsRevisionFingerprint getFingerprint();
+
+    /**
+     * Loads a range of change sets.
+     *
+     * @param from index of the first change set, inclusive
+     * @param to index of the last change set, exclusive
+     * @return change sets in change set list order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    List<DarcsChangeSet> load(int from, int to) throws IOException, SAXException;
+}
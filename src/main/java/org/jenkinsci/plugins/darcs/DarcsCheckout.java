@@ -0,0 +1,644 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Launcher.LocalLauncher;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks out the source repository into the workspace repository on the node it is invoked on.
+ *
+ * The whole checkout runs on the node, so it costs one round trip over the remoting channel, no matter whether the
+ * workspace repository is pulled or got fresh and whether a mirror is updated. The change log is streamed to the
+ * controller while it is written, so it is neither held in the heap of the node nor of the controller.
+ *
+ * If the workspace repository exists and a clean checkout is not requested, exactly the patches listed by a dry run
+ * pull are pulled by hash, so patches pushed in the meantime wait for the next build. The dry run is written to a
+ * temporary file on the node and is the change log, w/o the patches which are already known to the patch index of the
+ * workspace repository, e.g. after an unpull. Otherwise the workspace repository is deleted and got fresh, from the
+ * mirror if a mirror cache is configured, and the change log is empty.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsCheckout implements FileCallable<DarcsCheckout.Result> {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 3L;
+    /**
+     * Logger facility.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DarcsCheckout.class.getName());
+    /**
+     * Printed by a dry run pull instead of XML if there is nothing to pull.
+     */
+    private static final String NOTHING_TO_PULL = "No remote changes to pull in!";
+    /**
+     * Dry run outputs up to this size in bytes are checked for {@link #NOTHING_TO_PULL}.
+     */
+    private static final int MAX_MESSAGE_SIZE = 1024;
+
+    /**
+     * Source repository URL.
+     */
+    private final String source;
+    /**
+     * Name of the Darcs executable binary.
+     */
+    private final String darcsExe;
+    /**
+     * Environment variables.
+     */
+    private final EnvVars envs;
+    /**
+     * Logs the checkout to the build log.
+     */
+    private final TaskListener listener;
+    /**
+     * Timeouts of the darcs operations in milliseconds.
+     */
+    private final Map<DarcsCmd.Operation, Long> timeouts =
+            new EnumMap<DarcsCmd.Operation, Long>(DarcsCmd.Operation.class);
+    /**
+     * Whether to get the workspace repository fresh even if it exists.
+     */
+    private boolean clean;
+    /**
+     * Whether to get the patches lazy.
+     */
+    private boolean lazy;
+    /**
+     * Get only the patches up to this tag, all if {@code null}.
+     */
+    private String tag;
+    /**
+     * Directory of the mirrors on the node, {@code null} if no mirror is used.
+     */
+    private String cacheRoot;
+    /**
+     * Updates the mirror, {@code null} if no mirror is used.
+     */
+    private DarcsMirror mirror;
+    /**
+     * Receives the change log, a remote stream to the change log file on the controller.
+     */
+    private OutputStream changeLog;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param source source repository URL
+     * @param darcsExe executable name
+     * @param envs environment variables
+     * @param listener logs the checkout to the build log
+     */
+    DarcsCheckout(final String source, final String darcsExe, final EnvVars envs, final TaskListener listener) {
+        super();
+        this.source = source;
+        this.darcsExe = darcsExe;
+        this.envs = envs;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets whether to get the workspace repository fresh even if it exists.
+     *
+     * @param clean {@code true} for a fresh get
+     * @return this for chaining
+     */
+    DarcsCheckout clean(final boolean clean) {
+        this.clean = clean;
+        return this;
+    }
+
+    /**
+     * Sets the options of a fresh get.
+     *
+     * @param lazy whether to get the patches lazy
+     * @param tag get only the patches up to this tag, all if {@code null} or empty
+     * @return this for chaining
+     */
+    DarcsCheckout get(final boolean lazy, final String tag) {
+        this.lazy = lazy;
+        this.tag = tag;
+        return this;
+    }
+
+    /**
+     * Sets the timeout of a darcs operation.
+     *
+     * @param operation darcs operation
+     * @param millis timeout in milliseconds, zero or less for none
+     * @return this for chaining
+     */
+    DarcsCheckout timeout(final DarcsCmd.Operation operation, final long millis) {
+        timeouts.put(operation, millis);
+        return this;
+    }
+
+    /**
+     * Gets fresh workspace repositories from a mirror.
+     *
+     * @param root directory of the mirrors on the node
+     * @param updater updates the mirror before the get
+     * @return this for chaining
+     */
+    DarcsCheckout mirror(final String root, final DarcsMirror updater) {
+        this.cacheRoot = root;
+        this.mirror = updater;
+        return this;
+    }
+
+    /**
+     * Sets the stream the change log is written to.
+     *
+     * Nothing is written if the change log is empty. The stream is closed after the change log is written.
+     *
+     * @param out must be serializable, e.g. a {@link hudson.remoting.RemoteOutputStream}
+     * @return this for chaining
+     */
+    DarcsCheckout changeLog(final OutputStream out) {
+        this.changeLog = out;
+        return this;
+    }
+
+    /**
+     * Checks out the workspace repository.
+     *
+     * @param repo workspace repository directory
+     * @param channel passed to the mirror
+     * @return never {@code null}
+     * @throws IOException if the change log can't be written
+     * @throws InterruptedException if the build was aborted
+     */
+    public Result invoke(final File repo, final VirtualChannel channel) throws IOException, InterruptedException {
+        final File parent = repo.getAbsoluteFile().getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException(String.format("Can't create directory %s!", parent));
+        }
+
+        final DarcsCmd cmd = new DarcsCmd(new LocalLauncher(listener), envs, darcsExe, new FilePath(parent));
+        // the controller holds the process slots of the node and the source for the whole checkout
+
+        for (final Map.Entry<DarcsCmd.Operation, Long> timeout : timeouts.entrySet()) {
+            cmd.timeout(timeout.getKey(), timeout.getValue());
+        }
+
+        return checkout(cmd, repo, channel);
+    }
+
+    /**
+     * Checks out the workspace repository with the given darcs command.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @param channel passed to the mirror
+     * @return never {@code null}
+     * @throws IOException if the change log can't be written
+     * @throws InterruptedException if the build was aborted
+     */
+    Result checkout(final DarcsCmd cmd, final File repo, final VirtualChannel channel)
+        throws IOException, InterruptedException {
+        if (!clean && new File(repo, "_darcs").exists()) {
+            return pull(cmd, repo);
+        }
+
+        return get(cmd, repo, channel);
+    }
+
+    /**
+     * Pulls all patches from the source repository in the workspace repository.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @return whether patches were pulled
+     * @throws IOException if the change log can't be written
+     * @throws InterruptedException if the build was aborted
+     */
+    private Result pull(final DarcsCmd cmd, final File repo) throws IOException, InterruptedException {
+        LOGGER.info(String.format("Pulling repo from: %s", source));
+        final File dryRun = File.createTempFile("darcs-pull", ".xml");
+
+        try {
+            return pull(cmd, repo, dryRun);
+        } finally {
+            if (!dryRun.delete()) {
+                LOGGER.warning(String.format("Can't delete %s.", dryRun));
+            }
+        }
+    }
+
+    /**
+     * Pulls all patches and sends the change log.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @param dryRun temporary file for the output of the dry run
+     * @return whether patches were pulled
+     * @throws IOException if the change log can't be written
+     * @throws InterruptedException if the build was aborted
+     */
+    private Result pull(final DarcsCmd cmd, final File repo, final File dryRun)
+        throws IOException, InterruptedException {
+        final OutputStream out = new FileOutputStream(dryRun);
+
+        try {
+            cmd.pullDryRun(repo.getPath(), source, out);
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.error("Failed to determine patches to pull: " + e.toString());
+            return Result.failed();
+        } finally {
+            out.close();
+        }
+
+        if (isNothingToPull(dryRun)) {
+            LOGGER.info("No patches to pull.");
+            return Result.unchanged();
+        }
+
+        final List<DarcsChangeSet> incoming = parsePatches(dryRun);
+
+        if (null == incoming) {
+            return pullUnlisted(cmd, repo);
+        }
+
+        LOGGER.info(String.format("Count of patches to pull is %d", incoming.size()));
+
+        if (incoming.isEmpty()) {
+            return Result.unchanged();
+        }
+
+        final List<String> unknown = lookupUnknownPatches(repo, incoming);
+
+        try {
+            // only the listed patches, they are the change log and go to the patch index
+            cmd.pull(repo.getPath(), source, hashesOf(incoming));
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.error("Failed to pull: " + e.toString());
+            return Result.failed();
+        }
+
+        updatePatchIndex(cmd, repo, unknown);
+        final OutputStream target = new BufferedOutputStream(changeLog);
+
+        try {
+            if (null != unknown && unknown.size() < incoming.size()) {
+                keepUnknown(incoming, unknown, target);
+            } else {
+                copy(dryRun, target);
+            }
+        } finally {
+            target.close();
+        }
+
+        return Result.changed();
+    }
+
+    /**
+     * Pulls all patches w/o knowing which, because the dry run could not be parsed.
+     *
+     * The change log is empty, but the workspace repository is as up to date as if the patches were listed. The
+     * patch index is built anew on the next pull, because it's not known which patches were pulled.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @return never changed, because the change log is empty
+     * @throws InterruptedException if the build was aborted
+     */
+    private Result pullUnlisted(final DarcsCmd cmd, final File repo) throws InterruptedException {
+        listener.error("Failed to parse patches to pull, will pull w/o change log");
+
+        try {
+            cmd.pull(repo.getPath(), source);
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.error("Failed to pull: " + e.toString());
+            return Result.failed();
+        }
+
+        final File index = DarcsPatchIndex.file(repo);
+
+        if (index.exists() && !index.delete()) {
+            LOGGER.warning(String.format("Can't delete outdated patch index %s.", index));
+        }
+
+        return Result.unchanged();
+    }
+
+    /**
+     * Whether a dry run pull found nothing to pull.
+     *
+     * Darcs prints a plain text message instead of an empty patch list if there is nothing to pull.
+     *
+     * @param dryRun output of the dry run
+     * @return {@code true} if the output is empty or the message, else {@code false}
+     * @throws IOException if the output can't be read
+     */
+    static boolean isNothingToPull(final File dryRun) throws IOException {
+        if (dryRun.length() > MAX_MESSAGE_SIZE) {
+            return false;
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(dryRun, out);
+        final String output = out.toString("UTF-8").trim();
+        return 0 == output.length() || output.contains(NOTHING_TO_PULL);
+    }
+
+    /**
+     * Parses the patches listed by a dry run pull.
+     *
+     * @param dryRun output of the dry run
+     * @return change sets, {@code null} if the output can't be parsed
+     */
+    private static List<DarcsChangeSet> parsePatches(final File dryRun) {
+        try {
+            return new DarcsChangeLogParser().parseChangeSets(dryRun);
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Failed to parse patches to pull: %s", e));
+        } catch (SAXException e) {
+            LOGGER.warning(String.format("Failed to parse patches to pull: %s", e));
+        }
+
+        return null;
+    }
+
+    /**
+     * Copies a file to a stream.
+     *
+     * @param file file to copy
+     * @param out receives the file, not closed
+     * @throws IOException on read or write errors
+     */
+    private static void copy(final File file, final OutputStream out) throws IOException {
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            Util.copyStream(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Looks up which of the incoming patches are not yet in the workspace repository.
+     *
+     * @param repo workspace repository directory
+     * @param incoming patches listed by the dry run pull
+     * @return hashes of the unknown patches or {@code null} if the repository has no current patch index
+     */
+    private static List<String> lookupUnknownPatches(final File repo, final List<DarcsChangeSet> incoming) {
+        final File index = DarcsPatchIndex.file(repo);
+
+        if (!index.exists()) {
+            return null;
+        }
+
+        try {
+            if (DarcsPatchIndex.isCurrent(index)) {
+                return DarcsPatchIndex.unknown(index, hashesOf(incoming));
+            }
+
+            LOGGER.info(String.format("Patch index %s is outdated, will build it anew.", index));
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Failed to look up patch index: %s", e));
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds the pulled patches to the patch index of the workspace repository.
+     *
+     * If the repository has no current index, it is built anew from all its patches, so patches removed from the
+     * repository are dropped from the index.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @param unknown hashes of the pulled patches or {@code null} if the repository has no patch index
+     * @throws InterruptedException if interrupted while listing the patches
+     */
+    private static void updatePatchIndex(final DarcsCmd cmd, final File repo, final List<String> unknown)
+        throws InterruptedException {
+        try {
+            final File index = DarcsPatchIndex.file(repo);
+            final List<String> hashes;
+
+            if (null == unknown) {
+                hashes = hashesOf(cmd.allChanges(repo.getPath()));
+
+                if (index.exists() && !index.delete()) {
+                    throw new IOException(String.format("Can't delete outdated patch index %s!", index));
+                }
+            } else {
+                hashes = unknown;
+            }
+
+            DarcsPatchIndex.add(index, hashes);
+        } catch (DarcsCmd.DarcsCmdException e) {
+            LOGGER.warning(String.format("Failed to update patch index: %s", e));
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Failed to update patch index: %s", e));
+        }
+    }
+
+    /**
+     * Collects the hashes of change sets.
+     *
+     * @param changeSets change sets
+     * @return hashes in the same order
+     */
+    private static List<String> hashesOf(final List<DarcsChangeSet> changeSets) {
+        final List<String> hashes = new ArrayList<String>(changeSets.size());
+
+        for (final DarcsChangeSet changeSet : changeSets) {
+            hashes.add(changeSet.getHash());
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Writes a change log with only the unknown patches.
+     *
+     * @param incoming patches listed by the dry run pull
+     * @param unknown hashes of the patches which were not in the workspace repository
+     * @param out receives the change log, not closed
+     * @throws IOException if the change log can't be written
+     */
+    static void keepUnknown(final List<DarcsChangeSet> incoming, final List<String> unknown, final OutputStream out)
+        throws IOException {
+        final Set<String> keep = new HashSet<String>(unknown);
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>(unknown.size());
+
+        for (final DarcsChangeSet changeSet : incoming) {
+            if (keep.contains(changeSet.getHash())) {
+                changeSets.add(changeSet);
+            }
+        }
+
+        new DarcsChangeLogWriter(out).write(changeSets);
+    }
+
+    /**
+     * Gets a fresh copy of the source repository.
+     *
+     * @param cmd darcs command
+     * @param repo workspace repository directory
+     * @param channel passed to the mirror
+     * @return never changed, because the change log of a fresh get is empty
+     * @throws InterruptedException if the build was aborted
+     */
+    private Result get(final DarcsCmd cmd, final File repo, final VirtualChannel channel)
+        throws InterruptedException {
+        LOGGER.info(String.format("Getting repo from: %s", source));
+
+        try {
+            Util.deleteRecursive(repo);
+        } catch (IOException e) {
+            e.printStackTrace(listener.error("Failed to clean the workspace"));
+            return Result.failed();
+        }
+
+        final String from = updateMirror(channel);
+
+        try {
+            cmd.get(repo.getPath(), from, lazy, tag);
+        } catch (DarcsCmd.DarcsCmdException e) {
+            e.printStackTrace(listener.error("Failed to get repo from " + from));
+            return Result.failed();
+        }
+
+        return Result.unchanged();
+    }
+
+    /**
+     * Updates the mirror of the source repository.
+     *
+     * @param channel passed to the mirror
+     * @return path of the mirror or the source URL if no mirror is used or the update failed
+     * @throws InterruptedException if interrupted while updating
+     */
+    private String updateMirror(final VirtualChannel channel) throws InterruptedException {
+        if (null == mirror) {
+            return source;
+        }
+
+        try {
+            return mirror.invoke(new File(cacheRoot), channel);
+        } catch (IOException e) {
+            e.printStackTrace(listener.error("Failed to update mirror of " + source + ", will get from it directly"));
+        } catch (DarcsCmd.DarcsCmdException e) {
+            e.printStackTrace(listener.error("Failed to update mirror of " + source + ", will get from it directly"));
+        }
+
+        return source;
+    }
+
+    /**
+     * Outcome of a checkout sent back from the node.
+     */
+    static final class Result implements Serializable {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 2L;
+
+        /**
+         * Whether the checkout succeeded.
+         */
+        private final boolean success;
+        /**
+         * Whether a change log was written.
+         */
+        private final boolean changed;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param success whether the checkout succeeded
+         * @param changed whether a change log was written
+         */
+        private Result(final boolean success, final boolean changed) {
+            super();
+            this.success = success;
+            this.changed = changed;
+        }
+
+        /**
+         * Creates the result of a failed checkout.
+         *
+         * @return new result
+         */
+        static Result failed() {
+            return new Result(false, false);
+        }
+
+        /**
+         * Creates the result of a successful checkout w/o change log.
+         *
+         * @return new result
+         */
+        static Result unchanged() {
+            return new Result(true, false);
+        }
+
+        /**
+         * Creates the result of a successful checkout which wrote a change log.
+         *
+         * @return new result
+         */
+        static Result changed() {
+            return new Result(true, true);
+        }
+
+        /**
+         * Whether the checkout succeeded.
+         *
+         * @return {@code true} on success
+         */
+        boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * Whether a change log was written.
+         *
+         * @return {@code false} if the change log is empty
+         */
+        boolean isChanged() {
+            return changed;
+        }
+    }
+}
@@ -12,9 +12,24 @@ package org.jenkinsci.plugins.darcs;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
+import hudson.Proc;
 import hudson.util.ArgumentListBuilder;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.darcs.cmd.DarcsCommand;
+import org.jenkinsci.plugins.darcs.cmd.DarcsGetBuilder;
 
 /**
  * Abstracts the Darcs command.
@@ -23,6 +38,30 @@ import java.util.Map;
  */
 public class DarcsCmd {
 
+    /**
+     * Operations with their own timeout.
+     */
+    public enum Operation {
+
+        /**
+         * `darcs changes`.
+         */
+        CHANGES,
+        /**
+         * `darcs pull`, also as dry run.
+         */
+        PULL,
+        /**
+         * `darcs get`.
+         */
+        GET;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
     /**
      * `darcs changes` command.
      */
@@ -31,10 +70,6 @@ public class DarcsCmd {
      * `darcs pull` command.
      */
     private static final String CMD_PULL = "pull";
-    /**
-     * `darcs get` command.
-     */
-    private static final String CMD_GET = "get";
     // Command options
     private static final String OPT_REPO = "--repo=";
     private static final String OPT_XML_OUTPUT = "--xml-output";
@@ -44,6 +79,10 @@ public class DarcsCmd {
     private static final String OPT_COUNT = "--count";
     private static final String OPT_ALL = "--all";
     private static final String OPT_VERBOSE = "--verbose";
+    /**
+     * Maximum count of patches pulled by hash with one process, to keep the command line short.
+     */
+    private static final int MAX_HASHES_PER_PULL = 100;
     /**
      * Used to start a process.
      */
@@ -57,6 +96,14 @@ public class DarcsCmd {
      */
     private final Map<String, String> envs;
     private final FilePath workingDir;
+    /**
+     * Queues each process waits in for a slot, in the order the slots are acquired.
+     */
+    private final List<DarcsProcessQueue> queues = new ArrayList<DarcsProcessQueue>();
+    /**
+     * Timeouts in milliseconds by operation, no timeout if missing.
+     */
+    private final Map<Operation, Long> timeouts = new EnumMap<Operation, Long>(Operation.class);
 
     /**
      * Creates a Darcs command object.
@@ -73,9 +120,52 @@ public class DarcsCmd {
         this.workingDir = workingDir;
     }
 
+    /**
+     * Adds a queue each process of this command waits in for a slot.
+     *
+     * Slots are acquired in the order the queues are added, so all commands must add them in the same order.
+     *
+     * @param queue limits the concurrent processes
+     * @return this for chaining
+     */
+    DarcsCmd queue(final DarcsProcessQueue queue) {
+        queues.add(queue);
+        return this;
+    }
+
+    /**
+     * Sets the time after which the processes of an operation are killed.
+     *
+     * @param operation operation to limit
+     * @param millis zero or less for no timeout
+     * @return this for chaining
+     */
+    DarcsCmd timeout(final Operation operation, final long millis) {
+        if (millis > 0) {
+            timeouts.put(operation, millis);
+        } else {
+            timeouts.remove(operation);
+        }
+
+        return this;
+    }
+
+    /**
+     * Returns the timeout of an operation.
+     *
+     * @param operation operation to look up
+     * @return milliseconds, zero for no timeout
+     */
+    long getTimeout(final Operation operation) {
+        final Long millis = timeouts.get(operation);
+        return null == millis ? 0 : millis;
+    }
+
     /**
      * Creates process starter.
      *
+     * The process must be run by {@link #join(ProcStarter, Operation)} or started after {@link #acquireSlots()}.
+     *
      * @param args builds argument list for command
      * @return a process starter object
      */
@@ -87,24 +177,254 @@ public class DarcsCmd {
         return proc;
     }
 
-    public ByteArrayOutputStream lastSummarizedChanges(final String repo, final int n) throws DarcsCmdException {
+    /**
+     * Runs a process once it got a slot of each queue.
+     *
+     * The process is killed if it exceeds the timeout of its operation or if the waiting thread is interrupted, e.g.
+     * because the build was aborted.
+     *
+     * @param starter process to run
+     * @param operation operation of the process
+     * @return exit code of the process
+     * @throws IOException if the process can't be started
+     * @throws InterruptedException if interrupted while waiting for a slot or the process
+     * @throws DarcsCmdTimeoutException if the process exceeded the timeout
+     */
+    private int join(final ProcStarter starter, final Operation operation) throws IOException, InterruptedException {
+        final List<Semaphore> slots = acquireSlots();
+
+        try {
+            final Proc proc = starter.start();
+            final Watchdog watchdog = Watchdog.watch(proc, getTimeout(operation));
+            final int ret;
+
+            try {
+                ret = proc.join();
+            } catch (InterruptedException ex) {
+                kill(proc);
+                throw ex;
+            } catch (IOException ex) {
+                watchdog.check(operation);
+                throw ex;
+            } finally {
+                watchdog.cancel();
+            }
+
+            watchdog.check(operation);
+            return ret;
+        } finally {
+            DarcsProcessQueue.releaseAll(slots);
+        }
+    }
+
+    /**
+     * Waits for a slot of each queue.
+     *
+     * The wait time is reported to the log of the launcher's listener.
+     *
+     * @return acquired slots
+     * @throws InterruptedException if interrupted while waiting, already acquired slots are released
+     */
+    private List<Semaphore> acquireSlots() throws InterruptedException {
+        return DarcsProcessQueue.acquireAll(queues,
+                null == launcher.getListener() ? null : launcher.getListener().getLogger());
+    }
+
+    public ByteArrayOutputStream lastSummarizedChanges(final String repo, final int n)
+            throws DarcsCmdException, InterruptedException {
         return getChanges(repo, true, n);
     }
 
-    public ByteArrayOutputStream allSummarizedChanges(final String repo) throws DarcsCmdException {
+    public ByteArrayOutputStream allSummarizedChanges(final String repo)
+            throws DarcsCmdException, InterruptedException {
         return getChanges(repo, true);
     }
 
-    public ByteArrayOutputStream allChanges(final String repo) throws DarcsCmdException {
-        return getChanges(repo, false);
+    /**
+     * Parses all patches of a repository.
+     *
+     * The output of darcs is parsed while it is produced, so it is never buffered as a whole.
+     *
+     * @param repo repository to get the changes from
+     * @return change sets of all patches, newest first
+     * @throws DarcsCmd.DarcsCmdException if can't do darcs changes
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public List<DarcsChangeSet> allChanges(final String repo) throws DarcsCmdException, InterruptedException {
+        return parseChanges(repo, 0);
+    }
+
+    /**
+     * Parses the newest patches of a repository.
+     *
+     * @param repo repository to get the changes from
+     * @param n amount of newest patches
+     * @return change sets of at most n patches, newest first
+     * @throws DarcsCmd.DarcsCmdException if can't do darcs changes
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public List<DarcsChangeSet> lastChanges(final String repo, final int n)
+            throws DarcsCmdException, InterruptedException {
+        return parseChanges(repo, n);
+    }
+
+    /**
+     * Parses the patches of a repository while darcs prints them.
+     *
+     * @param repo repository to get the changes from
+     * @param n amount of newest patches, all if less than one
+     * @return change sets, newest first
+     * @throws DarcsCmd.DarcsCmdException if can't do darcs changes
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    private List<DarcsChangeSet> parseChanges(final String repo, final int n)
+            throws DarcsCmdException, InterruptedException {
+        final ProcStarter starter = createProc(createChangesArgs(repo, false, n));
+        starter.readStdout();
+        final List<Semaphore> slots = acquireSlots();
+        final List<DarcsChangeSet> changes;
+        final int ret;
+
+        try {
+            final Proc proc;
+
+            try {
+                proc = starter.start();
+            } catch (IOException ex) {
+                throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
+            }
+
+            // killing the process ends its output, so the parser does not block either
+            final Watchdog watchdog = Watchdog.watch(proc, getTimeout(Operation.CHANGES));
+
+            try {
+                changes = new DarcsChangeLogParser().parseChangeSets(proc.getStdout());
+                ret = proc.join();
+            } catch (InterruptedException ex) {
+                kill(proc);
+                throw ex;
+            } catch (Exception ex) {
+                kill(proc);
+                watchdog.check(Operation.CHANGES);
+                throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
+            } finally {
+                watchdog.cancel();
+            }
+
+            watchdog.check(Operation.CHANGES);
+        } finally {
+            DarcsProcessQueue.releaseAll(slots);
+        }
+
+        if (0 != ret) {
+            throw new DarcsCmdException("can not do darcs changes in repo " + repo);
+        }
+
+        return changes;
     }
 
-    private ByteArrayOutputStream getChanges(final String repo, final boolean summarize) throws DarcsCmdException {
+    /**
+     * Parses the patches of a repository until the first one which is not known.
+     *
+     * darcs is killed as soon as an unknown patch is read, so a repository with new patches costs only the output of
+     * the patches newer than the known ones.
+     *
+     * @param repo repository to get the changes from
+     * @param known hashes of the known patches
+     * @return change sets, newest first, the last one is unknown unless the repository has only known patches
+     * @throws DarcsCmd.DarcsCmdException if can't do darcs changes
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public List<DarcsChangeSet> changesUntilUnknown(final String repo, final Set<String> known)
+            throws DarcsCmdException, InterruptedException {
+        final ProcStarter starter = createProc(createChangesArgs(repo, false, 0));
+        starter.readStdout();
+        final List<Semaphore> slots = acquireSlots();
+        final List<DarcsChangeSet> changes;
+        final boolean stopped;
+        final int ret;
+
+        try {
+            final Proc proc;
+
+            try {
+                proc = starter.start();
+            } catch (IOException ex) {
+                throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
+            }
+
+            final Watchdog watchdog = Watchdog.watch(proc, getTimeout(Operation.CHANGES));
+
+            try {
+                final DarcsChangeSetReader reader = new DarcsChangeLogParser().read(proc.getStdout());
+
+                try {
+                    changes = reader.readUntilUnknown(known);
+                    stopped = !changes.isEmpty() && !known.contains(changes.get(changes.size() - 1).getHash());
+
+                    if (stopped) {
+                        // the rest of the output is not needed
+                        kill(proc);
+                    }
+                } finally {
+                    reader.close();
+                }
+
+                ret = stopped ? 0 : proc.join();
+            } catch (InterruptedException ex) {
+                kill(proc);
+                throw ex;
+            } catch (Exception ex) {
+                kill(proc);
+                watchdog.check(Operation.CHANGES);
+                throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
+            } finally {
+                watchdog.cancel();
+            }
+
+            if (!stopped) {
+                watchdog.check(Operation.CHANGES);
+            }
+        } finally {
+            DarcsProcessQueue.releaseAll(slots);
+        }
+
+        if (0 != ret) {
+            throw new DarcsCmdException("can not do darcs changes in repo " + repo);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Kills a process w/o throwing exceptions.
+     *
+     * Used to not block on a process whose output is no longer consumed.
+     *
+     * @param proc process to kill
+     */
+    private static void kill(final Proc proc) {
+        try {
+            proc.kill();
+        } catch (Exception ex) {
+            // nothing we can do anymore
+        }
+    }
+
+    private ByteArrayOutputStream getChanges(final String repo, final boolean summarize)
+            throws DarcsCmdException, InterruptedException {
         return getChanges(repo, summarize, 0);
     }
 
-    private ByteArrayOutputStream getChanges(final String repo, final boolean summarize, final int n)
-            throws DarcsCmdException {
+    /**
+     * Creates the argument list for `darcs changes --xml-output`.
+     *
+     * @param repo repository to get the changes from
+     * @param summarize whether to add the summary option
+     * @param n amount of last patches, all if less than one
+     * @return argument list
+     */
+    private ArgumentListBuilder createChangesArgs(final String repo, final boolean summarize, final int n) {
         final ArgumentListBuilder args = new ArgumentListBuilder();
         args.add(darcsExe)
                 .add(CMD_CHANGES)
@@ -119,24 +439,30 @@ public class DarcsCmd {
             args.add(OPT_LAST + n);
         }
 
-        final ProcStarter proc = createProc(args);
+        return args;
+    }
+
+    private ByteArrayOutputStream getChanges(final String repo, final boolean summarize, final int n)
+            throws DarcsCmdException, InterruptedException {
+        final ProcStarter proc = createProc(createChangesArgs(repo, summarize, n));
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         proc.stdout(baos);
+        final int ret;
 
         try {
-            final int ret = proc.join();
-
-            if (0 != ret) {
-                throw new DarcsCmdException("can not do darcs changes in repo " + repo);
-            }
-        } catch (Exception ex) {
+            ret = join(proc, Operation.CHANGES);
+        } catch (IOException ex) {
             throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
         }
 
+        if (0 != ret) {
+            throw new DarcsCmdException("can not do darcs changes in repo " + repo);
+        }
+
         return baos;
     }
 
-    public int countChanges(final String repo) throws DarcsCmdException {
+    public int countChanges(final String repo) throws DarcsCmdException, InterruptedException {
         final ArgumentListBuilder args = new ArgumentListBuilder();
         args.add(darcsExe)
                 .add(CMD_CHANGES)
@@ -146,21 +472,22 @@ public class DarcsCmd {
         final ProcStarter proc = createProc(args);
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         proc.stdout(baos);
+        final int ret;
 
         try {
-            final int ret = proc.join();
-
-            if (0 != ret) {
-                throw new DarcsCmdException("can not do darcs changes in repo " + repo);
-            }
-        } catch (Exception ex) {
+            ret = join(proc, Operation.CHANGES);
+        } catch (IOException ex) {
             throw new DarcsCmdException("can not do darcs changes in repo " + repo, ex);
         }
 
+        if (0 != ret) {
+            throw new DarcsCmdException("can not do darcs changes in repo " + repo);
+        }
+
         return Integer.parseInt(baos.toString().trim());
     }
 
-    public void pull(final String repo, final String from) throws DarcsCmdException {
+    public void pull(final String repo, final String from) throws DarcsCmdException, InterruptedException {
         final ArgumentListBuilder args = new ArgumentListBuilder();
         args.add(darcsExe)
                 .add(CMD_PULL)
@@ -169,17 +496,120 @@ public class DarcsCmd {
                 .add(OPT_ALL)
                 .add(OPT_VERBOSE);
 
+        final ProcStarter proc = createProc(args);
+        proc.stdout(this.launcher.getListener());
+        final int ret;
+
         try {
+            ret = join(proc, Operation.PULL);
+        } catch (IOException ex) {
+            throw new DarcsCmdException(String.format("Can't do darcs changes in repo %s!", repo), ex);
+        }
+
+        if (0 != ret) {
+            throw new DarcsCmdException(String.format("Can't do darcs changes in repo %s! Return code: %d",
+                    repo, ret));
+        }
+    }
+
+    /**
+     * Pulls only the given patches.
+     *
+     * Patches pushed to the source after they were listed are not pulled, so the pulled patches are exactly the
+     * listed ones. Many patches are pulled by several processes.
+     *
+     * @param repo repository to pull in
+     * @param from from where to pull
+     * @param hashes hashes of the patches to pull
+     * @throws DarcsCmd.DarcsCmdException if can't do the pull
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public void pull(final String repo, final String from, final List<String> hashes)
+            throws DarcsCmdException, InterruptedException {
+        for (int start = 0; start < hashes.size(); start += MAX_HASHES_PER_PULL) {
+            final List<String> batch = hashes.subList(start, Math.min(hashes.size(), start + MAX_HASHES_PER_PULL));
+            final ArgumentListBuilder args = DarcsCommand.builder(darcsExe)
+                    .pull()
+                    .from(from)
+                    .repoDir(repo)
+                    .all()
+                    .verbose()
+                    .matches(matchHashes(batch))
+                    .create()
+                    .getArgs();
+
             final ProcStarter proc = createProc(args);
             proc.stdout(this.launcher.getListener());
-            final int ret = proc.join();
+            final int ret;
+
+            try {
+                ret = join(proc, Operation.PULL);
+            } catch (IOException ex) {
+                throw new DarcsCmdException(String.format("Can't do darcs pull in repo %s!", repo), ex);
+            }
 
             if (0 != ret) {
-                throw new DarcsCmdException(String.format("Can't do darcs changes in repo %s! Return code: %d",
+                throw new DarcsCmdException(String.format("Can't do darcs pull in repo %s! Return code: %d",
                         repo, ret));
             }
-        } catch (Exception ex) {
-            throw new DarcsCmdException(String.format("Can't do darcs changes in repo %s!", repo), ex);
+        }
+    }
+
+    /**
+     * Creates a Darcs match pattern for patches by hash.
+     *
+     * @param hashes hashes of the patches, not empty
+     * @return pattern matching any of the patches
+     */
+    static String matchHashes(final List<String> hashes) {
+        final StringBuilder pattern = new StringBuilder();
+
+        for (final String hash : hashes) {
+            if (pattern.length() > 0) {
+                pattern.append(" || ");
+            }
+
+            pattern.append("hash ").append(hash);
+        }
+
+        return pattern.toString();
+    }
+
+    /**
+     * Writes the patches which would be pulled as XML with summary.
+     *
+     * @param repo repository to pull in
+     * @param from from where to pull
+     * @param out receives the XML
+     * @throws DarcsCmd.DarcsCmdException if can't do the dry run
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public void pullDryRun(final String repo, final String from, final OutputStream out)
+            throws DarcsCmdException, InterruptedException {
+        final ArgumentListBuilder args = DarcsCommand.builder(darcsExe)
+                .pull()
+                .from(from)
+                .repoDir(repo)
+                .all()
+                .dryRun()
+                .xmlOutput()
+                .summary()
+                .create()
+                .getArgs();
+
+        final ProcStarter proc = createProc(args);
+        proc.stdout(out);
+        final int ret;
+
+        try {
+            ret = join(proc, Operation.PULL);
+        } catch (IOException ex) {
+            throw new DarcsCmdException(String.format("Can't do darcs pull --dry-run in repo %s!", repo), ex);
+        }
+
+        if (0 != ret) {
+            throw new DarcsCmdException(String.format("Can't do darcs pull --dry-run in repo %s! Return code: %d",
+                    repo, ret));
         }
     }
 
@@ -189,25 +619,164 @@ public class DarcsCmd {
      * @param repo where to checkout
      * @param from from where to get the repository
      * @throws DarcsCmd.DarcsCmdException if can't do checkout
+     * @throws InterruptedException if interrupted while waiting for darcs
      */
-    public void get(final String repo, final String from) throws DarcsCmdException {
-        final ArgumentListBuilder args = new ArgumentListBuilder();
-        args.add(darcsExe)
-                .add(CMD_GET)
-                .add(from)
-                .add(repo);
+    public void get(final String repo, final String from) throws DarcsCmdException, InterruptedException {
+        get(repo, from, false, null);
+    }
+
+    /**
+     * Do a fresh checkout of a repository.
+     *
+     * @param repo where to checkout
+     * @param from from where to get the repository
+     * @param lazy whether to get the patches lazy
+     * @param tag get only the patches up to this tag, all if {@code null} or empty
+     * @throws DarcsCmd.DarcsCmdException if can't do checkout
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public void get(final String repo, final String from, final boolean lazy, final String tag)
+        throws DarcsCmdException, InterruptedException {
+        final DarcsGetBuilder builder = DarcsCommand.builder(darcsExe).get().from(from).to(repo);
+
+        if (lazy) {
+            builder.lazy();
+        }
+
+        if (null != tag && tag.length() > 0) {
+            builder.tag(tag);
+        }
+
+        get(builder.create().getArgs());
+    }
+
+    /**
+     * Do a fresh checkout of a repository w/o working directory.
+     *
+     * Used for mirrors which are only a source for other checkouts.
+     *
+     * @param repo where to checkout
+     * @param from from where to get the repository
+     * @throws DarcsCmd.DarcsCmdException if can't do checkout
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    public void getMirror(final String repo, final String from) throws DarcsCmdException, InterruptedException {
+        get(DarcsCommand.builder(darcsExe).get().noWorkingDir().from(from).to(repo).create().getArgs());
+    }
+
+    /**
+     * Runs a `darcs get` command.
+     *
+     * @param args complete argument list
+     * @throws DarcsCmd.DarcsCmdException if can't do checkout
+     * @throws InterruptedException if interrupted while waiting for darcs
+     */
+    private void get(final ArgumentListBuilder args) throws DarcsCmdException, InterruptedException {
+        final ProcStarter proc = createProc(args);
+        proc.stdout(this.launcher.getListener());
+        final int ret;
 
         try {
-            final ProcStarter proc = createProc(args);
-            proc.stdout(this.launcher.getListener());
-            final int ret = proc.join();
+            ret = join(proc, Operation.GET);
+        } catch (IOException ex) {
+            throw new DarcsCmdException(String.format("Can't get repo with args: %s", args.toStringWithQuote()), ex);
+        }
 
-            if (0 != ret) {
-                throw new DarcsCmdException(String.format("Getting repo with args %s failed! Return code: %d",
-                        args.toStringWithQuote(), ret));
+        if (0 != ret) {
+            throw new DarcsCmdException(String.format("Getting repo with args %s failed! Return code: %d",
+                    args.toStringWithQuote(), ret));
+        }
+    }
+
+    /**
+     * Kills a process which exceeds its timeout.
+     */
+    static final class Watchdog implements Runnable {
+
+        /**
+         * Shared by all watchdogs.
+         */
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "Darcs process watchdog");
+                        // must not keep Jenkins from shutting down
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        /**
+         * Watched process.
+         */
+        private final Proc proc;
+        /**
+         * Timeout in milliseconds, zero for none.
+         */
+        private final long timeout;
+        /**
+         * Whether the process was killed because of the timeout.
+         */
+        private volatile boolean expired;
+        /**
+         * Scheduled kill, {@code null} if there is no timeout.
+         */
+        private ScheduledFuture<?> kill;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param proc watched process
+         * @param timeout milliseconds, zero for none
+         */
+        private Watchdog(final Proc proc, final long timeout) {
+            super();
+            this.proc = proc;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Starts watching a process.
+         *
+         * @param proc process to watch
+         * @param timeout milliseconds, zero or less for none
+         * @return watchdog to cancel when the process has finished
+         */
+        static Watchdog watch(final Proc proc, final long timeout) {
+            final Watchdog watchdog = new Watchdog(proc, Math.max(0, timeout));
+
+            if (watchdog.timeout > 0) {
+                watchdog.kill = EXECUTOR.schedule(watchdog, watchdog.timeout, TimeUnit.MILLISECONDS);
+            }
+
+            return watchdog;
+        }
+
+        public void run() {
+            expired = true;
+            kill(proc);
+        }
+
+        /**
+         * Stops watching.
+         */
+        void cancel() {
+            if (null != kill) {
+                kill.cancel(false);
+            }
+        }
+
+        /**
+         * Throws if the process was killed because of the timeout.
+         *
+         * @param operation operation of the process
+         * @throws DarcsCmdTimeoutException if the timeout expired
+         */
+        void check(final Operation operation) {
+            if (expired) {
+                throw new DarcsCmdTimeoutException(String.format(
+                        "darcs %s exceeded the timeout of %d ms and was killed!", operation, timeout));
             }
-        } catch (Exception ex) {
-            throw new DarcsCmdException(String.format("Can't get repo with args: %s", args.toStringWithQuote()), ex);
         }
     }
 
@@ -235,4 +804,21 @@ public class DarcsCmd {
             super(string, thrwbl);
         }
     }
+
+    /**
+     * Thrown if a darcs process exceeded its timeout and was killed.
+     *
+     * The outcome of the operation is unknown, so callers should neither assume success nor changes.
+     */
+    public static class DarcsCmdTimeoutException extends DarcsCmdException {
+
+        /**
+         * Creates exception with message.
+         *
+         * @param string exception message
+         */
+        public DarcsCmdTimeoutException(final String string) {
+            super(string);
+        }
+    }
 }
@@ -0,0 +1,243 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Detects changes of a repository served over HTTP by its inventory file.
+ *
+ * Darcs rewrites {@value #INVENTORY} whenever patches are added to or removed from a hashed repository. So if the
+ * file is unchanged, the repository has the same patches and polling does not need to run `darcs changes`. The file
+ * is fetched with a conditional GET, so an unchanged inventory usually costs a 304 response. Servers which ignore the
+ * conditions send the file again and its digest is compared.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsInventoryProbe {
+
+    /**
+     * Path of the inventory file relative to the repository.
+     */
+    static final String INVENTORY = "_darcs/hashed_inventory";
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Used to mask bytes.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * Connect and read timeout in milliseconds, zero for none.
+     */
+    private final int timeout;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param timeout connect and read timeout in milliseconds, zero for none
+     */
+    DarcsInventoryProbe(final int timeout) {
+        super();
+        this.timeout = timeout;
+    }
+
+    /**
+     * Whether a source repository is served over HTTP.
+     *
+     * @param source source repository URL, may be {@code null}
+     * @return {@code true} for http and https URLs, else {@code false}
+     */
+    static boolean isHttp(final String source) {
+        if (null == source) {
+            return false;
+        }
+
+        final String lower = source.trim().toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://");
+    }
+
+    /**
+     * Fetches the inventory of a repository if it differs from the known version.
+     *
+     * @param source source repository URL
+     * @param known last seen version of the inventory, may be {@code null}
+     * @return the known version if the inventory is unchanged, else the current version
+     * @throws IOException if the inventory can't be fetched, e.g. because the repository is not hashed
+     */
+    Version probe(final String source, final Version known) throws IOException {
+        final String base = source.trim();
+        final URL url = new URL(base.endsWith("/") ? base + INVENTORY : base + "/" + INVENTORY);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        try {
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setUseCaches(false);
+
+            if (null != known && null != known.getETag()) {
+                connection.setRequestProperty("If-None-Match", known.getETag());
+            }
+
+            if (null != known && null != known.getLastModified()) {
+                connection.setRequestProperty("If-Modified-Since", known.getLastModified());
+            }
+
+            final int status = connection.getResponseCode();
+
+            if (HttpURLConnection.HTTP_NOT_MODIFIED == status && null != known) {
+                return known;
+            }
+
+            if (HttpURLConnection.HTTP_OK != status) {
+                throw new IOException(String.format("Can't fetch %s: HTTP %d %s", url, status,
+                        connection.getResponseMessage()));
+            }
+
+            final Version current = new Version(connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"), digest(connection.getInputStream()));
+            return current.equals(known) ? known : current;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Calculates the SHA-1 digest of a stream.
+     *
+     * @param in stream to digest, closed afterwards
+     * @return hex digest
+     * @throws IOException on read errors
+     */
+    private static String digest(final InputStream in) throws IOException {
+        final MessageDigest sha1;
+
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            // every JRE must provide SHA-1
+            throw new IllegalStateException(ex);
+        }
+
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+
+            while (-1 != (read = in.read(buffer))) {
+                sha1.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        final StringBuilder hex = new StringBuilder();
+
+        for (final byte b : sha1.digest()) {
+            hex.append(String.format("%02x", BYTE_MASK & b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Version of an inventory file.
+     *
+     * Versions are equal if the contents of the files are equal. The validators of the server are only used for
+     * conditional requests.
+     */
+    static final class Version implements Serializable {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Entity tag sent by the server, may be {@code null}.
+         */
+        private final String eTag;
+        /**
+         * Last modification date sent by the server, may be {@code null}.
+         */
+        private final String lastModified;
+        /**
+         * SHA-1 digest of the file.
+         */
+        private final String digest;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param eTag entity tag sent by the server, may be {@code null}
+         * @param lastModified last modification date sent by the server, may be {@code null}
+         * @param digest SHA-1 digest of the file
+         */
+        Version(final String eTag, final String lastModified, final String digest) {
+            super();
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns the entity tag sent by the server.
+         *
+         * @return may be {@code null}
+         */
+        String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Returns the last modification date sent by the server.
+         *
+         * @return may be {@code null}
+         */
+        String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the digest of the file.
+         *
+         * @return SHA-1 hex digest
+         */
+        String getDigest() {
+            return digest;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Version)) {
+                return false;
+            }
+
+            return digest.equals(((Version) obj).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return digest.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Version{eTag=%s, lastModified=%s, digest=%s}", eTag, lastModified, digest);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the patch hashes of a hashed repository from its inventory files on the node it is invoked on.
+ *
+ * Darcs lists the patch infos of a hashed repository in {@value #INVENTORY}, which chains to the inventories of older
+ * patches in {@value #INVENTORIES} if the repository was tagged. The hash of a patch as reported by `darcs changes` is
+ * derived from its patch info:
+ *
+ * <pre>
+ * date-(first 5 digits of SHA-1(author))-SHA-1(name author date log inverted).gz
+ * </pre>
+ *
+ * So the revision state of a workspace is computed w/o spawning darcs and w/o parsing XML. The inventories are read
+ * as raw bytes, because darcs hashes the bytes of the patch infos regardless of their encoding.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsInventoryReader implements FileCallable<List<String>> {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Inventory of the newest patches relative to the repository.
+     */
+    static final String INVENTORY = "_darcs/hashed_inventory";
+    /**
+     * Directory of the chained inventories relative to the repository.
+     */
+    static final String INVENTORIES = "_darcs/inventories";
+    /**
+     * Line which precedes the hash of the chained inventory.
+     */
+    private static final byte[] STARTING_WITH = {
+        'S', 't', 'a', 'r', 't', 'i', 'n', 'g', ' ', 'w', 'i', 't', 'h', ' ',
+        'i', 'n', 'v', 'e', 'n', 't', 'o', 'r', 'y', ':'
+    };
+    /**
+     * First byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    /**
+     * Second byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    /**
+     * Size of the read buffer for compressed inventories.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Count of hex digits of the author digest in a patch hash.
+     */
+    private static final int AUTHOR_DIGITS = 5;
+    /**
+     * Used to mask bytes.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Bits in a hex digit.
+     */
+    private static final int NIBBLE_SIZE = 4;
+    /**
+     * Used to mask the lower hex digit of a byte.
+     */
+    private static final int NIBBLE_MASK = 0x0F;
+    /**
+     * Hex digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Reads the patch hashes of the repository.
+     *
+     * @param repo repository directory
+     * @param channel unused
+     * @return hashes newest first like `darcs changes` reports them, or {@code null} if the repository is not hashed
+     * @throws IOException if an inventory can't be read or is malformed
+     */
+    public List<String> invoke(final File repo, final VirtualChannel channel) throws IOException {
+        final File inventory = new File(repo, INVENTORY);
+
+        if (!inventory.isFile()) {
+            return null;
+        }
+
+        return read(repo);
+    }
+
+    /**
+     * Reads the patch hashes of a hashed repository.
+     *
+     * @param repo repository directory
+     * @return hashes newest first
+     * @throws IOException if an inventory can't be read or is malformed
+     */
+    static List<String> read(final File repo) throws IOException {
+        final Parser parser = new Parser();
+        // each inventory holds patches oldest first, the chained ones are older than the chaining one
+        final List<List<String>> inventories = new ArrayList<List<String>>();
+        int count = 0;
+        File file = new File(repo, INVENTORY);
+
+        while (null != file) {
+            final List<String> hashes = new ArrayList<String>();
+            final String previous = parser.parse(load(file), hashes);
+            inventories.add(hashes);
+            count += hashes.size();
+            file = null == previous ? null : new File(repo, INVENTORIES + "/" + previous);
+        }
+
+        final List<String> newestFirst = new ArrayList<String>(count);
+
+        for (final List<String> hashes : inventories) {
+            Collections.reverse(hashes);
+            newestFirst.addAll(hashes);
+        }
+
+        return newestFirst;
+    }
+
+    /**
+     * Loads an inventory file and inflates it if it is compressed.
+     *
+     * @param file inventory file
+     * @return raw content
+     * @throws IOException on read errors
+     */
+    private static byte[] load(final File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        final byte[] content;
+
+        try {
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+
+            while (buffer.hasRemaining()) {
+                if (-1 == channel.read(buffer)) {
+                    throw new IOException(String.format("Unexpected end of inventory %s!", file));
+                }
+            }
+
+            content = buffer.array();
+        } finally {
+            in.close();
+        }
+
+        if (content.length < 2 || GZIP_MAGIC_1 != (BYTE_MASK & content[0])
+                || GZIP_MAGIC_2 != (BYTE_MASK & content[1])) {
+            return content;
+        }
+
+        final InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content));
+
+        try {
+            final ByteArrayOutputStream inflated = new ByteArrayOutputStream(content.length * 2);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+
+            while (-1 != (read = gzip.read(buffer))) {
+                inflated.write(buffer, 0, read);
+            }
+
+            return inflated.toByteArray();
+        } finally {
+            gzip.close();
+        }
+    }
+
+    /**
+     * Formats bytes as lower case hex digits.
+     *
+     * @param bytes bytes to format
+     * @return hex string
+     */
+    private static String hex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(BYTE_MASK & bytes[i]) >>> NIBBLE_SIZE];
+            chars[2 * i + 1] = HEX[bytes[i] & NIBBLE_MASK];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Parses the patch infos of inventories.
+     *
+     * Not thread safe.
+     */
+    static final class Parser {
+
+        /**
+         * Digests the patch infos.
+         */
+        private final MessageDigest sha1;
+        /**
+         * Digest prefixes by author, authors repeat a lot.
+         */
+        private final Map<String, String> authors = new HashMap<String, String>();
+        /**
+         * Content of the inventory being parsed.
+         */
+        private byte[] content;
+        /**
+         * Read position in the content.
+         */
+        private int position;
+
+        /**
+         * Dedicated constructor.
+         */
+        Parser() {
+            super();
+
+            try {
+                sha1 = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException ex) {
+                // every JRE must provide SHA-1
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Parses an inventory.
+         *
+         * @param inventory raw content of the inventory
+         * @param hashes receives the patch hashes oldest first
+         * @return the hash of the chained inventory, {@code null} if there is none
+         * @throws IOException if the inventory is malformed
+         */
+        String parse(final byte[] inventory, final List<String> hashes) throws IOException {
+            content = inventory;
+            position = 0;
+            String previous = null;
+
+            while (position < content.length) {
+                final int start = position;
+                final int end = nextLine();
+
+                if (start < end && '[' == content[start]) {
+                    hashes.add(patch(start + 1, end));
+                } else if (equals(start, end, STARTING_WITH)) {
+                    final int hashStart = position;
+                    previous = new String(content, hashStart, nextLine() - hashStart, "US-ASCII").trim();
+                }
+                // pristine and hash lines are not needed
+            }
+
+            content = null;
+            return previous;
+        }
+
+        /**
+         * Parses the patch info following the name line and computes the patch hash.
+         *
+         * @param nameStart position of the name
+         * @param nameEnd end of the name line
+         * @return patch hash
+         * @throws IOException if the patch info is malformed
+         */
+        private String patch(final int nameStart, final int nameEnd) throws IOException {
+            final int authorStart = position;
+            final int authorLineEnd = nextLine();
+            final int marker = findMarker(authorStart, authorLineEnd);
+
+            if (-1 == marker) {
+                throw new IOException(String.format("Malformed patch info at offset %d!", authorStart));
+            }
+
+            final int dateStart = marker + 2;
+            int dateEnd = dateStart;
+
+            while (dateEnd < authorLineEnd && ']' != content[dateEnd]) {
+                ++dateEnd;
+            }
+
+            final boolean hasLog = dateEnd == authorLineEnd;
+            sha1.update(content, nameStart, nameEnd - nameStart);
+            sha1.update(content, authorStart, marker - authorStart);
+            sha1.update(content, dateStart, dateEnd - dateStart);
+
+            if (hasLog) {
+                while (position < content.length && ']' != content[position]) {
+                    final int lineStart = position;
+                    final int lineEnd = nextLine();
+                    // log lines are indented by one space
+                    final int logStart = Math.min(lineStart + 1, lineEnd);
+                    sha1.update(content, logStart, lineEnd - logStart);
+                }
+
+                nextLine();
+            }
+
+            sha1.update((byte) ('-' == content[marker + 1] ? 't' : 'f'));
+            // the info digest first, the author digest reuses the message digest
+            final String info = hex(sha1.digest());
+            final String date = new String(content, dateStart, dateEnd - dateStart, "US-ASCII");
+            return date + "-" + author(authorStart, marker) + "-" + info + ".gz";
+        }
+
+        /**
+         * Finds the marker between author and date.
+         *
+         * @param start start of the author line
+         * @param end end of the author line
+         * @return position of {@literal **} or {@literal *-}, -1 if not found
+         */
+        private int findMarker(final int start, final int end) {
+            for (int i = end - 2; i >= start; i--) {
+                if ('*' == content[i] && ('*' == content[i + 1] || '-' == content[i + 1])) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Returns the author part of a patch hash.
+         *
+         * @param start start of the author
+         * @param end end of the author
+         * @return first hex digits of the SHA-1 digest of the author
+         * @throws IOException never, ISO-8859-1 is always supported
+         */
+        private String author(final int start, final int end) throws IOException {
+            final String author = new String(content, start, end - start, "ISO-8859-1");
+            String digits = authors.get(author);
+
+            if (null == digits) {
+                sha1.update(content, start, end - start);
+                digits = hex(sha1.digest()).substring(0, AUTHOR_DIGITS);
+                authors.put(author, digits);
+            }
+
+            return digits;
+        }
+
+        /**
+         * Advances the position to the start of the next line.
+         *
+         * @return end of the current line, exclusive of the line feed
+         */
+        private int nextLine() {
+            int end = position;
+
+            while (end < content.length && '\n' != content[end]) {
+                ++end;
+            }
+
+            position = Math.min(end + 1, content.length);
+            return end;
+        }
+
+        /**
+         * Whether a line equals the given bytes.
+         *
+         * @param start start of the line
+         * @param end end of the line
+         * @param expected bytes to compare with
+         * @return {@code true} if equal, trailing white space is ignored
+         */
+        private boolean equals(final int start, final int end, final byte[] expected) {
+            int length = end - start;
+
+            while (length > 0 && (' ' == content[start + length - 1] || '\r' == content[start + length - 1])) {
+                --length;
+            }
+
+            if (length != expected.length) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (content[start + i] != expected[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Launcher.LocalLauncher;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Updates a mirror of a source repository in a cache directory on the node it is invoked on.
+ *
+ * There is one mirror without working directory per source URL. It is created with `darcs get` and updated with
+ * `darcs pull` while holding a lock, so all executors of a node and all nodes sharing the cache directory may use
+ * the same mirror. Workspaces are populated by a local `darcs get` from the mirror.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsMirror implements FileCallable<String> {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 3L;
+    /**
+     * Locks by mirror directory, because file locks are held per JVM and not per thread.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+    /**
+     * Suffix of the lock file next to the mirror directory.
+     */
+    private static final String LOCK_SUFFIX = ".lock";
+    /**
+     * Suffix of the directory a new mirror is created in before it is moved to its final place.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Source repository URL.
+     */
+    private final String source;
+    /**
+     * Name of the Darcs executable binary.
+     */
+    private final String darcsExe;
+    /**
+     * Environment variables.
+     */
+    private final EnvVars envs;
+    /**
+     * Logs the darcs output.
+     */
+    private final TaskListener listener;
+    /**
+     * Timeout of `darcs get` and `darcs pull` in milliseconds, zero for none.
+     */
+    private final long timeout;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param source source repository URL
+     * @param darcsExe executable name
+     * @param envs environment variables
+     * @param listener logs the darcs output
+     * @param timeout timeout of `darcs get` and `darcs pull` in milliseconds, zero for none
+     */
+    DarcsMirror(final String source, final String darcsExe, final EnvVars envs, final TaskListener listener,
+            final long timeout) {
+        super();
+        this.timeout = timeout;
+        this.source = source;
+        this.darcsExe = darcsExe;
+        this.envs = envs;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the name of the mirror directory for a source URL.
+     *
+     * @param source source repository URL
+     * @return directory name
+     */
+    static String directoryName(final String source) {
+        return Util.getDigestOf(source);
+    }
+
+    /**
+     * Creates or updates the mirror.
+     *
+     * @param cacheRoot directory which contains all mirrors
+     * @param channel unused
+     * @return absolute path of the mirror
+     * @throws IOException if the mirror can't be locked or moved to its place
+     * @throws InterruptedException if interrupted while waiting for the lock or running darcs
+     */
+    public String invoke(final File cacheRoot, final VirtualChannel channel) throws IOException, InterruptedException {
+        final DarcsCmd cmd = new DarcsCmd(new LocalLauncher(listener), envs, darcsExe,
+                new FilePath(cacheRoot.getAbsoluteFile()));
+        // updating a mirror may take as long as getting it
+        cmd.timeout(DarcsCmd.Operation.PULL, timeout).timeout(DarcsCmd.Operation.GET, timeout);
+        return invoke(cacheRoot, cmd);
+    }
+
+    /**
+     * Creates or updates the mirror with the given darcs command.
+     *
+     * @param cacheRoot directory which contains all mirrors
+     * @param cmd darcs command
+     * @return absolute path of the mirror
+     * @throws IOException if the mirror can't be locked or moved to its place
+     * @throws InterruptedException if interrupted while waiting for the lock or running darcs
+     */
+    String invoke(final File cacheRoot, final DarcsCmd cmd) throws IOException, InterruptedException {
+        if (!cacheRoot.isDirectory() && !cacheRoot.mkdirs()) {
+            throw new IOException(String.format("Can't create mirror cache directory %s!", cacheRoot));
+        }
+
+        final File mirror = new File(cacheRoot, directoryName(source)).getAbsoluteFile();
+        final ReentrantLock lock = lockFor(mirror);
+        lock.lockInterruptibly();
+
+        try {
+            final RandomAccessFile lockFile = new RandomAccessFile(new File(cacheRoot, mirror.getName() + LOCK_SUFFIX),
+                    "rw");
+
+            try {
+                final FileLock fileLock = lockFile.getChannel().lock();
+
+                try {
+                    update(mirror, cmd);
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return mirror.getPath();
+    }
+
+    /**
+     * Returns the JVM wide lock of a mirror.
+     *
+     * @param mirror mirror directory
+     * @return always the same lock for a directory
+     */
+    private static ReentrantLock lockFor(final File mirror) {
+        final ReentrantLock created = new ReentrantLock();
+        final ReentrantLock existing = LOCKS.putIfAbsent(mirror.getPath(), created);
+        return null == existing ? created : existing;
+    }
+
+    /**
+     * Pulls into an existing mirror or gets a new one.
+     *
+     * Must only be called while holding the locks.
+     *
+     * @param mirror mirror directory
+     * @param cmd darcs command
+     * @throws IOException if the new mirror can't be moved to its place
+     * @throws InterruptedException if interrupted while cleaning up
+     */
+    private void update(final File mirror, final DarcsCmd cmd) throws IOException, InterruptedException {
+        if (new File(mirror, "_darcs").isDirectory()) {
+            listener.getLogger().printf("Updating mirror %s of %s...%n", mirror, source);
+            cmd.pull(mirror.getPath(), source);
+            return;
+        }
+
+        listener.getLogger().printf("Creating mirror %s of %s...%n", mirror, source);
+        // a get which did not finish leaves no broken mirror behind
+        final File tmp = new File(mirror.getParentFile(), mirror.getName() + TMP_SUFFIX);
+        Util.deleteRecursive(tmp);
+        Util.deleteRecursive(mirror);
+        cmd.getMirror(tmp.getPath(), source);
+
+        if (!tmp.renameTo(mirror)) {
+            throw new IOException(String.format("Can't move mirror %s to %s!", tmp, mirror));
+        }
+    }
+}
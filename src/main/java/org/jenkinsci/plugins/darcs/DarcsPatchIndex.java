@@ -0,0 +1,481 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted set of the patch hashes known in a workspace repository.
+ *
+ * The index is a binary file in the {@code _darcs} directory of the repository. It starts with a header of a magic
+ * number, the count of records and the SHA-1 digest of the inventory of the repository when the index was written,
+ * followed by the sorted SHA-1 digests of the patch hashes, each {@value #RECORD_SIZE} bytes long. Lookups are binary
+ * searches on the file, so looking up the new patches of a pull only reads O(new * log(known)) records.
+ *
+ * The index only grows. If patches were removed, e.g. by an unpull or obliterate, or added w/o the index, the
+ * inventory differs from the one in the header and the index is outdated, see {@link #isCurrent(File)}.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsPatchIndex {
+
+    /**
+     * Name of the index file in the {@code _darcs} directory.
+     */
+    static final String FILE_NAME = "jenkins-patch-index";
+    /**
+     * Identifies the file format.
+     */
+    private static final int MAGIC = 0x44504932;
+    /**
+     * Size of one SHA-1 digest.
+     */
+    private static final int RECORD_SIZE = 20;
+    /**
+     * Offset of the count in the header.
+     */
+    private static final int COUNT_OFFSET = 4;
+    /**
+     * Size of magic number, count and inventory digest.
+     */
+    private static final int HEADER_SIZE = COUNT_OFFSET + 4 + RECORD_SIZE;
+    /**
+     * Inventory files in the {@code _darcs} directory, of hashed and of old fashioned repositories.
+     */
+    private static final String[] INVENTORIES = {"hashed_inventory", "inventory"};
+    /**
+     * Size of the read buffer for inventories.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Used to mask bytes.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Orders records unsigned lexicographic.
+     */
+    private static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+        public int compare(final byte[] a, final byte[] b) {
+            for (int i = 0; i < RECORD_SIZE; i++) {
+                final int cmp = (a[i] & BYTE_MASK) - (b[i] & BYTE_MASK);
+
+                if (0 != cmp) {
+                    return cmp;
+                }
+            }
+
+            return 0;
+        }
+    };
+
+    /**
+     * Hidden because pure static helper class.
+     */
+    private DarcsPatchIndex() {
+        super();
+    }
+
+    /**
+     * Returns the index file of a repository.
+     *
+     * @param repo repository directory
+     * @return index file, may not exist
+     */
+    static File file(final File repo) {
+        return new File(new File(repo, "_darcs"), FILE_NAME);
+    }
+
+    /**
+     * Returns the patch hashes which are not in the index.
+     *
+     * @param index index file
+     * @param hashes patch hashes to look up
+     * @return unknown hashes in the given order
+     * @throws IOException if the index can't be read or is corrupt
+     */
+    static List<String> unknown(final File index, final List<String> hashes) throws IOException {
+        final List<String> unknown = new ArrayList<String>();
+        final RandomAccessFile file = new RandomAccessFile(index, "r");
+
+        try {
+            final byte[] record = new byte[RECORD_SIZE];
+            final int count = readHeader(file, record);
+
+            for (final String hash : hashes) {
+                if (!contains(file, count, digest(hash), record)) {
+                    unknown.add(hash);
+                }
+            }
+        } finally {
+            file.close();
+        }
+
+        return unknown;
+    }
+
+    /**
+     * Whether the index matches the inventory of its repository.
+     *
+     * @param index index file
+     * @return {@code false} if the repository changed since the index was written, else {@code true}
+     * @throws IOException if the index or inventory can't be read or the index is corrupt
+     */
+    static boolean isCurrent(final File index) throws IOException {
+        final byte[] inventory = new byte[RECORD_SIZE];
+        final DataInputStream in = new DataInputStream(new FileInputStream(index));
+
+        try {
+            readHeader(in, inventory);
+        } finally {
+            in.close();
+        }
+
+        return Arrays.equals(inventory, inventoryDigest(index));
+    }
+
+    /**
+     * Adds patch hashes to the index.
+     *
+     * The index is created if it does not exist. The new index is written next to the old one and then moved in
+     * place, so a failed write does not corrupt the index. The index records the current inventory, so the added
+     * hashes must be all patches added to the repository since the index was written.
+     *
+     * @param index index file
+     * @param hashes patch hashes to add, may contain known hashes
+     * @throws IOException if the index can't be read or written
+     */
+    static void add(final File index, final Collection<String> hashes) throws IOException {
+        final byte[][] added = new byte[hashes.size()][];
+        int i = 0;
+
+        for (final String hash : hashes) {
+            added[i++] = digest(hash);
+        }
+
+        Arrays.sort(added, ORDER);
+        final File tmp = new File(index.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+        try {
+            // count is unknown before merging, so write it afterwards
+            out.writeInt(MAGIC);
+            out.writeInt(0);
+            out.write(inventoryDigest(index));
+            final int count = merge(index, added, out);
+            out.close();
+            writeCount(tmp, count);
+        } finally {
+            out.close();
+        }
+
+        if (index.exists() && !index.delete() || !tmp.renameTo(index)) {
+            throw new IOException(String.format("Can't move patch index %s to %s!", tmp, index));
+        }
+    }
+
+    /**
+     * Merges the sorted records of the existing index with the added ones and drops duplicates.
+     *
+     * @param index existing index file, may not exist
+     * @param added sorted records to add
+     * @param out receives the merged records
+     * @return count of written records
+     * @throws IOException if the index can't be read
+     */
+    private static int merge(final File index, final byte[][] added, final DataOutputStream out) throws IOException {
+        byte[] last = null;
+        int count = 0;
+        int next = 0;
+
+        if (index.exists()) {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+
+            try {
+                final int existing = readHeader(in, new byte[RECORD_SIZE]);
+
+                for (int i = 0; i < existing; i++) {
+                    final byte[] record = new byte[RECORD_SIZE];
+                    in.readFully(record);
+
+                    while (next < added.length && ORDER.compare(added[next], record) < 0) {
+                        count += write(out, added[next], last);
+                        last = added[next++];
+                    }
+
+                    count += write(out, record, last);
+                    last = record;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        while (next < added.length) {
+            count += write(out, added[next], last);
+            last = added[next++];
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes a record if it differs from the last written one.
+     *
+     * @param out receives the record
+     * @param record record to write
+     * @param last last written record, may be {@code null}
+     * @return count of written records, 0 or 1
+     * @throws IOException on write errors
+     */
+    private static int write(final DataOutputStream out, final byte[] record, final byte[] last) throws IOException {
+        if (null != last && Arrays.equals(record, last)) {
+            return 0;
+        }
+
+        out.write(record);
+        return 1;
+    }
+
+    /**
+     * Writes the count of records into the header.
+     *
+     * @param index index file
+     * @param count count of records
+     * @throws IOException on write errors
+     */
+    private static void writeCount(final File index, final int count) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(index, "rw");
+
+        try {
+            file.seek(COUNT_OFFSET);
+            file.writeInt(count);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads and validates the header.
+     *
+     * @param in positioned at the start of the index
+     * @param inventory receives the inventory digest
+     * @return count of records
+     * @throws IOException if the index is corrupt
+     */
+    private static int readHeader(final DataInput in, final byte[] inventory) throws IOException {
+        try {
+            if (MAGIC != in.readInt()) {
+                throw new IOException("Not a patch index!");
+            }
+
+            final int count = in.readInt();
+            in.readFully(inventory);
+            return count;
+        } catch (EOFException ex) {
+            throw new IOException("Truncated patch index!");
+        }
+    }
+
+    /**
+     * Binary search for a record.
+     *
+     * @param file index file
+     * @param count count of records
+     * @param key record to search for
+     * @param record buffer for read records
+     * @return {@code true} if found, else {@code false}
+     * @throws IOException on read errors
+     */
+    private static boolean contains(final RandomAccessFile file, final int count, final byte[] key,
+            final byte[] record) throws IOException {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            file.seek(HEADER_SIZE + (long) mid * RECORD_SIZE);
+            file.readFully(record);
+            final int cmp = ORDER.compare(record, key);
+
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the SHA-1 digest of the inventory of the repository an index belongs to.
+     *
+     * @param index index file in the {@code _darcs} directory
+     * @return digest of the inventory file, or of nothing if the repository has none
+     * @throws IOException if the inventory can't be read
+     */
+    private static byte[] inventoryDigest(final File index) throws IOException {
+        final MessageDigest digest = sha1();
+
+        for (final String name : INVENTORIES) {
+            final File inventory = new File(index.getParentFile(), name);
+
+            if (inventory.isFile()) {
+                final InputStream in = new FileInputStream(inventory);
+
+                try {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+
+                    while (-1 != (read = in.read(buffer))) {
+                        digest.update(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+
+                break;
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Creates a SHA-1 message digest.
+     *
+     * @return new digest
+     */
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Computes the record of a patch hash.
+     *
+     * @param hash Darcs patch hash
+     * @return SHA-1 digest of the hash
+     */
+    static byte[] digest(final String hash) {
+        try {
+            return sha1().digest(hash.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Looks up the unknown patch hashes in the index of the repository it is invoked on.
+     */
+    static final class Lookup implements FileCallable<List<String>> {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Patch hashes to look up.
+         */
+        private final List<String> hashes;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param hashes patch hashes to look up
+         */
+        Lookup(final List<String> hashes) {
+            super();
+            this.hashes = new ArrayList<String>(hashes);
+        }
+
+        /**
+         * Looks up the hashes.
+         *
+         * @param repo repository directory
+         * @param channel unused
+         * @return unknown hashes or {@code null} if there is no index
+         * @throws IOException if the index can't be read
+         */
+        public List<String> invoke(final File repo, final VirtualChannel channel) throws IOException {
+            final File index = file(repo);
+
+            if (!index.exists()) {
+                return null;
+            }
+
+            return unknown(index, hashes);
+        }
+    }
+
+    /**
+     * Adds patch hashes to the index of the repository it is invoked on.
+     */
+    static final class Add implements FileCallable<Void> {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Patch hashes to add.
+         */
+        private final List<String> hashes;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param hashes patch hashes to add
+         */
+        Add(final List<String> hashes) {
+            super();
+            this.hashes = new ArrayList<String>(hashes);
+        }
+
+        /**
+         * Adds the hashes.
+         *
+         * @param repo repository directory
+         * @param channel unused
+         * @return always {@code null}
+         * @throws IOException if the index can't be written
+         */
+        public Void invoke(final File repo, final VirtualChannel channel) throws IOException {
+            add(file(repo), hashes);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Interns file paths of change sets by their directory prefixes.
+ *
+ * Each path is split at slashes into segments and each distinct prefix is stored once as a node which knows its
+ * parent. Change sets hold only the node of a path, so the thousands of paths below the same directories share their
+ * prefixes and segment strings. The path string is rebuilt on access.
+ *
+ * Nodes are only referenced weak by the trie, so nodes no change set refers to anymore are garbage collected.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsPathTrie {
+
+    /**
+     * Shared by all change sets.
+     */
+    static final DarcsPathTrie SHARED = new DarcsPathTrie();
+    /**
+     * Separates path segments.
+     */
+    private static final char SEPARATOR = '/';
+
+    /**
+     * Parent of all first segments.
+     */
+    private final Node root = new Node(null, "");
+
+    /**
+     * Returns the node of a path.
+     *
+     * @param path path to intern, may be {@code null}
+     * @return same node for equal paths while referenced, {@code null} if path is {@code null}
+     */
+    synchronized Node intern(final String path) {
+        if (null == path) {
+            return null;
+        }
+
+        Node node = root;
+        int start = 0;
+
+        while (true) {
+            final int end = path.indexOf(SEPARATOR, start);
+            node = node.child(-1 == end ? path.substring(start) : path.substring(start, end));
+
+            if (-1 == end) {
+                return node;
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * One interned path prefix.
+     */
+    static final class Node {
+
+        /**
+         * Prefix without the last segment, {@code null} for the root.
+         */
+        private final Node parent;
+        /**
+         * Last segment.
+         */
+        private final String name;
+        /**
+         * Children by segment, created on first child.
+         *
+         * The key is the name of the child, so an entry is removed when the child is collected.
+         */
+        private Map<String, WeakReference<Node>> children;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param parent prefix without the last segment
+         * @param name last segment
+         */
+        private Node(final Node parent, final String name) {
+            super();
+            this.parent = parent;
+            this.name = name;
+        }
+
+        /**
+         * Returns the existing child or creates it.
+         *
+         * Must only be called while holding the lock of the trie.
+         *
+         * @param segment name of the child
+         * @return never {@code null}
+         */
+        private Node child(final String segment) {
+            if (null == children) {
+                children = new WeakHashMap<String, WeakReference<Node>>();
+            }
+
+            final WeakReference<Node> ref = children.get(segment);
+            Node child = null == ref ? null : ref.get();
+
+            if (null == child) {
+                child = new Node(this, segment);
+                // key and name must be the same instance to keep the entry as long as the child lives
+                children.put(child.name, new WeakReference<Node>(child));
+            }
+
+            return child;
+        }
+
+        /**
+         * Rebuilds the path.
+         *
+         * @return the interned path
+         */
+        @Override
+        public String toString() {
+            if (null == parent.parent) {
+                return name;
+            }
+
+            final StringBuilder path = new StringBuilder();
+            append(path);
+            return path.toString();
+        }
+
+        /**
+         * Appends the path to a buffer.
+         *
+         * @param path buffer to append to
+         */
+        private void append(final StringBuilder path) {
+            if (null != parent.parent) {
+                parent.append(path);
+                path.append(SEPARATOR);
+            }
+
+            path.append(name);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the patches of remote repositories for polling.
+ *
+ * All jobs polling the same source repository share the patches fetched in the last TTL window. So for many jobs
+ * pointing to the same repository only one darcs process is started per TTL window. The number of concurrently
+ * running darcs processes is limited by {@link DarcsProcessQueue}.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsPollingCache {
+
+    /**
+     * Loads the patches of a repository if not cached.
+     */
+    interface Loader {
+
+        /**
+         * Loads the patches.
+         *
+         * @return change sets, newest first
+         * @throws InterruptedException if interrupted while loading
+         */
+        List<DarcsChangeSet> load() throws InterruptedException;
+    }
+
+    /**
+     * Cache entries by key.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    /**
+     * Time to live of an entry in milliseconds.
+     */
+    private volatile long ttl;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param ttl time to live of an entry in milliseconds
+     */
+    DarcsPollingCache(final long ttl) {
+        super();
+        this.ttl = ttl;
+    }
+
+    /**
+     * Changes the time to live.
+     *
+     * Already cached entries are kept.
+     *
+     * @param ttl time to live of an entry in milliseconds
+     */
+    void configure(final long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the time to live of an entry.
+     *
+     * @return milliseconds
+     */
+    long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * Returns the cached patches or loads them.
+     *
+     * Concurrent calls for the same key wait for the first one and share its result. Failed loads are not cached, the
+     * waiting calls load again.
+     *
+     * @param key identifies the query, e.g. the source URL
+     * @param loader loads the patches if not cached
+     * @return copy of the cached change sets, newest first
+     * @throws InterruptedException if interrupted while waiting or loading
+     */
+    List<DarcsChangeSet> get(final String key, final Loader loader) throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        final Entry entry = acquire(key);
+        final List<DarcsChangeSet> changes;
+
+        try {
+            synchronized (entry) {
+                if (!entry.isFresh(now)) {
+                    entry.set(loader.load(), System.currentTimeMillis());
+                }
+
+                changes = entry.getChanges();
+            }
+        } finally {
+            release(entry);
+            // the load may have taken a while
+            purge(System.currentTimeMillis());
+        }
+
+        return copy(changes);
+    }
+
+    /**
+     * Returns the entry of a key and marks it as in use, so it is not purged.
+     *
+     * @param key identifies the query
+     * @return existing or new entry
+     */
+    private Entry acquire(final String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+
+            if (null == entry) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            ++entry.users;
+            return entry;
+        }
+    }
+
+    /**
+     * Marks an entry acquired by {@link #acquire(String)} as no longer in use.
+     *
+     * @param entry acquired entry
+     */
+    private void release(final Entry entry) {
+        synchronized (entries) {
+            --entry.users;
+        }
+    }
+
+    /**
+     * Returns the cached patches w/o loading them.
+     *
+     * @param key identifies the query, e.g. the source URL
+     * @return copy of the cached change sets, newest first, {@code null} if not cached in the TTL window
+     */
+    List<DarcsChangeSet> peek(final String key) {
+        final Entry entry = entries.get(key);
+
+        if (null == entry) {
+            return null;
+        }
+
+        synchronized (entry) {
+            return entry.isFresh(System.currentTimeMillis()) ? copy(entry.getChanges()) : null;
+        }
+    }
+
+    /**
+     * Caches patches which were loaded w/o the cache.
+     *
+     * @param key identifies the query, e.g. the source URL
+     * @param changes change sets, newest first, the list and the change sets are copied
+     */
+    void put(final String key, final List<DarcsChangeSet> changes) {
+        final Entry created = new Entry();
+        created.set(copy(changes), System.currentTimeMillis());
+        final Entry entry = entries.putIfAbsent(key, created);
+
+        if (null != entry) {
+            synchronized (entry) {
+                entry.set(created.getChanges(), System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Copies the list and its change sets.
+     *
+     * Callers may sort the list and the lists of revision states set themselves as parent of the change sets, so
+     * neither is shared with the cache.
+     *
+     * @param changes change sets to copy
+     * @return new list of new change sets
+     */
+    private static List<DarcsChangeSet> copy(final List<DarcsChangeSet> changes) {
+        final List<DarcsChangeSet> copy = new ArrayList<DarcsChangeSet>(changes.size());
+
+        for (final DarcsChangeSet change : changes) {
+            copy.add(change.copy());
+        }
+
+        return copy;
+    }
+
+    /**
+     * Removes expired entries to not hold the patches of repositories no longer polled.
+     *
+     * Entries in use are kept, so polls waiting for a load share its result. Entries of failed loads are removed.
+     *
+     * @param now current time in milliseconds
+     */
+    private void purge(final long now) {
+        synchronized (entries) {
+            final Iterator<Entry> it = entries.values().iterator();
+
+            while (it.hasNext()) {
+                final Entry entry = it.next();
+
+                if (0 == entry.users && !entry.isFresh(now)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of cached entries.
+     *
+     * @return number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Cached patches of one query.
+     */
+    private final class Entry {
+
+        /**
+         * Cached change sets, {@code null} until loaded.
+         */
+        private volatile List<DarcsChangeSet> changes;
+        /**
+         * Time of load in milliseconds.
+         */
+        private volatile long loaded;
+        /**
+         * Number of gets using the entry, guarded by {@link DarcsPollingCache#entries}.
+         */
+        private int users;
+
+        /**
+         * Sets the loaded change sets.
+         *
+         * @param changes loaded change sets
+         * @param loaded time of load in milliseconds
+         */
+        void set(final List<DarcsChangeSet> changes, final long loaded) {
+            this.changes = changes;
+            this.loaded = loaded;
+        }
+
+        /**
+         * Returns the cached change sets.
+         *
+         * @return may be {@code null}
+         */
+        List<DarcsChangeSet> getChanges() {
+            return changes;
+        }
+
+        /**
+         * Whether the entry was loaded in the TTL window.
+         *
+         * @param now current time in milliseconds
+         * @return {@code true} if loaded and not expired, else {@code false}
+         */
+        boolean isFresh(final long now) {
+            return null != changes && now - loaded < ttl;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.remoting.LocalChannel;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrently running darcs processes.
+ *
+ * There is one queue per node, so a burst of triggered jobs does not spawn dozens of darcs processes on one node, and
+ * optionally one queue per source repository, so the upstream server is not flooded by all nodes at once. A darcs
+ * process waits in fair order until it gets a slot of each queue it belongs to.
+ *
+ * All queues live in the controller JVM. Polling holds a slot for each darcs process it launches on a node, a
+ * checkout holds one slot for its whole callable on the node, which runs one darcs process at a time.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+final class DarcsProcessQueue {
+
+    /**
+     * Key of the node the JVM runs on, used for local channels and if a launcher has no channel.
+     */
+    private static final Object LOCAL = new Object();
+    /**
+     * Queues by node channel.
+     *
+     * Weak keys, so the queues of disconnected nodes are removed.
+     */
+    private static final Map<Object, DarcsProcessQueue> NODES = new WeakHashMap<Object, DarcsProcessQueue>();
+    /**
+     * Queues by source repository URL.
+     */
+    private static final ConcurrentMap<String, DarcsProcessQueue> SOURCES =
+            new ConcurrentHashMap<String, DarcsProcessQueue>();
+
+    /**
+     * Describes the queue in the build log.
+     */
+    private final String name;
+    /**
+     * Slots for processes, {@code null} if unlimited.
+     */
+    private volatile Semaphore slots;
+    /**
+     * Max number of concurrent processes, zero if unlimited.
+     */
+    private volatile int limit;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param name describes the queue in the build log
+     */
+    DarcsProcessQueue(final String name) {
+        super();
+        this.name = name;
+    }
+
+    /**
+     * Returns the queue of a node.
+     *
+     * The local channels of launchers and of file paths on the built-in node are different objects, so all local
+     * channels share the queue of the node the JVM runs on.
+     *
+     * @param channel channel of the node, {@code null} for the node the JVM runs on
+     * @param limit max number of concurrent processes on the node, zero or less for unlimited
+     * @return always the same queue for a node
+     */
+    static DarcsProcessQueue forNode(final Object channel, final int limit) {
+        final Object key = null == channel || channel instanceof LocalChannel ? LOCAL : channel;
+        final DarcsProcessQueue queue;
+
+        synchronized (NODES) {
+            DarcsProcessQueue existing = NODES.get(key);
+
+            if (null == existing) {
+                existing = new DarcsProcessQueue("node");
+                NODES.put(key, existing);
+            }
+
+            queue = existing;
+        }
+
+        queue.setLimit(limit);
+        return queue;
+    }
+
+    /**
+     * Returns the queue of a source repository.
+     *
+     * @param source URL of the source repository
+     * @param limit max number of concurrent processes for the source, zero or less for unlimited
+     * @return always the same queue for a source
+     */
+    static DarcsProcessQueue forSource(final String source, final int limit) {
+        final DarcsProcessQueue created = new DarcsProcessQueue("source " + source);
+        final DarcsProcessQueue existing = SOURCES.putIfAbsent(source, created);
+        final DarcsProcessQueue queue = null == existing ? created : existing;
+        queue.setLimit(limit);
+        return queue;
+    }
+
+    /**
+     * Returns the queues a darcs process on a node which talks to a source repository waits in.
+     *
+     * @param channel channel of the node, {@code null} for the node the JVM runs on
+     * @param nodeLimit max number of concurrent processes on the node, zero or less for unlimited
+     * @param source URL of the source repository
+     * @param sourceLimit max number of concurrent processes for the source, zero or less for no queue
+     * @return the queue of the node first, then the one of the source if limited
+     */
+    static List<DarcsProcessQueue> forProcess(final Object channel, final int nodeLimit, final String source,
+            final int sourceLimit) {
+        final List<DarcsProcessQueue> queues = new ArrayList<DarcsProcessQueue>(2);
+        queues.add(forNode(channel, nodeLimit));
+
+        if (sourceLimit > 0) {
+            queues.add(forSource(source, sourceLimit));
+        }
+
+        return queues;
+    }
+
+    /**
+     * Changes the max number of concurrent processes.
+     *
+     * Running processes keep their slot.
+     *
+     * @param limit zero or less for unlimited
+     */
+    synchronized void setLimit(final int limit) {
+        final int normalized = Math.max(0, limit);
+
+        if (null != slots && this.limit == normalized) {
+            return;
+        }
+
+        this.limit = normalized;
+        slots = 0 == normalized ? null : new Semaphore(normalized, true);
+    }
+
+    /**
+     * Returns the max number of concurrent processes.
+     *
+     * @return zero if unlimited
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Waits for a free slot.
+     *
+     * @param logger receives the wait time if the process had to wait, may be {@code null}
+     * @return the slot to pass to {@link #release(Semaphore)}, {@code null} if unlimited
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Semaphore acquire(final PrintStream logger) throws InterruptedException {
+        final Semaphore semaphore = slots;
+
+        // a timed try respects the fair order, unlike the untimed one
+        if (null == semaphore || semaphore.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            return semaphore;
+        }
+
+        final long start = System.currentTimeMillis();
+        semaphore.acquire();
+
+        if (null != logger) {
+            logger.printf("[darcs] Waited %d ms for one of %d darcs process slots of the %s.%n",
+                    System.currentTimeMillis() - start, limit, name);
+        }
+
+        return semaphore;
+    }
+
+    /**
+     * Waits for a slot of each queue.
+     *
+     * Slots are acquired in the order of the queues, so all callers must pass them in the same order.
+     *
+     * @param queues queues to wait in
+     * @param logger receives the wait times, may be {@code null}
+     * @return acquired slots to pass to {@link #releaseAll(List)}
+     * @throws InterruptedException if interrupted while waiting, already acquired slots are released
+     */
+    static List<Semaphore> acquireAll(final List<DarcsProcessQueue> queues, final PrintStream logger)
+        throws InterruptedException {
+        final List<Semaphore> slots = new ArrayList<Semaphore>(queues.size());
+
+        try {
+            for (final DarcsProcessQueue queue : queues) {
+                slots.add(queue.acquire(logger));
+            }
+        } catch (InterruptedException ex) {
+            releaseAll(slots);
+            throw ex;
+        }
+
+        return slots;
+    }
+
+    /**
+     * Frees acquired slots.
+     *
+     * @param slots returned by {@link #acquireAll(List, PrintStream)}
+     */
+    static void releaseAll(final List<Semaphore> slots) {
+        for (final Semaphore slot : slots) {
+            release(slot);
+        }
+    }
+
+    /**
+     * Frees a slot.
+     *
+     * @param slot returned by {@link #acquire(PrintStream)}, may be {@code null}
+     */
+    static void release(final Semaphore slot) {
+        if (null != slot) {
+            slot.release();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Order independent 128 bit fingerprint over the hashes of a set of patches.
+ *
+ * Each patch hash is digested with MD5 and the two halves of all digests are summed up. The sum does not depend on
+ * the order the patches are added in, so the fingerprint is computed in one pass over the patches as darcs reports
+ * them and comparing two fingerprints is a comparison of two longs.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public final class DarcsRevisionFingerprint {
+
+    /**
+     * Fingerprint of no patches.
+     */
+    public static final DarcsRevisionFingerprint EMPTY = new DarcsRevisionFingerprint(0L, 0L);
+    /**
+     * Bits in a byte.
+     */
+    private static final int BYTE_SIZE = 8;
+    /**
+     * Bytes in a long.
+     */
+    private static final int LONG_SIZE = 8;
+    /**
+     * Used to mask bytes.
+     */
+    private static final long BYTE_MASK = 0xFFL;
+
+    /**
+     * Upper 64 bits.
+     */
+    private final long high;
+    /**
+     * Lower 64 bits.
+     */
+    private final long low;
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param high upper 64 bits
+     * @param low lower 64 bits
+     */
+    DarcsRevisionFingerprint(final long high, final long low) {
+        super();
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Returns the upper 64 bits.
+     *
+     * @return upper bits
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns the lower 64 bits.
+     *
+     * @return lower bits
+     */
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof DarcsRevisionFingerprint)) {
+            return false;
+        }
+
+        final DarcsRevisionFingerprint other = (DarcsRevisionFingerprint) obj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        // the bits are already well distributed by MD5
+        return (int) low;
+    }
+
+    /**
+     * Formats the fingerprint as 32 hex digits.
+     *
+     * @return hex string
+     */
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    /**
+     * Sums up the fingerprint patch by patch.
+     *
+     * Not thread safe.
+     */
+    static final class Accumulator {
+
+        /**
+         * Digests each hash, reused for all hashes.
+         */
+        private final MessageDigest md5;
+        /**
+         * Sum of the upper halves.
+         */
+        private long high;
+        /**
+         * Sum of the lower halves.
+         */
+        private long low;
+
+        /**
+         * Starts with the fingerprint of no patches.
+         */
+        Accumulator() {
+            super();
+
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException ex) {
+                // every JRE must provide MD5
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Adds a patch.
+         *
+         * @param hash darcs hash of the patch, {@code null} is treated as empty string
+         * @return this for chaining
+         */
+        Accumulator add(final String hash) {
+            final byte[] digest;
+
+            try {
+                digest = md5.digest((null == hash ? "" : hash).getBytes("UTF-8"));
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+
+            high += toLong(digest, 0);
+            low += toLong(digest, LONG_SIZE);
+            return this;
+        }
+
+        /**
+         * Returns the fingerprint of the patches added so far.
+         *
+         * @return never {@code null}
+         */
+        DarcsRevisionFingerprint toFingerprint() {
+            return new DarcsRevisionFingerprint(high, low);
+        }
+
+        /**
+         * Reads eight bytes big endian.
+         *
+         * @param bytes bytes to read
+         * @param offset position of the first byte
+         * @return the long value
+         */
+        private static long toLong(final byte[] bytes, final int offset) {
+            long value = 0;
+
+            for (int i = offset; i < offset + LONG_SIZE; i++) {
+                value = (value << BYTE_SIZE) | (BYTE_MASK & bytes[i]);
+            }
+
+            return value;
+        }
+    }
+}
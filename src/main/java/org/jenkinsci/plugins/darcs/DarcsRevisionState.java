@@ -10,20 +10,63 @@
 package org.jenkinsci.plugins.darcs;
 
 import hudson.scm.SCMRevisionState;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Represents the revision state of a repository.
  *
- * The state consists of all changes in a repository. The comparison is made over a digest from the DarcsChangeSetList.
+ * The state consists of all changes in a repository. The comparison is made over the fingerprint of the
+ * DarcsChangeSetList, so comparing two states neither sorts nor allocates.
+ *
+ * Additionally a state carries a marker: the hashes of the newest patches in the order darcs reports them and the
+ * total count of patches. The marker is enough to detect new patches by asking darcs only for the newest ones. States
+ * created from a marker only (see {@link #fromMarker(java.util.List, int)}) do not hold any change sets and are only
+ * comparable to other marker only states.
+ *
+ * States of repositories served over HTTP also carry the version of the repository's inventory file when the state
+ * was taken, so the next poll can skip darcs if the inventory is unchanged. The version is not compared.
  *
  * @author Sven Strittmatter <ich@weltraumschaf.de>
  */
 public class DarcsRevisionState extends SCMRevisionState {
 
+    /**
+     * Max number of patch hashes stored in the marker.
+     */
+    static final int MARKER_SIZE = 10;
+    /**
+     * Factor to combine hash codes.
+     */
+    private static final int HASH_FACTOR = 31;
+
     /**
      * Holds all patches as DarcsChangeSet objects.
      */
     private final DarcsChangeSetList changes;
+    /**
+     * Hashes of the newest patches, newest first.
+     *
+     * May be {@code null} for states unmarshalled from prior versions.
+     */
+    private final List<String> marker;
+    /**
+     * Total count of patches in the repository.
+     */
+    private final int count;
+    /**
+     * Whether the state only consists of the marker.
+     *
+     * Negated so that states unmarshalled from prior versions are complete.
+     */
+    private final boolean markerOnly;
+    /**
+     * Version of the inventory file of the repository.
+     *
+     * May be {@code null} if unknown.
+     */
+    private final DarcsInventoryProbe.Version inventory;
 
     /**
      * Initializes object with empty change set list.
@@ -33,27 +76,208 @@ public class DarcsRevisionState extends SCMRevisionState {
     }
 
     /**
-     * Dedicated constructor.
+     * Initializes object with change set list and without marker.
      *
      * @param changes list of change sets
      */
     public DarcsRevisionState(final DarcsChangeSetList changes) {
+        this(changes, Collections.<String>emptyList(), changes.size(), false);
+    }
+
+    /**
+     * Constructs a state without inventory version.
+     *
+     * @param changes list of change sets
+     * @param marker hashes of the newest patches, newest first
+     * @param count total count of patches
+     * @param markerOnly whether the changes are empty because only the marker is known
+     */
+    private DarcsRevisionState(final DarcsChangeSetList changes, final List<String> marker, final int count,
+            final boolean markerOnly) {
+        this(changes, marker, count, markerOnly, null);
+    }
+
+    /**
+     * Dedicated constructor.
+     *
+     * @param changes list of change sets
+     * @param marker hashes of the newest patches, newest first
+     * @param count total count of patches
+     * @param markerOnly whether the changes are empty because only the marker is known
+     * @param inventory version of the inventory file, may be {@code null}
+     */
+    private DarcsRevisionState(final DarcsChangeSetList changes, final List<String> marker, final int count,
+            final boolean markerOnly, final DarcsInventoryProbe.Version inventory) {
         super();
         this.changes = changes;
+        this.marker = marker;
+        this.count = count;
+        this.markerOnly = markerOnly;
+        this.inventory = inventory;
+    }
+
+    /**
+     * Creates a complete state from change sets in the order darcs reported them.
+     *
+     * @param changes change sets, newest first
+     * @return new revision state
+     */
+    public static DarcsRevisionState fromChanges(final List<DarcsChangeSet> changes) {
+        final List<String> marker = createMarker(changes);
+        return new DarcsRevisionState(new DarcsChangeSetList(changes), marker, changes.size(), false);
+    }
+
+    /**
+     * Creates a state which only consists of a marker.
+     *
+     * @param newest change sets of the newest patches, newest first
+     * @param count total count of patches
+     * @return new revision state
+     */
+    public static DarcsRevisionState fromMarker(final List<DarcsChangeSet> newest, final int count) {
+        return new DarcsRevisionState(new DarcsChangeSetList(), createMarker(newest), count, true);
+    }
+
+    /**
+     * Creates a complete state from the patch hashes of a repository.
+     *
+     * The change sets only carry their hash, which is all the comparison of states needs.
+     *
+     * @param hashes patch hashes, newest first
+     * @return new revision state
+     */
+    public static DarcsRevisionState fromHashes(final List<String> hashes) {
+        final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>(hashes.size());
+
+        for (final String hash : hashes) {
+            final DarcsChangeSet changeSet = new DarcsChangeSet();
+            changeSet.setHash(hash);
+            changes.add(changeSet);
+        }
+
+        return fromChanges(changes);
+    }
+
+    /**
+     * Collects the hashes of at most {@link #MARKER_SIZE} change sets.
+     *
+     * @param changes change sets, newest first
+     * @return unmodifiable list of hashes
+     */
+    private static List<String> createMarker(final List<DarcsChangeSet> changes) {
+        final int size = Math.min(MARKER_SIZE, changes.size());
+        final List<String> hashes = new ArrayList<String>(size);
+
+        for (int i = 0; i < size; ++i) {
+            hashes.add(changes.get(i).getHash());
+        }
+
+        return Collections.unmodifiableList(hashes);
     }
 
     /**
      * Returns the current revision state change set list.
      *
+     * Empty if {@link #isComplete()} is {@code false}.
+     *
      * @return never {@code null}
      */
     public DarcsChangeSetList getChanges() {
         return changes;
     }
 
+    /**
+     * Returns the hashes of the newest patches.
+     *
+     * @return newest first, may be empty but never {@code null}
+     */
+    public List<String> getMarker() {
+        return null == marker
+                ? Collections.<String>emptyList()
+                : marker;
+    }
+
+    /**
+     * Returns the total count of patches.
+     *
+     * @return count of patches
+     */
+    public int getCount() {
+        return isComplete()
+                ? changes.size()
+                : count;
+    }
+
+    /**
+     * Returns the version of the inventory file of the repository when the state was taken.
+     *
+     * @return {@code null} if unknown
+     */
+    DarcsInventoryProbe.Version getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Creates an equal state with the version of the inventory file.
+     *
+     * @param version version of the inventory file, may be {@code null}
+     * @return new revision state
+     */
+    DarcsRevisionState withInventory(final DarcsInventoryProbe.Version version) {
+        return new DarcsRevisionState(changes, marker, count, markerOnly, version);
+    }
+
+    /**
+     * Whether the state holds all change sets or only the marker.
+     *
+     * @return {@code true} if all change sets are known, else {@code false}
+     */
+    public boolean isComplete() {
+        return !markerOnly;
+    }
+
+    /**
+     * Finds the position of this state's marker in the newest patches of another repository state.
+     *
+     * The marker is found if its newest hash is in the given list and all following hashes match the marker as far as
+     * the list reaches.
+     *
+     * @param newest change sets of the newest patches, newest first
+     * @return count of patches newer than the marker, or -1 if not found
+     */
+    public int findMarker(final List<DarcsChangeSet> newest) {
+        final List<String> hashes = getMarker();
+
+        if (hashes.isEmpty()) {
+            return -1;
+        }
+
+        for (int offset = 0; offset < newest.size(); ++offset) {
+            if (!hashes.get(0).equals(newest.get(offset).getHash())) {
+                continue;
+            }
+
+            final int size = Math.min(hashes.size(), newest.size() - offset);
+
+            for (int i = 1; i < size; ++i) {
+                if (!hashes.get(i).equals(newest.get(offset + i).getHash())) {
+                    return -1;
+                }
+            }
+
+            return offset;
+        }
+
+        return -1;
+    }
+
     @Override
     public String toString() {
-        return getChanges().digest();
+        if (isComplete()) {
+            return getChanges().digest();
+        }
+
+        return String.format("%s@%d", getMarker().isEmpty() ? "" : getMarker().get(0), count);
     }
 
     @Override
@@ -63,11 +287,24 @@ public class DarcsRevisionState extends SCMRevisionState {
         }
 
         final DarcsRevisionState other = (DarcsRevisionState) obj;
-        return getChanges().equals(other.getChanges());
+
+        if (isComplete() != other.isComplete()) {
+            return false;
+        }
+
+        if (isComplete()) {
+            return getChanges().equals(other.getChanges());
+        }
+
+        return count == other.count && getMarker().equals(other.getMarker());
     }
 
     @Override
     public int hashCode() {
-        return changes.hashCode();
+        if (isComplete()) {
+            return changes.hashCode();
+        }
+
+        return HASH_FACTOR * getMarker().hashCode() + count;
     }
 }
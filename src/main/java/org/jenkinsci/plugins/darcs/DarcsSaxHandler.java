@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXParseException;
@@ -47,6 +48,10 @@ class DarcsSaxHandler extends DefaultHandler {
          * Tag {@literal <changelog>}.
          */
         CHANGELOG("changelog"),
+        /**
+         * Tag {@literal <patches>}, root of {@code darcs pull --dry-run --xml-output}.
+         */
+        PATCHES("patches"),
         /**
          * Tag {@literal <patch>}.
          */
@@ -135,11 +140,7 @@ class DarcsSaxHandler extends DefaultHandler {
          * @return may return null, if tag name is unknown
          */
         static DarcsChangelogTag forTagName(final String tagName) {
-            if (LOOKUP.containsKey(tagName.toLowerCase())) {
-                return LOOKUP.get(tagName);
-            }
-
-            return null;
+            return LOOKUP.get(tagName);
         }
     }
 
@@ -242,7 +243,7 @@ class DarcsSaxHandler extends DefaultHandler {
     /**
      * Buffers scanned literals.
      */
-    private StringBuilder literalBuffer = new StringBuilder();
+    private final StringBuilder literalBuffer = new StringBuilder();
 
     /**
      * Dedicated constructor.
@@ -316,13 +317,17 @@ class DarcsSaxHandler extends DefaultHandler {
             currentChangeSet.getAddedPaths().add(atts.getValue(DarcsMoveTagAttribute.TO.getName()));
         }
 
-        literalBuffer = new StringBuilder();
+        literalBuffer.setLength(0);
     }
 
     @Override
     public void endElement(final String uri, final String name, final String qName) {
         recognizeTag(qName);
 
+        if (null == currentTag) {
+            return;
+        }
+
         switch (currentTag) {
             case PATCH:
                 changeSets.add(currentChangeSet);
@@ -343,7 +348,9 @@ class DarcsSaxHandler extends DefaultHandler {
                 currentChangeSet.getDeletedPaths().add(literalBuffer.toString());
                 break;
             default:
-                LOGGER.info(String.format("Ignored tag <%s>!", currentTag));
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine(String.format("Ignored tag <%s>!", currentTag));
+                }
         }
 
         currentTag = null;
@@ -12,30 +12,32 @@ package org.jenkinsci.plugins.darcs;
 import org.jenkinsci.plugins.darcs.browsers.DarcsRepositoryBrowser;
 import hudson.EnvVars;
 import hudson.FilePath;
-import hudson.FilePath.FileCallable;
 import hudson.Launcher;
 import hudson.Launcher.LocalLauncher;
+import hudson.Util;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.BuildListener;
 import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteOutputStream;
 import hudson.remoting.VirtualChannel;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.PollingResult;
 import hudson.scm.PollingResult.Change;
 import hudson.scm.SCM;
 import hudson.scm.SCMRevisionState;
-import hudson.util.IOUtils;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.PrintWriter;
 import java.io.Serializable;
-import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -61,6 +63,14 @@ public class DarcsScm extends SCM implements Serializable {
      * Logging facility.
      */
     private static final Logger LOGGER = Logger.getLogger(DarcsScm.class.getName());
+    /**
+     * Max number of newest patches fetched while polling incrementally before comparing the whole history.
+     */
+    private static final int MAX_POLLING_WINDOW = 640;
+    /**
+     * Milliseconds per second.
+     */
+    private static final long MILLIS = 1000L;
     /**
      * Source repository URL from which we pull.
      */
@@ -73,6 +83,16 @@ public class DarcsScm extends SCM implements Serializable {
      * Whether to wipe the checked out repository.
      */
     private final boolean clean;
+    /**
+     * Whether to get the patches lazy on fresh checkouts.
+     */
+    private final boolean lazy;
+    /**
+     * Tag up to which the patches are fetched on fresh checkouts.
+     *
+     * May be null.
+     */
+    private final String tag;
     /**
      * Used repository browser.
      */
@@ -81,12 +101,28 @@ public class DarcsScm extends SCM implements Serializable {
     /**
      * Convenience constructor.
      *
-     * Sets local directory to {@link #DEFAULT_LOCAL_DIR}, clean to {@code false} and browser to {@code null}.
+     * Sets local directory to {@link #DEFAULT_LOCAL_DIR}, clean and lazy to {@code false}, tag and browser to
+     * {@code null}.
      *
      * @param source repository URL from which we pull
      */
     public DarcsScm(final String source) throws SAXException {
-        this(source, "", false, null);
+        this(source, "", false, false, null, null);
+    }
+
+    /**
+     * Constructor of configurations w/o lazy checkout and tag.
+     *
+     * @param source repository URL from which we pull
+     * @param localDir Local directory in the workspace
+     * @param clean {@code true} cleans the workspace, {@code false} not
+     * @param browser the browser used to browse the repository
+     * @deprecated use {@link #DarcsScm(String, String, boolean, boolean, String, DarcsRepositoryBrowser)}
+     */
+    @Deprecated
+    public DarcsScm(final String source, final String localDir, final boolean clean,
+            final DarcsRepositoryBrowser browser) {
+        this(source, localDir, clean, false, null, browser);
     }
 
     /**
@@ -95,13 +131,18 @@ public class DarcsScm extends SCM implements Serializable {
      * @param source repository URL from which we pull
      * @param localDir Local directory in the workspace
      * @param clean {@code true} cleans the workspace, {@code false} not
+     * @param lazy {@code true} gets the patches lazy on fresh checkouts, {@code false} not
+     * @param tag tag up to which the patches are fetched on fresh checkouts, all if {@code null} or empty
      * @param browser the browser used to browse the repository
      */
     @DataBoundConstructor
-    public DarcsScm(final String source, final String localDir, final boolean clean, final DarcsRepositoryBrowser browser) {
+    public DarcsScm(final String source, final String localDir, final boolean clean, final boolean lazy,
+            final String tag, final DarcsRepositoryBrowser browser) {
         super();
         this.source = source;
         this.clean = clean;
+        this.lazy = lazy;
+        this.tag = tag;
         this.browser = browser;
         this.localDir = localDir;
     }
@@ -133,6 +174,24 @@ public class DarcsScm extends SCM implements Serializable {
         return clean;
     }
 
+    /**
+     * Whether to get the patches lazy on fresh checkouts.
+     *
+     * @return {@code true} if lazy, {@code false} else
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Get the tag up to which the patches are fetched on fresh checkouts.
+     *
+     * @return may be {@code null}
+     */
+    public String getTag() {
+        return tag;
+    }
+
     @Override
     public DarcsRepositoryBrowser getBrowser() {
         return browser;
@@ -140,7 +199,7 @@ public class DarcsScm extends SCM implements Serializable {
 
     @Override
     public boolean supportsPolling() {
-        return false;
+        return true;
     }
 
     @Override
@@ -152,7 +211,11 @@ public class DarcsScm extends SCM implements Serializable {
     public SCMRevisionState calcRevisionsFromBuild(final AbstractBuild<?, ?> build, final Launcher launcher,
             final TaskListener listener) throws IOException, InterruptedException {
         final FilePath localPath = createLocalPath(build.getWorkspace());
-        final DarcsRevisionState local = getRevisionState(launcher, listener, localPath.getRemote(), build.getWorkspace());
+        DarcsRevisionState local = readRevisionState(listener, localPath);
+
+        if (null == local) {
+            local = getRevisionState(launcher, listener, localPath.getRemote(), build.getWorkspace());
+        }
 
         if (null == local) {
             listener.getLogger().println(String.format("[poll] Got <null> as revision state."));
@@ -187,8 +250,43 @@ public class DarcsScm extends SCM implements Serializable {
             return PollingResult.BUILD_NOW;
         }
 
+        final DarcsInventoryProbe.Version inventory = probeInventory(listener, localRevisionState);
+
+        if (null != inventory && localRevisionState instanceof DarcsRevisionState
+                && inventory.equals(((DarcsRevisionState) localRevisionState).getInventory())) {
+            logger.println("[poll] Inventory of remote repository not modified.");
+            return new PollingResult(localRevisionState, localRevisionState, Change.NONE);
+        }
+
         final Change change;
-        final DarcsRevisionState remoteRevisionState = getRevisionState(launcher, listener, source, workspace);
+        DarcsRevisionState remoteRevisionState = null;
+
+        try {
+            if (getDescriptor().isIncrementalPolling() && localRevisionState instanceof DarcsRevisionState) {
+                remoteRevisionState = getIncrementalRevisionState(launcher, listener, workspace,
+                        (DarcsRevisionState) localRevisionState);
+            }
+
+            if (null == remoteRevisionState && getDescriptor().isStreamingComparison()
+                    && localRevisionState instanceof DarcsRevisionState) {
+                remoteRevisionState = getStreamingRevisionState(launcher, listener, workspace,
+                        (DarcsRevisionState) localRevisionState);
+            }
+
+            if (null == remoteRevisionState) {
+                remoteRevisionState = getRemoteRevisionState(launcher, listener, workspace);
+            }
+        } catch (DarcsCmd.DarcsCmdTimeoutException e) {
+            // the remote state is unknown, a timeout must neither trigger builds nor a second try in this poll
+            logger.printf("[poll] %s Remote revision is unknown, keeping local revision %s.%n", e.getMessage(),
+                    localRevisionState);
+            return new PollingResult(localRevisionState, localRevisionState, Change.NONE);
+        }
+
+        if (null != remoteRevisionState && null != inventory) {
+            // probed before darcs ran, so a newer inventory is at worst detected as change by the next poll
+            remoteRevisionState = remoteRevisionState.withInventory(inventory);
+        }
 
         logger.printf("[poll] Current remote revision is %s. Local revision is %s.%n",
                 remoteRevisionState, localRevisionState);
@@ -204,14 +302,13 @@ public class DarcsScm extends SCM implements Serializable {
         } else if (null != remoteRevisionState && !remoteRevisionState.equals(localRevisionState)) {
             logger.println("[poll] Local revision state differs from remote.");
 
-            if (remoteRevisionState.getChanges().size()
-                    < ((DarcsRevisionState) localRevisionState).getChanges().size()) {
+            if (remoteRevisionState.getCount() < ((DarcsRevisionState) localRevisionState).getCount()) {
                 final FilePath ws = project.getLastBuild().getWorkspace();
 
                 logger.printf("[poll] Remote repo has less patches than local: remote(%s) vs. local(%s). Will wipe "
                         + "workspace %s...%n",
-                        remoteRevisionState.getChanges().size(),
-                        ((DarcsRevisionState) localRevisionState).getChanges().size(),
+                        remoteRevisionState.getCount(),
+                        ((DarcsRevisionState) localRevisionState).getCount(),
                         (null != ws) ? ws.getRemote() : "null");
 
                 if (null != ws) {
@@ -227,6 +324,50 @@ public class DarcsScm extends SCM implements Serializable {
         return new PollingResult(localRevisionState, remoteRevisionState, change);
     }
 
+    /**
+     * Calculates the revision state of a workspace repository from its inventory files w/o spawning darcs.
+     *
+     * @param listener logs failures
+     * @param repo workspace repository
+     * @return {@code null} if the repository is not hashed or the inventory can't be read
+     * @throws InterruptedException if interrupted while reading the inventory on the node
+     */
+    private DarcsRevisionState readRevisionState(final TaskListener listener, final FilePath repo)
+            throws InterruptedException {
+        try {
+            final List<String> hashes = repo.act(new DarcsInventoryReader());
+            return null == hashes ? null : DarcsRevisionState.fromHashes(hashes);
+        } catch (IOException e) {
+            listener.getLogger().printf("[poll] Can't read inventory of %s, will ask darcs: %s%n", repo.getRemote(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the version of the inventory file of a source repository served over HTTP.
+     *
+     * @param listener logs the polling
+     * @param baseline last polled state, its inventory version is used for a conditional request
+     * @return {@code null} if not an HTTP source, disabled or failed
+     */
+    private DarcsInventoryProbe.Version probeInventory(final TaskListener listener, final SCMRevisionState baseline) {
+        if (!getDescriptor().isInventoryPolling() || !DarcsInventoryProbe.isHttp(source)) {
+            return null;
+        }
+
+        final DarcsInventoryProbe.Version known = baseline instanceof DarcsRevisionState
+                ? ((DarcsRevisionState) baseline).getInventory()
+                : null;
+        final int timeout = (int) Math.min(Integer.MAX_VALUE, getDescriptor().getChangesTimeout() * MILLIS);
+
+        try {
+            return new DarcsInventoryProbe(timeout).probe(source, known);
+        } catch (IOException e) {
+            listener.getLogger().printf("[poll] Can't fetch inventory of %s, will ask darcs: %s%n", source, e);
+            return null;
+        }
+    }
+
     /**
      * Calculates the revision state of a repository (local or remote).
      *
@@ -238,173 +379,294 @@ public class DarcsScm extends SCM implements Serializable {
      */
     DarcsRevisionState getRevisionState(final Launcher launcher, final TaskListener listener, final String repo, final FilePath workspace)
             throws InterruptedException {
-        final DarcsCmd cmd;
+        final DarcsCmd cmd = createCmd(launcher, listener, workspace);
+        DarcsRevisionState rev = null;
 
-        if (null == launcher) {
-            /* Create a launcher on master
-             * TODO better grab a launcher on 'any slave'
-             */
-            cmd = new DarcsCmd(new LocalLauncher(listener), EnvVars.masterEnvVars, getDescriptor().getDarcsExe(), workspace);
-        } else {
-            cmd = new DarcsCmd(launcher, EnvVars.masterEnvVars, getDescriptor().getDarcsExe(), workspace);
+        try {
+            rev = DarcsRevisionState.fromChanges(cmd.allChanges(repo));
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.getLogger().println(String.format("[warning] Failed to get revision state for repository: %s", repo));
         }
 
+        return rev;
+    }
+
+    /**
+     * Calculates the revision state of the source repository.
+     *
+     * The patches are shared with all jobs polling the same source repository.
+     *
+     * @param launcher may be {@code null}
+     * @param listener logs the polling
+     * @param workspace working directory for darcs
+     * @return {@code null} if darcs failed
+     * @throws InterruptedException if interrupted while waiting for or running darcs
+     * @throws DarcsCmd.DarcsCmdTimeoutException if darcs exceeded its timeout
+     */
+    DarcsRevisionState getRemoteRevisionState(final Launcher launcher, final TaskListener listener,
+            final FilePath workspace) throws InterruptedException {
+        final DarcsCmd cmd = createCmd(launcher, listener, workspace);
         DarcsRevisionState rev = null;
 
         try {
-            final ByteArrayOutputStream changes = cmd.allChanges(repo);
-            rev = new DarcsRevisionState(((DarcsChangeLogParser) createChangeLogParser()).parse(changes));
-        } catch (Exception e) {
-            listener.getLogger().println(String.format("[warning] Failed to get revision state for repository: %s", repo));
+            rev = DarcsRevisionState.fromChanges(fetchRemoteChanges(cmd, 0));
+        } catch (DarcsCmd.DarcsCmdTimeoutException e) {
+            throw e;
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.getLogger().println(String.format("[warning] Failed to get revision state for repository: %s",
+                    source));
         }
 
         return rev;
     }
 
     /**
-     * Writes the change log of the last numPatches to the changeLog file.
+     * Calculates the revision state of the source repository by comparing its patches with the baseline while darcs
+     * prints them.
      *
-     * @param launcher
-     * @param numPatches
-     * @param workspace
-     * @param changeLog
-     * @throws InterruptedException
+     * darcs is stopped at the first patch which is not in the baseline, so new patches are detected after reading the
+     * patches newer than the baseline. Only if all patches are known the whole history is read, then it is shared
+     * through the polling cache. If the history is cached already, darcs is not run at all.
+     *
+     * @param launcher may be {@code null}
+     * @param listener logs the polling
+     * @param workspace working directory for darcs
+     * @param baseline state to compare with, must be complete
+     * @return the baseline if the repository has the same patches, a marker only state if an unknown patch was found,
+     *         a complete state if the whole history was read or {@code null} if the baseline is not complete or darcs
+     *         failed
+     * @throws InterruptedException if interrupted while waiting for or running darcs
+     * @throws DarcsCmd.DarcsCmdTimeoutException if darcs exceeded its timeout
      */
-    private void createChangeLog(final Launcher launcher, final int numPatches, final FilePath workspace,
-            final File changeLog, final BuildListener listener) throws InterruptedException {
-        if (0 == numPatches) {
-            LOGGER.info("Creating empty changelog.");
-            createEmptyChangeLog(changeLog, listener, "changelog");
-            return;
+    DarcsRevisionState getStreamingRevisionState(final Launcher launcher, final TaskListener listener,
+            final FilePath workspace, final DarcsRevisionState baseline) throws InterruptedException {
+        if (!baseline.isComplete()) {
+            return null;
+        }
+
+        final DarcsPollingCache cache = getDescriptor().getPollingCache();
+        final String key = source + "#0";
+        final List<DarcsChangeSet> cached = cache.peek(key);
+
+        if (null != cached) {
+            return DarcsRevisionState.fromChanges(cached);
         }
 
-        final DarcsCmd cmd = new DarcsCmd(launcher, EnvVars.masterEnvVars, getDescriptor().getDarcsExe(), workspace.getParent());
-        FileOutputStream fos = null;
+        final Set<String> known = new HashSet<String>();
+
+        for (final DarcsChangeSet changeSet : baseline.getChanges()) {
+            known.add(changeSet.getHash());
+        }
+
+        final List<DarcsChangeSet> changes;
 
         try {
-            fos = new FileOutputStream(changeLog);
-            final FilePath localPath = createLocalPath(workspace);
-            final ByteArrayOutputStream changes = cmd.lastSummarizedChanges(localPath.getRemote(), numPatches);
-            changes.writeTo(fos);
-        } catch (Exception e) {
-            final StringWriter w = new StringWriter();
-            e.printStackTrace(new PrintWriter(w));
-            LOGGER.warning(String.format("Failed to get log from repository: %s", w));
-        } finally {
-            IOUtils.closeQuietly(fos);
+            changes = createCmd(launcher, listener, workspace).changesUntilUnknown(source, known);
+        } catch (DarcsCmd.DarcsCmdTimeoutException e) {
+            throw e;
+        } catch (DarcsCmd.DarcsCmdException e) {
+            listener.getLogger().println(String.format("[warning] Failed to compare revision state for repository: %s",
+                    source));
+            return null;
         }
-    }
 
-    @Override
-    public boolean checkout(final AbstractBuild<?, ?> build, final Launcher launcher, final FilePath workspace,
-            final BuildListener listener, final File changelogFile) throws IOException, InterruptedException {
-        final FilePath localPath = createLocalPath(workspace);
-        final boolean existsRepoinWorkspace = localPath.act(new FileCallable<Boolean>() {
-            private static final long serialVersionUID = 1L;
+        if (!changes.isEmpty() && !known.contains(changes.get(changes.size() - 1).getHash())) {
+            listener.getLogger().printf("[poll] Found unknown patch after reading %d patches.%n", changes.size());
+            // the total count is unknown, but at least one patch more than the baseline has
+            return DarcsRevisionState.fromMarker(changes, Math.max(changes.size(), baseline.getCount() + 1));
+        }
 
-            public Boolean invoke(File ws, VirtualChannel channel) throws IOException {
-                final File file = new File(ws, "_darcs");
-                return file.exists();
-            }
-        });
+        cache.put(key, changes);
 
-        if (existsRepoinWorkspace && !isClean()) {
-            return pullRepo(build, launcher, workspace, listener, changelogFile);
-        } else {
-            return getRepo(build, launcher, workspace, listener, changelogFile);
+        if (changes.size() == known.size()) {
+            return baseline;
         }
+
+        return DarcsRevisionState.fromChanges(changes);
     }
 
     /**
-     * Counts the patches in a repository.
+     * Fetches the newest patches of the source repository through the controller wide polling cache.
      *
-     * @param build
-     * @param launcher
-     * @param workspace
-     * @param listener
-     * @return
-     * @throws InterruptedException
-     * @throws IOException
+     * @param cmd used if the patches are not cached
+     * @param n amount of newest patches, all if less than one
+     * @return change sets, newest first
+     * @throws InterruptedException if interrupted while waiting for or running darcs
      */
-    private int countPatches(final AbstractBuild<?, ?> build, final Launcher launcher, final FilePath workspace,
-            final BuildListener listener) {
-        try {
-            final DarcsCmd cmd = new DarcsCmd(launcher, build.getEnvironment(listener), getDescriptor().getDarcsExe(), workspace.getParent());
-            final FilePath localPath = createLocalPath(workspace);
-            return cmd.countChanges(localPath.getRemote());
-        } catch (Exception e) {
-            listener.error("Failed to count patches in workspace repo:%n", e.toString());
-            return 0;
-        }
+    private List<DarcsChangeSet> fetchRemoteChanges(final DarcsCmd cmd, final int n) throws InterruptedException {
+        return getDescriptor().getPollingCache().get(source + "#" + n, new DarcsPollingCache.Loader() {
+            public List<DarcsChangeSet> load() throws InterruptedException {
+                return n > 0
+                        ? cmd.lastChanges(source, n)
+                        : cmd.allChanges(source);
+            }
+        });
     }
 
     /**
-     * Pulls all patches from a remote repository in the workspace repository.
+     * Calculates the revision state of the source repository by only asking for the patches newer than the baseline.
      *
-     * @param build
-     * @param launcher
-     * @param workspace
-     * @param listener
-     * @param changelogFile
-     * @return boolean
-     * @throws InterruptedException
-     * @throws IOException
+     * The newest patches are fetched in a growing window until the marker of the baseline is found in them. If the
+     * whole history was fetched w/o finding the marker the complete revision state is returned.
+     *
+     * @param launcher may be {@code null}
+     * @param listener logs the polling
+     * @param workspace working directory for darcs
+     * @param baseline state to find the newest patches of
+     * @return the baseline if there are no new patches, a marker only state if there are new patches, a complete
+     *         state if the whole history was fetched or {@code null} if the full history must be compared
+     * @throws InterruptedException if interrupted while starting darcs
+     * @throws DarcsCmd.DarcsCmdTimeoutException if darcs exceeded its timeout
      */
-    private boolean pullRepo(final AbstractBuild<?, ?> build, final Launcher launcher, final FilePath workspace,
-            final BuildListener listener, final File changelogFile) throws InterruptedException, IOException {
-        LOGGER.info(String.format("Pulling repo from: %s", source));
-        final int preCnt = countPatches(build, launcher, workspace, listener);
-        LOGGER.info(String.format("Count of patches pre pulling is %d", preCnt));
+    DarcsRevisionState getIncrementalRevisionState(final Launcher launcher, final TaskListener listener,
+            final FilePath workspace, final DarcsRevisionState baseline) throws InterruptedException {
+        if (baseline.getMarker().isEmpty()) {
+            return null;
+        }
+
+        final DarcsCmd cmd = createCmd(launcher, listener, workspace);
+        final PrintStream logger = listener.getLogger();
 
         try {
-            final DarcsCmd cmd = new DarcsCmd(launcher, build.getEnvironment(listener), getDescriptor().getDarcsExe(), workspace.getParent());
-            final FilePath localPath = createLocalPath(workspace);
-            cmd.pull(localPath.getRemote(), source);
-        } catch (Exception e) {
-            listener.error("Failed to pull: " + e.toString());
-            return false;
+            for (int window = DarcsRevisionState.MARKER_SIZE; window <= MAX_POLLING_WINDOW; window *= 2) {
+                final List<DarcsChangeSet> newest = fetchRemoteChanges(cmd, window);
+                final int offset = baseline.findMarker(newest);
+
+                if (0 == offset) {
+                    return baseline;
+                }
+
+                if (offset > 0) {
+                    logger.printf("[poll] Found %d new patches.%n", offset);
+                    return DarcsRevisionState.fromMarker(newest, baseline.getCount() + offset);
+                }
+
+                if (newest.size() < window) {
+                    logger.println("[poll] Last seen patches not in remote repository.");
+                    return DarcsRevisionState.fromChanges(newest);
+                }
+            }
+        } catch (DarcsCmd.DarcsCmdTimeoutException e) {
+            throw e;
+        } catch (DarcsCmd.DarcsCmdException e) {
+            logger.println(String.format("[warning] Failed to poll incrementally for repository: %s", source));
+            return null;
         }
 
-        final int postCnt = countPatches(build, launcher, workspace, listener);
-        LOGGER.info(String.format("Count of patches post pulling is %d", preCnt));
-        createChangeLog(launcher, postCnt - preCnt, workspace, changelogFile, listener);
+        logger.println("[poll] Last seen patches not in newest patches, will compare whole history.");
+        return null;
+    }
 
-        return true;
+    /**
+     * Creates a darcs command object.
+     *
+     * @param launcher if {@code null} a launcher on master is used
+     * @param listener used for the launcher on master
+     * @param workspace working directory
+     * @return new command object
+     */
+    private DarcsCmd createCmd(final Launcher launcher, final TaskListener listener, final FilePath workspace) {
+        if (null == launcher) {
+            /* Create a launcher on master
+             * TODO better grab a launcher on 'any slave'
+             */
+            final Launcher local = new LocalLauncher(listener);
+            return limit(new DarcsCmd(local, EnvVars.masterEnvVars, getDescriptor().getDarcsExe(), workspace), local,
+                    source);
+        }
+
+        return limit(new DarcsCmd(launcher, EnvVars.masterEnvVars, getDescriptor().getDarcsExe(), workspace), launcher,
+                source);
     }
 
     /**
-     * Gets a fresh copy of a remote repository.
+     * Lets the processes of a darcs command wait for a slot of the node and, if limited, of the repository, and sets
+     * the configured timeouts.
      *
-     * @param build
-     * @param launcher
-     * @param workspace
-     * @param listener
-     * @param changelogFile
-     * @return boolean
-     * @throws InterruptedException
+     * @param cmd command to limit
+     * @param launcher launcher of the command, its channel identifies the node
+     * @param from repository the command talks to
+     * @return the given command
      */
-    private boolean getRepo(final AbstractBuild<?, ?> build, final Launcher launcher, final FilePath workspace,
-            final BuildListener listener, final File changeLog) throws InterruptedException {
-        LOGGER.info(String.format("Getting repo from: %s", source));
+    private DarcsCmd limit(final DarcsCmd cmd, final Launcher launcher, final String from) {
+        final DarcsScmDescriptor descriptor = getDescriptor();
 
-        try {
-            final FilePath localPath = createLocalPath(workspace);
-            localPath.deleteRecursive();
-        } catch (IOException e) {
-            e.printStackTrace(listener.error("Failed to clean the workspace"));
-            return false;
+        for (final DarcsProcessQueue queue : DarcsProcessQueue.forProcess(launcher.getChannel(),
+                descriptor.getMaxConcurrentProcesses(), from, descriptor.getSourceProcessLimit(from))) {
+            cmd.queue(queue);
         }
 
+        cmd.timeout(DarcsCmd.Operation.CHANGES, descriptor.getChangesTimeout() * MILLIS)
+                .timeout(DarcsCmd.Operation.PULL, descriptor.getPullTimeout() * MILLIS)
+                .timeout(DarcsCmd.Operation.GET, descriptor.getGetTimeout() * MILLIS);
+        return cmd;
+    }
+
+    @Override
+    public boolean checkout(final AbstractBuild<?, ?> build, final Launcher launcher, final FilePath workspace,
+            final BuildListener listener, final File changelogFile) throws IOException, InterruptedException {
+        final DarcsScmDescriptor descriptor = getDescriptor();
+        final DarcsCheckout checkout = new DarcsCheckout(source, descriptor.getDarcsExe(),
+                build.getEnvironment(listener), listener)
+                .clean(isClean())
+                .get(lazy, Util.fixEmptyAndTrim(tag))
+                .timeout(DarcsCmd.Operation.CHANGES, descriptor.getChangesTimeout() * MILLIS)
+                .timeout(DarcsCmd.Operation.PULL, descriptor.getPullTimeout() * MILLIS)
+                .timeout(DarcsCmd.Operation.GET, descriptor.getGetTimeout() * MILLIS);
+
+        if (null != descriptor.getMirrorCacheRoot()) {
+            checkout.mirror(descriptor.getMirrorCacheRoot(), new DarcsMirror(source, descriptor.getDarcsExe(),
+                    build.getEnvironment(listener), listener, descriptor.getGetTimeout() * MILLIS));
+        }
+
+        // the queues live on the controller, shared with polling, so their slots are held for the whole checkout
+        final List<Semaphore> slots = DarcsProcessQueue.acquireAll(DarcsProcessQueue.forProcess(
+                workspace.getChannel(), descriptor.getMaxConcurrentProcesses(), source,
+                descriptor.getSourceProcessLimit(source)), listener.getLogger());
+        final FilePath localPath = createLocalPath(workspace);
+        final DarcsCheckout.Result result;
+
         try {
-            final DarcsCmd cmd = new DarcsCmd(launcher, build.getEnvironment(listener), getDescriptor().getDarcsExe(), workspace.getParent());
-            final FilePath localPath = createLocalPath(workspace);
-            cmd.get(localPath.getRemote(), source);
-        } catch (Exception e) {
-            e.printStackTrace(listener.error("Failed to get repo from " + source));
+            final OutputStream changeLog = DarcsChangeLogFile.create(changelogFile,
+                    descriptor.isCompressChangeLogs());
+
+            try {
+                // the node writes the change log through the channel, its flow control keeps a fast node from
+                // flooding us
+                result = localPath.act(checkout.changeLog(new RemoteOutputStream(changeLog)));
+                syncIO(localPath);
+            } finally {
+                changeLog.close();
+            }
+        } finally {
+            DarcsProcessQueue.releaseAll(slots);
+        }
+
+        if (!result.isSuccess()) {
             return false;
         }
 
-        return createEmptyChangeLog(changeLog, listener, "changelog");
+        if (!result.isChanged()) {
+            return createEmptyChangeLog(changelogFile, listener, "changelog");
+        }
+
+        return true;
+    }
+
+    /**
+     * Waits until all data the node wrote to remote streams is written locally.
+     *
+     * Writes to remote streams are delivered asynchronously and may arrive after the result of the callable.
+     *
+     * @param path path on the node
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void syncIO(final FilePath path) throws InterruptedException {
+        final VirtualChannel channel = path.getChannel();
+
+        if (channel instanceof Channel) {
+            ((Channel) channel).syncLocalIO();
+        }
     }
 
     @Override
@@ -56,12 +56,118 @@ public class DarcsScmDescriptor extends SCMDescriptor<DarcsScm> {
      * Default name of the Darcs binary.
      */
     private static final String DEFAULT_EXE = "darcs";
+    /**
+     * Default time to live of cached remote patches in seconds.
+     */
+    private static final int DEFAULT_POLLING_CACHE_TTL = 60;
+    /**
+     * Default max number of concurrent darcs processes per node, unlimited.
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_PROCESSES = 0;
+    /**
+     * Default timeout of `darcs changes` in seconds.
+     */
+    private static final int DEFAULT_CHANGES_TIMEOUT = 600;
+    /**
+     * Milliseconds per second.
+     */
+    private static final long MILLIS = 1000L;
     /**
      * The executable.
      *
      * May be null.
      */
     private String darcsExe;
+    /**
+     * Whether polling only asks for the patches newer than the last seen ones.
+     *
+     * May be null.
+     */
+    private Boolean incrementalPolling;
+    /**
+     * Whether polling of HTTP sources first checks the inventory file of the repository.
+     *
+     * May be null.
+     */
+    private Boolean inventoryPolling;
+    /**
+     * Whether polling stops reading the remote patches at the first one not in the baseline.
+     *
+     * May be null.
+     */
+    private Boolean streamingComparison;
+    /**
+     * Whether the change logs of builds are stored gzip compressed.
+     *
+     * May be null.
+     */
+    private Boolean compressChangeLogs;
+    /**
+     * Time to live of cached remote patches in seconds.
+     *
+     * May be null.
+     */
+    private Integer pollingCacheTtl;
+    /**
+     * Directory on each node which holds the mirrors of the source repositories.
+     *
+     * May be null.
+     */
+    private String mirrorCacheRoot;
+    /**
+     * Max number of concurrent darcs processes per node, zero for unlimited.
+     *
+     * May be null.
+     */
+    private Integer maxConcurrentProcesses;
+    /**
+     * Max number of concurrent darcs processes per source repository, one {@code URL limit} pair per line.
+     *
+     * May be null.
+     */
+    private String sourceProcessLimits;
+    /**
+     * Timeout of `darcs changes` in seconds, zero for none.
+     *
+     * May be null.
+     */
+    private Integer changesTimeout;
+    /**
+     * Timeout of `darcs pull` in seconds, zero for none.
+     *
+     * May be null.
+     */
+    private Integer pullTimeout;
+    /**
+     * Timeout of `darcs get` in seconds, zero for none.
+     *
+     * May be null.
+     */
+    private Integer getTimeout;
+    /**
+     * Max number of cached authors of change sets, zero disables the cache.
+     *
+     * May be null.
+     */
+    private Integer authorCacheSize;
+    /**
+     * User IDs of darcs authors, one {@code author userId} pair per line.
+     *
+     * May be null.
+     */
+    private String authorMappings;
+    /**
+     * Name of the {@link DarcsXmlBackend} which parses change logs.
+     *
+     * May be null.
+     */
+    private String xmlBackend;
+    /**
+     * Shares the remote patches between all jobs.
+     *
+     * Lazy created.
+     */
+    private transient DarcsPollingCache pollingCache;
 
     /**
      * Dedicated constructor.
@@ -112,6 +218,9 @@ public class DarcsScmDescriptor extends SCMDescriptor<DarcsScm> {
                 LOGGER.log(WARNING, "Failed to overwrite the repositoryBrowser field", e);
             }
         }
+
+        DarcsAuthorResolver.getInstance().configure(getAuthorCacheSize(), authorMappings);
+        DarcsChangeLogParser.setDefaultBackend(DarcsXmlBackend.forName(getXmlBackend()));
     }
 
     /**
@@ -134,6 +243,207 @@ public class DarcsScmDescriptor extends SCMDescriptor<DarcsScm> {
                 : darcsExe;
     }
 
+    /**
+     * Whether polling only asks for the patches newer than the last seen ones.
+     *
+     * @return if {@link #incrementalPolling} is {@code null} {@code false} will be returned
+     */
+    public boolean isIncrementalPolling() {
+        return null != incrementalPolling && incrementalPolling;
+    }
+
+    /**
+     * Whether polling of HTTP sources first checks the inventory file of the repository.
+     *
+     * @return if {@link #inventoryPolling} is {@code null} {@code false} will be returned
+     */
+    public boolean isInventoryPolling() {
+        return null != inventoryPolling && inventoryPolling;
+    }
+
+    /**
+     * Whether polling stops reading the remote patches at the first one not in the baseline.
+     *
+     * @return if {@link #streamingComparison} is {@code null} {@code false} will be returned
+     */
+    public boolean isStreamingComparison() {
+        return null != streamingComparison && streamingComparison;
+    }
+
+    /**
+     * Whether the change logs of builds are stored gzip compressed.
+     *
+     * @return if {@link #compressChangeLogs} is {@code null} {@code false} will be returned
+     */
+    public boolean isCompressChangeLogs() {
+        return null != compressChangeLogs && compressChangeLogs;
+    }
+
+    /**
+     * Returns the time to live of cached remote patches.
+     *
+     * @return seconds, if {@link #pollingCacheTtl} is {@code null} {@link #DEFAULT_POLLING_CACHE_TTL} will be
+     *         returned
+     */
+    public int getPollingCacheTtl() {
+        return null == pollingCacheTtl
+                ? DEFAULT_POLLING_CACHE_TTL
+                : pollingCacheTtl;
+    }
+
+    /**
+     * Returns the directory on each node which holds the mirrors of the source repositories.
+     *
+     * @return {@code null} if mirrors are not used
+     */
+    public String getMirrorCacheRoot() {
+        return mirrorCacheRoot;
+    }
+
+    /**
+     * Returns the max number of concurrent darcs processes per node.
+     *
+     * @return zero for unlimited, if {@link #maxConcurrentProcesses} is {@code null}
+     *         {@link #DEFAULT_MAX_CONCURRENT_PROCESSES} will be returned
+     */
+    public int getMaxConcurrentProcesses() {
+        return null == maxConcurrentProcesses
+                ? DEFAULT_MAX_CONCURRENT_PROCESSES
+                : maxConcurrentProcesses;
+    }
+
+    /**
+     * Returns the limits of concurrent darcs processes per source repository.
+     *
+     * @return one {@code URL limit} pair per line, {@code null} if no source is limited
+     */
+    public String getSourceProcessLimits() {
+        return sourceProcessLimits;
+    }
+
+    /**
+     * Returns the max number of concurrent darcs processes for a source repository.
+     *
+     * Lines which are not a {@code URL limit} pair are ignored.
+     *
+     * @param source URL of the source repository
+     * @return zero if the source is not limited
+     */
+    public int getSourceProcessLimit(final String source) {
+        if (null == sourceProcessLimits || null == source) {
+            return 0;
+        }
+
+        for (final String line : sourceProcessLimits.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            final int separator = Math.max(trimmed.lastIndexOf(' '), trimmed.lastIndexOf('\t'));
+
+            if (separator > 0 && source.equals(trimmed.substring(0, separator).trim())) {
+                final Integer limit = parseInteger(trimmed.substring(separator + 1), 1);
+                return null == limit ? 0 : limit;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the timeout of `darcs changes`, which is used for polling.
+     *
+     * @return seconds, zero for none, if {@link #changesTimeout} is {@code null} {@link #DEFAULT_CHANGES_TIMEOUT} will
+     *         be returned
+     */
+    public int getChangesTimeout() {
+        return null == changesTimeout
+                ? DEFAULT_CHANGES_TIMEOUT
+                : changesTimeout;
+    }
+
+    /**
+     * Returns the timeout of `darcs pull`.
+     *
+     * @return seconds, zero for none
+     */
+    public int getPullTimeout() {
+        return null == pullTimeout
+                ? 0
+                : pullTimeout;
+    }
+
+    /**
+     * Returns the timeout of `darcs get`.
+     *
+     * @return seconds, zero for none
+     */
+    public int getGetTimeout() {
+        return null == getTimeout
+                ? 0
+                : getTimeout;
+    }
+
+    /**
+     * Returns the max number of cached authors of change sets.
+     *
+     * @return zero if the cache is disabled, if {@link #authorCacheSize} is {@code null}
+     *         {@link DarcsAuthorResolver#DEFAULT_CAPACITY} will be returned
+     */
+    public int getAuthorCacheSize() {
+        return null == authorCacheSize
+                ? DarcsAuthorResolver.DEFAULT_CAPACITY
+                : authorCacheSize;
+    }
+
+    /**
+     * Returns the user IDs of darcs authors.
+     *
+     * @return one {@code author userId} pair per line, {@code null} if no author is mapped
+     */
+    public String getAuthorMappings() {
+        return authorMappings;
+    }
+
+    /**
+     * Returns the number of author lookups served from the cache.
+     *
+     * @return count since start
+     */
+    public long getAuthorCacheHits() {
+        return DarcsAuthorResolver.getInstance().getHits();
+    }
+
+    /**
+     * Returns the number of author lookups which had to resolve the user.
+     *
+     * @return count since start
+     */
+    public long getAuthorCacheMisses() {
+        return DarcsAuthorResolver.getInstance().getMisses();
+    }
+
+    /**
+     * Returns the name of the XML parser backend.
+     *
+     * @return if {@link #xmlBackend} is {@code null} the name of {@link DarcsXmlBackend#SAX} will be returned
+     */
+    public String getXmlBackend() {
+        return null == xmlBackend
+                ? DarcsXmlBackend.SAX.name()
+                : xmlBackend;
+    }
+
+    /**
+     * Returns the controller wide cache of remote patches.
+     *
+     * @return never {@code null}
+     */
+    synchronized DarcsPollingCache getPollingCache() {
+        if (null == pollingCache) {
+            pollingCache = new DarcsPollingCache(getPollingCacheTtl() * MILLIS);
+        }
+
+        return pollingCache;
+    }
+
     @Override
     public SCM newInstance(StaplerRequest req, JSONObject formData) throws FormException {
         return super.newInstance(req, formData);
@@ -141,12 +451,92 @@ public class DarcsScmDescriptor extends SCMDescriptor<DarcsScm> {
 
     @Override
     public boolean configure(final StaplerRequest req, final JSONObject formData) throws FormException {
-        darcsExe = Util.fixEmpty(req.getParameter("darcs.darcsExe").trim());
+        darcsExe = Util.fixEmptyAndTrim(req.getParameter("darcs.darcsExe"));
+        incrementalPolling = null != req.getParameter("darcs.incrementalPolling");
+        inventoryPolling = null != req.getParameter("darcs.inventoryPolling");
+        streamingComparison = null != req.getParameter("darcs.streamingComparison");
+        compressChangeLogs = null != req.getParameter("darcs.compressChangeLogs");
+        pollingCacheTtl = parseInteger(req.getParameter("darcs.pollingCacheTtl"), 0);
+        mirrorCacheRoot = Util.fixEmptyAndTrim(req.getParameter("darcs.mirrorCacheRoot"));
+        maxConcurrentProcesses = parseInteger(req.getParameter("darcs.maxConcurrentProcesses"), 0);
+        sourceProcessLimits = Util.fixEmptyAndTrim(req.getParameter("darcs.sourceProcessLimits"));
+        changesTimeout = parseInteger(req.getParameter("darcs.changesTimeout"), 0);
+        pullTimeout = parseInteger(req.getParameter("darcs.pullTimeout"), 0);
+        getTimeout = parseInteger(req.getParameter("darcs.getTimeout"), 0);
+        authorCacheSize = parseInteger(req.getParameter("darcs.authorCacheSize"), 0);
+        authorMappings = Util.fixEmptyAndTrim(req.getParameter("darcs.authorMappings"));
+        final DarcsXmlBackend backend = DarcsXmlBackend.forName(req.getParameter("darcs.xmlBackend"));
+        xmlBackend = null == backend ? null : backend.name();
+        getPollingCache().configure(getPollingCacheTtl() * MILLIS);
+        DarcsAuthorResolver.getInstance().configure(getAuthorCacheSize(), authorMappings);
+        DarcsChangeLogParser.setDefaultBackend(DarcsXmlBackend.forName(getXmlBackend()));
         save();
 
         return true;
     }
 
+    /**
+     * Parses an integer form value.
+     *
+     * @param value form value, may be {@code null}
+     * @param min minimal allowed value
+     * @return {@code null} if the value is not a valid integer or less than min
+     */
+    private static Integer parseInteger(final String value, final int min) {
+        final String trimmed = Util.fixEmptyAndTrim(value);
+
+        if (null == trimmed) {
+            return null;
+        }
+
+        try {
+            final int parsed = Integer.parseInt(trimmed);
+            return parsed < min ? null : parsed;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Validates the given TTL of cached remote patches.
+     *
+     * @param value string from the plugin configuration field
+     * @return validation object which indicates validation state
+     */
+    public FormValidation doPollingCacheTtlCheck(@QueryParameter final String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Validates the given max number of concurrent darcs processes per node.
+     *
+     * @param value string from the plugin configuration field
+     * @return validation object which indicates validation state
+     */
+    public FormValidation doMaxConcurrentProcessesCheck(@QueryParameter final String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Validates the given max number of cached authors.
+     *
+     * @param value string from the plugin configuration field
+     * @return validation object which indicates validation state
+     */
+    public FormValidation doAuthorCacheSizeCheck(@QueryParameter final String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * Validates a given timeout.
+     *
+     * @param value string from the plugin configuration field
+     * @return validation object which indicates validation state
+     */
+    public FormValidation doTimeoutCheck(@QueryParameter final String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
     /**
      * Validated the given executable string if it is a valid Darcs executable.
      *
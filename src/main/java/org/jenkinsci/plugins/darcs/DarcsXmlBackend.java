@@ -0,0 +1,177 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * XML parsers which parse the change sets of a sanitized change log.
+ *
+ * Creating a parser looks up the implementation via service loading each time, which costs more than parsing the
+ * change log of a poll which found a few patches. So each thread creates its parser once, with the secure processing
+ * features set, and reuses it for all parses.
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+enum DarcsXmlBackend {
+
+    /**
+     * Pushes SAX events to the {@link DarcsSaxHandler}.
+     */
+    SAX {
+        /**
+         * One reader per thread, readers are not thread safe.
+         */
+        private final ThreadLocal<XMLReader> readers = new ThreadLocal<XMLReader>();
+
+        @Override
+        List<DarcsChangeSet> parse(final InputSource changeLog) throws IOException, SAXException {
+            XMLReader reader = readers.get();
+
+            if (null == reader) {
+                reader = createReader();
+                readers.set(reader);
+            }
+
+            final DarcsSaxHandler handler = new DarcsSaxHandler();
+            reader.setContentHandler(handler);
+            reader.setErrorHandler(handler);
+            boolean reusable = false;
+
+            try {
+                reader.parse(changeLog);
+                reusable = true;
+            } finally {
+                // don't keep the change sets reachable from the pooled reader
+                reader.setContentHandler(NO_HANDLER);
+                reader.setErrorHandler(NO_HANDLER);
+
+                if (!reusable) {
+                    readers.remove();
+                }
+            }
+
+            return handler.getChangeSets();
+        }
+    },
+    /**
+     * Pulls the change sets from a {@link DarcsChangeSetReader}.
+     */
+    STAX {
+        @Override
+        List<DarcsChangeSet> parse(final InputSource changeLog) throws IOException, SAXException {
+            final DarcsChangeSetReader reader = new DarcsChangeSetReader(null == changeLog.getCharacterStream()
+                    ? new InputStreamReader(changeLog.getByteStream(), "UTF-8")
+                    : changeLog.getCharacterStream());
+
+            try {
+                return reader.readAll();
+            } finally {
+                reader.close();
+            }
+        }
+    };
+
+    /**
+     * Handler set on pooled readers while they are not in use.
+     */
+    private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+    /**
+     * Lets all SAX readers share one factory.
+     */
+    private static final SAXParserFactory SAX_FACTORY = createSaxFactory();
+
+    /**
+     * Parses the change sets of a sanitized change log.
+     *
+     * @param changeLog sanitized XML
+     * @return list of change sets in document order
+     * @throws IOException on read errors
+     * @throws SAXException on parse errors
+     */
+    abstract List<DarcsChangeSet> parse(InputSource changeLog) throws IOException, SAXException;
+
+    /**
+     * Returns the backend of a name.
+     *
+     * @param name name of the backend, case insensitive, may be {@code null}
+     * @return {@code null} if there is no backend with that name
+     */
+    static DarcsXmlBackend forName(final String name) {
+        if (null == name) {
+            return null;
+        }
+
+        for (final DarcsXmlBackend backend : values()) {
+            if (backend.name().equalsIgnoreCase(name.trim())) {
+                return backend;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates the shared SAX parser factory with the secure processing features set.
+     *
+     * @return never {@code null}
+     */
+    private static SAXParserFactory createSaxFactory() {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        // darcs output has no DTD, so never resolve external entities
+        setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+        return factory;
+    }
+
+    /**
+     * Sets a feature of the SAX parser factory if the implementation knows it.
+     *
+     * @param factory factory to configure
+     * @param name name of the feature
+     * @param value value of the feature
+     */
+    private static void setFeature(final SAXParserFactory factory, final String name, final boolean value) {
+        try {
+            factory.setFeature(name, value);
+        } catch (ParserConfigurationException ex) {
+            // unknown to the implementation, the defaults are used
+        } catch (SAXException ex) {
+            // unknown to the implementation, the defaults are used
+        }
+    }
+
+    /**
+     * Creates a SAX reader from the shared factory.
+     *
+     * @return never {@code null}
+     * @throws SAXException if no reader can be created
+     */
+    private static XMLReader createReader() throws SAXException {
+        synchronized (SAX_FACTORY) {
+            try {
+                return SAX_FACTORY.newSAXParser().getXMLReader();
+            } catch (ParserConfigurationException ex) {
+                throw new SAXException(ex);
+            }
+        }
+    }
+}
@@ -9,10 +9,12 @@
  */
 package org.jenkinsci.plugins.darcs;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
@@ -21,7 +23,13 @@ import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Darcs XML Sanitizer.
@@ -56,6 +64,59 @@ class DarcsXmlSanitizer {
     private static final int HORIZONTAL_TAB_CHAR = 0x09;
     private static final int NEW_LINE_CHAR = 0x0A;
     private static final int CARRIAGE_RETURN_CHAR = 0x0D;
+    /**
+     * Size of the chunks read from the input.
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * Inputs smaller than this are sanitized sequentially.
+     */
+    static final int PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+    /**
+     * Minimal size of the chunks sanitized in parallel.
+     */
+    static final int PARALLEL_CHUNK_SIZE = 2 * 1024 * 1024;
+    /**
+     * Used to mask bytes.
+     */
+    private static final int BYTE_MASK = 0xFF;
+    /**
+     * Opening name tag.
+     */
+    private static final byte[] NAME_START = ascii("<name>");
+    /**
+     * Closing name tag.
+     */
+    private static final byte[] NAME_END = ascii("</name>");
+    /**
+     * Opening comment tag.
+     */
+    private static final byte[] COMMENT_START = ascii("<comment>");
+    /**
+     * Closing comment tag.
+     */
+    private static final byte[] COMMENT_END = ascii("</comment>");
+    /**
+     * Index of {@link #NAME_START} in the {@link #DELIMITERS}.
+     */
+    private static final int NAME_START_ID = 0;
+    /**
+     * Index of {@link #NAME_END} in the {@link #DELIMITERS}.
+     */
+    private static final int NAME_END_ID = 1;
+    /**
+     * Index of {@link #COMMENT_START} in the {@link #DELIMITERS}.
+     */
+    private static final int COMMENT_START_ID = 2;
+    /**
+     * Index of {@link #COMMENT_END} in the {@link #DELIMITERS}.
+     */
+    private static final int COMMENT_END_ID = 3;
+    /**
+     * Recognizes all delimiters in one pass.
+     */
+    private static final DelimiterAutomaton DELIMITERS =
+            new DelimiterAutomaton(NAME_START, NAME_END, COMMENT_START, COMMENT_END);
     private final List<CharsetDecoder> decoders = new ArrayList<CharsetDecoder>();
 
     /**
@@ -95,220 +156,754 @@ class DarcsXmlSanitizer {
     }
 
     /**
-     * Knuth-Morris-Pratt pattern matching algorithm.
+     * Cleanse the mixed encoding in the input byte array.
      *
-     * @param data
-     * @param start
-     * @param pattern
+     * @param input
      * @return
      */
-    private static int positionBeforeNext(final byte[] data, final int start, final byte[] pattern) {
-        final int[] failure = computeFailure(pattern);
-        int j = 0;
-
-        if (0 == data.length || start >= data.length) {
-            return -1;
+    public String cleanse(final byte[] input) {
+        try {
+            return drain(cleanse(new ByteArrayInputStream(input)));
+        } catch (IOException ex) {
+            // reading from a byte array never fails
+            throw new IllegalStateException(ex);
         }
+    }
 
-        for (int i = start; i < data.length; i++) {
-            while (j > 0 && pattern[j] != data[i]) {
-                j = failure[j - 1];
-            }
-            if (pattern[j] == data[i]) {
-                j++;
-            }
-            if (j == pattern.length) {
-                return i - pattern.length + 1;
-            }
+    /**
+     * Cleanse the mixed encoding of a stream incrementally.
+     *
+     * The returned reader pulls the bytes from the passed in stream on demand and decodes them segment by segment.
+     * Only the current segment (the bytes between two name or comment delimiters) is held in memory, so the memory
+     * used does not depend on the length of the whole change log. The passed in stream is closed if the returned
+     * reader is closed.
+     *
+     * @param input stream to read the raw XML from
+     * @return reader which delivers the sanitized characters
+     */
+    public Reader cleanse(final InputStream input) {
+        return new SanitizingReader(input);
+    }
+
+    /**
+     * Cleanse the mixed encoding of a large input in parallel.
+     *
+     * The input is split into chunks which are sanitized concurrently by the executor, each with its own sanitizer.
+     * The returned reader delivers the chunks in order, so parsing the first chunks overlaps with sanitizing the later
+     * ones. At most one chunk per processor is sanitized or waits to be read at a time, the next one is submitted when
+     * one is read, so the sanitized characters held in memory do not grow with the input. The output is identical to
+     * {@link #cleanse(java.io.InputStream)}, because the input is only split right before a closing name or comment
+     * tag, where the sequential sanitizer ends a segment as well. Inputs smaller than {@link #PARALLEL_THRESHOLD} are
+     * sanitized sequentially.
+     *
+     * @param input raw XML, e.g. a mapped file, not modified
+     * @param executor runs the sanitizing of the chunks
+     * @return reader which delivers the sanitized characters
+     */
+    public Reader cleanse(final ByteBuffer input, final ExecutorService executor) {
+        return cleanse(input, executor, PARALLEL_THRESHOLD, PARALLEL_CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @see #cleanse(java.nio.ByteBuffer, java.util.concurrent.ExecutorService)
+     *
+     * @param input raw XML, not modified
+     * @param executor runs the sanitizing of the chunks
+     * @param threshold inputs smaller than this are sanitized sequentially
+     * @param chunkSize minimal size of a chunk
+     * @param maxInFlight max count of chunks submitted but not read yet, at least 1
+     * @return reader which delivers the sanitized characters
+     */
+    Reader cleanse(final ByteBuffer input, final ExecutorService executor, final int threshold,
+            final int chunkSize, final int maxInFlight) {
+        if (input.remaining() < threshold) {
+            return cleanse(new ByteBufferInputStream(input.duplicate()));
         }
 
-        return -1;
+        final List<Integer> ends = splitPoints(input, chunkSize);
+        ends.add(input.limit());
+        return new ChunkReader(input, ends, executor, Math.max(1, maxInFlight));
     }
 
     /**
+     * Returns a view of a range of the input.
      *
-     * @param data
-     * @param start
-     * @param pattern
-     * @return
+     * @param input whole input
+     * @param start first byte, inclusive
+     * @param end last byte, exclusive
+     * @return independent view
+     */
+    private static ByteBuffer slice(final ByteBuffer input, final int start, final int end) {
+        final ByteBuffer slice = input.duplicate();
+        slice.limit(end);
+        slice.position(start);
+        return slice;
+    }
+
+    /**
+     * Finds the positions where the input may be split w/o changing the output.
+     *
+     * Tracks the delimiters exactly like the sequential sanitizer does, but w/o decoding, and returns positions of
+     * closing name or comment tags which are at least the chunk size apart.
+     *
+     * @param input whole input
+     * @param chunkSize minimal distance between split points
+     * @return ascending positions in the input
      */
-    private static int positionAfterNext(final byte[] data, final int start, final byte[] pattern) {
-        int pos = positionBeforeNext(data, start, pattern);
+    static List<Integer> splitPoints(final ByteBuffer input, final int chunkSize) {
+        final List<Integer> points = new ArrayList<Integer>();
+        int last = input.position();
+        int delimiterState = DelimiterAutomaton.INITIAL;
+        State state = State.OUTSIDE;
+
+        for (int i = input.position(); i < input.limit(); i++) {
+            delimiterState = DELIMITERS.next(delimiterState, input.get(i));
+            final int match = DELIMITERS.match(delimiterState);
+            int closeLength = 0;
 
-        if (-1 != pos) {
-            pos += pattern.length;
+            if (State.OUTSIDE == state) {
+                if (NAME_START_ID == match || COMMENT_START_ID == match) {
+                    state = NAME_START_ID == match ? State.IN_NAME : State.IN_COMMENT;
+                    delimiterState = DelimiterAutomaton.INITIAL;
+                }
+            } else if (State.IN_NAME == state && NAME_END_ID == match) {
+                closeLength = NAME_END.length;
+            } else if (State.IN_COMMENT == state && COMMENT_END_ID == match) {
+                closeLength = COMMENT_END.length;
+            }
+
+            if (closeLength > 0) {
+                state = State.OUTSIDE;
+                delimiterState = DelimiterAutomaton.INITIAL;
+                final int point = i + 1 - closeLength;
+
+                if (point - last >= chunkSize) {
+                    points.add(point);
+                    last = point;
+                }
+            }
+        }
+
+        return points;
+    }
+
+    String replaceInvalidChars(final String s) {
+        final StringBuilder res = new StringBuilder(s.length());
+
+        for(int i = 0; i < s.length(); i++) {
+            res.append(replaceInvalidChar(s.charAt(i)));
         }
 
-        return pos;
+        return res.toString();
+    }
+
+    char replaceInvalidChar(final char c) {
+        return (c >= LAST_ASCII_CONTROL_CHAR || c == HORIZONTAL_TAB_CHAR || c == NEW_LINE_CHAR || c == CARRIAGE_RETURN_CHAR)
+            ? c
+            : REPLACEMENT_CHAR;
     }
 
     /**
-     * Computes the failure function using a bootstrapping process, where the pattern is matched against itself.
+     * Sanitizes a change log file, which may be gzip compressed.
      *
-     * @param pattern
-     * @return
+     * @see #cleanse(byte[])
+     * @param file change log file
+     * @return sanitized XML
+     * @throws IOException on read errors
      */
-    private static int[] computeFailure(final byte[] pattern) {
-        final int[] failure = new int[pattern.length];
-        int j = 0;
+    public String cleanse(final File file) throws IOException {
+        return drain(cleanse(DarcsChangeLogFile.open(file)));
+    }
 
-        for (int i = 1; i < pattern.length; i++) {
-            while (j > 0 && pattern[j] != pattern[i]) {
-                j = failure[j - 1];
-            }
+    /**
+     * Reads all characters from the reader and closes it.
+     *
+     * @param reader reader to drain
+     * @return all read characters
+     * @throws IOException on read errors
+     */
+    private static String drain(final Reader reader) throws IOException {
+        final StringBuilder res = new StringBuilder();
+        final char[] buffer = new char[BUFFER_SIZE];
 
-            if (pattern[j] == pattern[i]) {
-                j++;
+        try {
+            int numRead;
+
+            while ((numRead = reader.read(buffer)) != -1) {
+                res.append(buffer, 0, numRead);
             }
+        } finally {
+            reader.close();
+        }
 
-            failure[i] = j;
+        return res.toString();
+    }
+
+    /**
+     * Converts a pure ASCII string into its bytes.
+     *
+     * @param s ASCII string
+     * @return byte representation
+     */
+    private static byte[] ascii(final String s) {
+        final byte[] bytes = new byte[s.length()];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
         }
 
-        return failure;
+        return bytes;
     }
 
     /**
-     * Cleanse the mixed encoding in the input byte array.
+     * Aho-Corasick automaton which recognizes several delimiters in one pass over the bytes.
      *
-     * @param input
-     * @return
+     * The transitions are precomputed for all states and bytes, so feeding a byte is a single table lookup. None of the
+     * delimiters may be a suffix of an other one, because each state reports at most one match.
      */
-    public String cleanse(final byte[] input) {
-        final CharBuffer cb = CharBuffer.allocate(input.length);
-        CoderResult result;
-        State state = State.OUTSIDE;
-        int currentPosition = 0;
-        int nextPosition = 0;
-        int nextName;
-        int nextComment;
+    private static final class DelimiterAutomaton {
+
+        /**
+         * Count of possible byte values.
+         */
+        private static final int ALPHABET = 256;
+        /**
+         * Used to mask bytes.
+         */
+        private static final int BYTE_MASK = 0xFF;
+        /**
+         * Bits to shift a state to its row in {@link #transitions}.
+         */
+        private static final int ROW_SHIFT = 8;
+        /**
+         * The initial state.
+         */
+        static final int INITIAL = 0;
+        /**
+         * Reported if no delimiter ends at a state.
+         */
+        static final int NO_MATCH = -1;
+
+        /**
+         * Next state by state and byte: {@code transitions[state << 8 | b]}.
+         */
+        private final int[] transitions;
+        /**
+         * Index of the delimiter which ends at a state or {@link #NO_MATCH}.
+         */
+        private final int[] matches;
+
+        /**
+         * Builds the automaton.
+         *
+         * @param delimiters byte sequences to recognize, their index is reported on match
+         */
+        DelimiterAutomaton(final byte[]... delimiters) {
+            super();
+            int maxStates = 1;
+
+            for (final byte[] delimiter : delimiters) {
+                maxStates += delimiter.length;
+            }
 
-        while (currentPosition < input.length) {
-            switch (state) {
-                case OUTSIDE:
-                    nextName = positionAfterNext(input, currentPosition, "<name>".getBytes());
-                    nextComment = positionAfterNext(input, currentPosition, "<comment>".getBytes());
+            final int[] goTo = new int[maxStates * ALPHABET];
+            final int[] match = new int[maxStates];
+            Arrays.fill(goTo, NO_MATCH);
+            Arrays.fill(match, NO_MATCH);
+            int states = 1;
 
-                    if (-1 != nextName && nextName < nextComment) {
-                        nextPosition = nextName;
-                        state = State.IN_NAME;
-                    } else {
-                        nextPosition = nextComment;
-                        state = State.IN_COMMENT;
-                    }
+            // build the trie of all delimiters
+            for (int id = 0; id < delimiters.length; id++) {
+                int state = INITIAL;
 
-                    if (-1 == nextPosition) {
-                        nextPosition = input.length;
-                        state = State.OUTSIDE;
-                    }
-                    break;
-                case IN_NAME:
-                    nextPosition = positionBeforeNext(input, nextPosition, "</name>".getBytes());
+                for (final byte b : delimiters[id]) {
+                    final int index = state << ROW_SHIFT | (b & BYTE_MASK);
 
-                    if (-1 != nextPosition) {
-                        state = State.OUTSIDE;
+                    if (NO_MATCH == goTo[index]) {
+                        goTo[index] = states++;
                     }
 
-                    break;
-                case IN_COMMENT:
-                    nextPosition = positionBeforeNext(input, nextPosition, "</comment>".getBytes());
+                    state = goTo[index];
+                }
 
-                    if (-1 != nextPosition) {
-                        state = State.OUTSIDE;
-                    }
+                match[state] = id;
+            }
 
-                    break;
-                default:
-                    throw new IllegalStateException(String.format("Illegal state %s!", state));
+            // complete the transitions breadth first along the failure links
+            final int[] failure = new int[states];
+            final int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+
+            for (int b = 0; b < ALPHABET; b++) {
+                if (NO_MATCH == goTo[b]) {
+                    goTo[b] = INITIAL;
+                } else {
+                    failure[goTo[b]] = INITIAL;
+                    queue[tail++] = goTo[b];
+                }
             }
 
-            final ByteBuffer in = ByteBuffer.wrap(input, currentPosition, nextPosition - currentPosition);
-            in.mark();
-            cb.mark();
+            while (head < tail) {
+                final int state = queue[head++];
 
-            for (final CharsetDecoder dec : decoders) {
-                dec.reset();
-                result = dec.decode(in, cb, true);
+                if (NO_MATCH == match[state]) {
+                    match[state] = match[failure[state]];
+                }
 
-                if (result.isError()) {
-                    in.reset();
-                    cb.reset();
-                    continue;
-                } else {
-                    dec.flush(cb);
-                    break;
+                for (int b = 0; b < ALPHABET; b++) {
+                    final int index = state << ROW_SHIFT | b;
+                    final int fallback = goTo[failure[state] << ROW_SHIFT | b];
+
+                    if (NO_MATCH == goTo[index]) {
+                        goTo[index] = fallback;
+                    } else {
+                        failure[goTo[index]] = fallback;
+                        queue[tail++] = goTo[index];
+                    }
                 }
             }
-            currentPosition += nextPosition - currentPosition;
+
+            transitions = new int[states * ALPHABET];
+            System.arraycopy(goTo, 0, transitions, 0, transitions.length);
+            matches = new int[states];
+            System.arraycopy(match, 0, matches, 0, states);
         }
 
-        cb.flip();
-        return replaceInvalidChars(cb.toString());
+        /**
+         * Feeds the next byte.
+         *
+         * @param state current state
+         * @param b next byte of the data
+         * @return next state
+         */
+        int next(final int state, final byte b) {
+            return transitions[state << ROW_SHIFT | (b & BYTE_MASK)];
+        }
+
+        /**
+         * Returns the delimiter which ends at the given state.
+         *
+         * @param state state returned by {@link #next(int, byte)}
+         * @return index of the delimiter or {@link #NO_MATCH}
+         */
+        int match(final int state) {
+            return matches[state];
+        }
     }
 
-    String replaceInvalidChars(final String s) {
-        final StringBuilder res = new StringBuilder(s.length());
+    /**
+     * Input stream over the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * Buffer to read from, its position is advanced.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param buffer buffer to read from, its position is advanced
+         */
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            super();
+            this.buffer = buffer;
+        }
 
-        for(int i = 0; i < s.length(); i++) {
-            res.append(replaceInvalidChar(s.charAt(i)));
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & BYTE_MASK : -1;
         }
 
-        return res.toString();
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
     }
 
-    char replaceInvalidChar(final char c) {
-        return (c >= LAST_ASCII_CONTROL_CHAR || c == HORIZONTAL_TAB_CHAR || c == NEW_LINE_CHAR || c == CARRIAGE_RETURN_CHAR)
-            ? c
-            : REPLACEMENT_CHAR;
+    /**
+     * Sanitizes one chunk of a large input.
+     */
+    private static final class ChunkSanitizer implements Callable<String> {
+
+        /**
+         * The chunk.
+         */
+        private final ByteBuffer chunk;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param chunk view of the chunk
+         */
+        ChunkSanitizer(final ByteBuffer chunk) {
+            super();
+            this.chunk = chunk;
+        }
+
+        /**
+         * Sanitizes the chunk with its own sanitizer, because the decoders are not thread safe.
+         *
+         * @return sanitized characters
+         * @throws IOException never, the chunk is in memory
+         */
+        public String call() throws IOException {
+            return drain(new DarcsXmlSanitizer().cleanse(new ByteBufferInputStream(chunk)));
+        }
     }
 
     /**
-     * @see #cleanse(byte[])
-     * @param file
-     * @return
-     * @throws IOException
+     * Delivers the sanitized chunks in order as soon as they are done and submits the next ones as they are read.
      */
-    public String cleanse(final File file) throws IOException {
-        return cleanse(readFile(file));
+    private static final class ChunkReader extends Reader {
+
+        /**
+         * Whole input.
+         */
+        private final ByteBuffer input;
+        /**
+         * Ends of the chunks not submitted yet.
+         */
+        private final Iterator<Integer> ends;
+        /**
+         * Runs the sanitizing of the chunks.
+         */
+        private final ExecutorService executor;
+        /**
+         * Submitted chunks in order, read ones are removed.
+         */
+        private final LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+        /**
+         * Start of the next chunk to submit.
+         */
+        private int start;
+        /**
+         * Current chunk.
+         */
+        private String current = "";
+        /**
+         * Position in the current chunk.
+         */
+        private int position;
+        /**
+         * Whether the reader is closed, then no more chunks are submitted.
+         */
+        private boolean closed;
+
+        /**
+         * Dedicated constructor which submits the first chunks.
+         *
+         * @param input whole input
+         * @param ends ascending ends of the chunks, the last is the end of the input
+         * @param executor runs the sanitizing of the chunks
+         * @param maxInFlight max count of chunks submitted but not read yet
+         */
+        ChunkReader(final ByteBuffer input, final List<Integer> ends, final ExecutorService executor,
+                final int maxInFlight) {
+            super();
+            this.input = input;
+            this.ends = ends.iterator();
+            this.executor = executor;
+            this.start = input.position();
+
+            for (int i = 0; i < maxInFlight; i++) {
+                submitNext();
+            }
+        }
+
+        /**
+         * Submits the next chunk, if any.
+         */
+        private void submitNext() {
+            if (closed || !ends.hasNext()) {
+                return;
+            }
+
+            final int end = ends.next();
+            pending.add(executor.submit(new ChunkSanitizer(slice(input, start, end))));
+            start = end;
+        }
+
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            while (position == current.length()) {
+                if (pending.isEmpty()) {
+                    return -1;
+                }
+
+                // the chunk is released as soon as it is consumed
+                current = await(pending.removeFirst());
+                position = 0;
+                submitNext();
+            }
+
+            final int count = Math.min(len, current.length() - position);
+            current.getChars(position, position + count, cbuf, off);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Waits for a chunk.
+         *
+         * @param chunk future of the chunk
+         * @return sanitized characters
+         * @throws IOException if interrupted or sanitizing failed
+         */
+        private static String await(final Future<String> chunk) throws IOException {
+            try {
+                return chunk.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sanitizing!");
+            } catch (ExecutionException ex) {
+                final IOException ioe = new IOException("Can't sanitize chunk: " + ex.getCause());
+                ioe.initCause(ex.getCause());
+                throw ioe;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+
+            for (final Future<String> chunk : pending) {
+                chunk.cancel(true);
+            }
+
+            pending.clear();
+            current = "";
+            position = 0;
+        }
     }
 
-    private byte[] readFile(final File file) throws IOException {
-        // Taken from www.exampledepot.com
-        // Get the size of the file
-        final long length = file.length();
-
-        // You cannot create an array using a long type.
-        // It needs to be an int type.
-        // Before converting to an int type, check
-        // to ensure that file is not larger than Integer.MAX_VALUE.
-        if (length > Integer.MAX_VALUE) {
-            throw new IOException("File is too large " + file.getName());
+    /**
+     * Reader which sanitizes an underlying byte stream segment by segment.
+     *
+     * A segment ends either after an opening {@literal <name>}/{@literal <comment>} tag or before the corresponding
+     * closing tag. Each segment is decoded with the first of the {@link #decoders} which is able to decode it.
+     */
+    private final class SanitizingReader extends Reader {
+
+        /**
+         * Stream to read raw bytes from.
+         */
+        private final InputStream input;
+        /**
+         * Chunk of bytes read from {@link #input}.
+         */
+        private final byte[] chunk = new byte[BUFFER_SIZE];
+        /**
+         * Position of next unprocessed byte in {@link #chunk}.
+         */
+        private int chunkPosition;
+        /**
+         * Count of valid bytes in {@link #chunk}.
+         */
+        private int chunkLength;
+        /**
+         * Bytes of the current segment.
+         */
+        private byte[] segment = new byte[BUFFER_SIZE];
+        /**
+         * Count of valid bytes in {@link #segment}.
+         */
+        private int segmentLength;
+        /**
+         * Decoded characters not yet delivered.
+         */
+        private CharBuffer decoded = CharBuffer.allocate(BUFFER_SIZE);
+        /**
+         * Current state of the {@link #DELIMITERS} automaton.
+         */
+        private int delimiterState = DelimiterAutomaton.INITIAL;
+        /**
+         * Where in the stream we are.
+         */
+        private State state = State.OUTSIDE;
+        /**
+         * Whether the end of {@link #input} was reached.
+         */
+        private boolean eof;
+
+        /**
+         * Dedicated constructor.
+         *
+         * @param input stream to read raw bytes from
+         */
+        SanitizingReader(final InputStream input) {
+            super();
+            this.input = input;
+            decoded.flip();
         }
 
-        // Create the byte array to hold the data
-        final byte[] bytes = new byte[(int) length];
-        int offset = 0;
-        InputStream is = null;
+        @Override
+        public int read(final char[] cbuf, final int off, final int len) throws IOException {
+            while (!decoded.hasRemaining()) {
+                if (eof) {
+                    return -1;
+                }
 
-        try {
-            // Read in the bytes
-            is = new FileInputStream(file);
+                fill();
+            }
+
+            final int count = Math.min(len, decoded.remaining());
+            decoded.get(cbuf, off, count);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+
+        /**
+         * Consumes bytes until the next segment is complete or the end of input is reached.
+         *
+         * @throws IOException on read errors
+         */
+        private void fill() throws IOException {
+            decoded.clear();
+
+            while (true) {
+                if (chunkPosition == chunkLength) {
+                    chunkLength = input.read(chunk);
+                    chunkPosition = 0;
+
+                    if (-1 == chunkLength) {
+                        chunkLength = 0;
+                        eof = true;
+                        decode(0, segmentLength);
+                        segmentLength = 0;
+                        break;
+                    }
+                }
 
-            int numRead = 0;
-            while (offset < bytes.length
-                && (numRead = is.read(bytes, offset, bytes.length - offset)) >= 0) {
-                offset += numRead;
+                final byte b = chunk[chunkPosition++];
+                append(b);
+
+                if (scan(b)) {
+                    break;
+                }
             }
-        } finally {
-            if (null != is) {
-                is.close();
+
+            decoded.flip();
+        }
+
+        /**
+         * Feeds the byte to the delimiter automaton and handles a completed segment.
+         *
+         * @param b last appended byte
+         * @return {@code true} if a segment was completed and decoded, else {@code false}
+         */
+        private boolean scan(final byte b) {
+            delimiterState = DELIMITERS.next(delimiterState, b);
+            final int match = DELIMITERS.match(delimiterState);
+
+            switch (state) {
+                case OUTSIDE:
+                    if (NAME_START_ID != match && COMMENT_START_ID != match) {
+                        return false;
+                    }
+
+                    decode(0, segmentLength);
+                    segmentLength = 0;
+                    delimiterState = DelimiterAutomaton.INITIAL;
+                    state = NAME_START_ID == match ? State.IN_NAME : State.IN_COMMENT;
+                    return true;
+                case IN_NAME:
+                    return closeSegment(NAME_END_ID == match, NAME_END.length);
+                case IN_COMMENT:
+                    return closeSegment(COMMENT_END_ID == match, COMMENT_END.length);
+                default:
+                    throw new IllegalStateException(String.format("Illegal state %s!", state));
             }
         }
 
-        // Ensure all the bytes have been read in
-        if (offset < bytes.length) {
-            throw new IOException("Could not completely read file " + file.getName());
+        /**
+         * Decodes the name or comment segment if its closing tag was found.
+         *
+         * The closing tag itself is the beginning of the next segment.
+         *
+         * @param found whether the closing tag was found
+         * @param endLength length of the closing tag
+         * @return same as found
+         */
+        private boolean closeSegment(final boolean found, final int endLength) {
+            if (!found) {
+                return false;
+            }
+
+            final int contentLength = segmentLength - endLength;
+            decode(0, contentLength);
+            System.arraycopy(segment, contentLength, segment, 0, endLength);
+            segmentLength = endLength;
+            delimiterState = DelimiterAutomaton.INITIAL;
+            state = State.OUTSIDE;
+            return true;
         }
 
-        return bytes;
+        /**
+         * Appends a byte to the current segment and grows the segment buffer if necessary.
+         *
+         * @param b byte to append
+         */
+        private void append(final byte b) {
+            if (segmentLength == segment.length) {
+                final byte[] grown = new byte[segment.length * 2];
+                System.arraycopy(segment, 0, grown, 0, segmentLength);
+                segment = grown;
+            }
+
+            segment[segmentLength++] = b;
+        }
+
+        /**
+         * Decodes bytes of the current segment with the first matching decoder into {@link #decoded}.
+         *
+         * @param offset start in {@link #segment}
+         * @param length count of bytes to decode
+         */
+        private void decode(final int offset, final int length) {
+            if (decoded.remaining() < length) {
+                final CharBuffer grown = CharBuffer.allocate(decoded.position() + length);
+                decoded.flip();
+                grown.put(decoded);
+                decoded = grown;
+            }
+
+            final int start = decoded.position();
+            final ByteBuffer in = ByteBuffer.wrap(segment, offset, length);
+            in.mark();
+            decoded.mark();
+
+            for (final CharsetDecoder dec : decoders) {
+                dec.reset();
+                final CoderResult result = dec.decode(in, decoded, true);
+
+                if (result.isError()) {
+                    in.reset();
+                    decoded.reset();
+                } else {
+                    dec.flush(decoded);
+                    break;
+                }
+            }
+
+            final char[] chars = decoded.array();
+
+            for (int i = start; i < decoded.position(); i++) {
+                chars[i] = replaceInvalidChar(chars[i]);
+            }
+        }
     }
 }
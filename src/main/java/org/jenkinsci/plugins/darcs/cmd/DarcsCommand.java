@@ -97,7 +97,7 @@ public class DarcsCommand {
      *
      * @return reference of internal argument list object
      */
-    ArgumentListBuilder getArgs() {
+    public ArgumentListBuilder getArgs() {
         return args;
     }
 
@@ -17,7 +17,7 @@ import org.apache.commons.lang.Validate;
 /**
  * Builder for `darcs get` command.
  *
- * Example: {@literal `darcs get FROM TO`}
+ * Example: {@literal `darcs get [--lazy] [--tag=TAG|--to-match=PATTERN] [--no-working-dir] FROM TO`}
  *
  * @author Sven Strittmatter <weltraumschaf@googlemail.com>
  */
@@ -35,6 +35,22 @@ public class DarcsGetBuilder extends DarcsBaseCommandBuilder implements DarcsCom
      * To where to get.
      */
     private String to = "";
+    /**
+     * Whether to get patches lazy.
+     */
+    private boolean lazy;
+    /**
+     * Tag to get the patches up to.
+     */
+    private String tag = "";
+    /**
+     * Pattern of the patch to get the patches up to.
+     */
+    private String toMatch = "";
+    /**
+     * Whether to get w/o working directory.
+     */
+    private boolean noWorkingDir;
 
     /**
      * Initializes the {@link DarcsBaseCommandBuilder#command} with {@value #COMMAND}.
@@ -75,10 +91,80 @@ public class DarcsGetBuilder extends DarcsBaseCommandBuilder implements DarcsCom
         return this;
     }
 
+    /**
+     * Switch lazy get on.
+     *
+     * Only the patches needed for the working directory are fetched, the rest of the history on demand.
+     *
+     * @return the builder itself
+     */
+    public DarcsGetBuilder lazy() {
+        lazy = true;
+        return this;
+    }
+
+    /**
+     * Get only the patches up to a tag.
+     *
+     * @param name name of the tag
+     * @return the builder itself
+     * CHECKSTYLE:OFF
+     * @throws IllegalArgumentException if name is {@code null} or empty
+     * CHECKSTYLE:ON
+     */
+    public DarcsGetBuilder tag(final String name) {
+        Validate.notEmpty(name);
+        tag = name;
+        return this;
+    }
+
+    /**
+     * Get only the patches up to the patch matching a pattern.
+     *
+     * @param pattern Darcs patch match pattern, e.g. "hash 20130224..."
+     * @return the builder itself
+     * CHECKSTYLE:OFF
+     * @throws IllegalArgumentException if pattern is {@code null} or empty
+     * CHECKSTYLE:ON
+     */
+    public DarcsGetBuilder toMatch(final String pattern) {
+        Validate.notEmpty(pattern);
+        toMatch = pattern;
+        return this;
+    }
+
+    /**
+     * Switch get w/o working directory on.
+     *
+     * @return the builder itself
+     */
+    public DarcsGetBuilder noWorkingDir() {
+        noWorkingDir = true;
+        return this;
+    }
+
     @Override
     public DarcsCommand create() {
         Validate.notEmpty(from, "Set from where to get the repo!");
+        Validate.isTrue(tag.length() == 0 || toMatch.length() == 0, "Set either tag or to match!");
         final ArgumentListBuilder arguments = createArgumentList();
+
+        if (lazy) {
+            arguments.add("--lazy");
+        }
+
+        if (tag.length() > 0) {
+            arguments.add(String.format("--tag=%s", tag));
+        }
+
+        if (toMatch.length() > 0) {
+            arguments.add(String.format("--to-match=%s", toMatch));
+        }
+
+        if (noWorkingDir) {
+            arguments.add("--no-working-dir");
+        }
+
         arguments.add(from);
 
         if (to.length() > 0) {
@@ -17,7 +17,8 @@ import org.apache.commons.lang.Validate;
 /**
  * Builder for `darcs pull` command.
  *
- * Example: {@literal `darcs pull FROM [--repo=REPDIR] [--all] [--verbose]`}
+ * Example: {@literal `darcs pull FROM [--repo=REPDIR] [--all] [--verbose] [--dry-run] [--xml-output] [--summary]
+ * [--matches=PATTERN]`}
  *
  * @author Sven Strittmatter <weltraumschaf@googlemail.com>
  */
@@ -43,6 +44,22 @@ public class DarcsPullBuilder extends DarcsBaseCommandBuilder implements DarcsCo
      * Whether to use verbose output.
      */
     private boolean verbose;
+    /**
+     * Whether to only show which patches would be pulled.
+     */
+    private boolean dryRun;
+    /**
+     * Whether to create XML output.
+     */
+    private boolean xmlOutput;
+    /**
+     * Whether to print summary.
+     */
+    private boolean summary;
+    /**
+     * Pull only the patches matching this pattern, all if empty.
+     */
+    private String matches = "";
 
     /**
      * Initializes the {@link DarcsBaseCommandBuilder#command} with {@value #COMMAND}.
@@ -103,6 +120,53 @@ public class DarcsPullBuilder extends DarcsBaseCommandBuilder implements DarcsCo
         return this;
     }
 
+    /**
+     * Only show which patches would be pulled.
+     *
+     * @return the builder itself
+     */
+    public DarcsPullBuilder dryRun() {
+        dryRun = true;
+        return this;
+    }
+
+    /**
+     * Switch XML output on.
+     *
+     * Only useful together with {@link #dryRun()}.
+     *
+     * @return the builder itself
+     */
+    public DarcsPullBuilder xmlOutput() {
+        xmlOutput = true;
+        return this;
+    }
+
+    /**
+     * Switch summary output on.
+     *
+     * @return the builder itself
+     */
+    public DarcsPullBuilder summary() {
+        summary = true;
+        return this;
+    }
+
+    /**
+     * Pull only the patches matching a pattern.
+     *
+     * @param pattern Darcs match pattern, e.g. {@literal "hash FOO || hash BAR"}
+     * @return the builder itself
+     * CHECKSTYLE:OFF
+     * @throws IllegalArgumentException if pattern is {@code null} or empty
+     * CHECKSTYLE:ON
+     */
+    public DarcsPullBuilder matches(final String pattern) {
+        Validate.notEmpty(pattern);
+        matches = pattern;
+        return this;
+    }
+
     @Override
     public DarcsCommand create() {
         Validate.notEmpty(from, "Set from where to pull the patches!");
@@ -121,6 +185,22 @@ public class DarcsPullBuilder extends DarcsBaseCommandBuilder implements DarcsCo
             arguments.add("--verbose");
         }
 
+        if (dryRun) {
+            arguments.add("--dry-run");
+        }
+
+        if (xmlOutput) {
+            arguments.add("--xml-output");
+        }
+
+        if (summary) {
+            arguments.add("--summary");
+        }
+
+        if (matches.length() > 0) {
+            arguments.add(String.format("--matches=%s", matches));
+        }
+
         return new DarcsCommand(arguments);
     }
 
@@ -0,0 +1,143 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.model.User;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsAuthorResolverTest {
+
+    private static final class RecordingLookup implements DarcsAuthorResolver.Lookup {
+
+        private final List<String> calls = new ArrayList<String>();
+
+        public User get(final String id, final boolean create) {
+            calls.add(id + (create ? "+" : ""));
+            return null;
+        }
+    }
+
+    @Test
+    public void normalize() {
+        assertThat(DarcsAuthorResolver.normalize("  Sven \t Strittmatter  <ich@weltraumschaf.de> "),
+                   is("Sven Strittmatter <ich@weltraumschaf.de>"));
+    }
+
+    @Test
+    public void emailAndNameOf() {
+        assertThat(DarcsAuthorResolver.emailOf("Sven <ich@weltraumschaf.de>"), is("ich@weltraumschaf.de"));
+        assertThat(DarcsAuthorResolver.nameOf("Sven <ich@weltraumschaf.de>"), is("Sven"));
+        assertThat(DarcsAuthorResolver.emailOf("ich@weltraumschaf.de"), is("ich@weltraumschaf.de"));
+        assertThat(DarcsAuthorResolver.nameOf("ich@weltraumschaf.de"), is(nullValue()));
+        assertThat(DarcsAuthorResolver.emailOf("Sven Strittmatter"), is(nullValue()));
+        assertThat(DarcsAuthorResolver.nameOf("Sven Strittmatter"), is("Sven Strittmatter"));
+        assertThat(DarcsAuthorResolver.nameOf("<ich@weltraumschaf.de>"), is(nullValue()));
+    }
+
+    @Test
+    public void resolve_cachesAuthors() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 10, null);
+
+        sut.resolve("Sven  <ich@weltraumschaf.de>");
+        sut.resolve("Sven  <ich@weltraumschaf.de>");
+        sut.resolve("Sven  <ich@weltraumschaf.de>");
+
+        assertThat(lookup.calls, is(Arrays.asList("Sven <ich@weltraumschaf.de>+")));
+        assertThat(sut.getHits(), is(2L));
+        assertThat(sut.getMisses(), is(1L));
+        assertThat(sut.size(), is(1));
+    }
+
+    @Test
+    public void resolve_nullOrEmpty() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 10, null);
+
+        assertThat(sut.resolve(null), is(nullValue()));
+        assertThat(sut.resolve(" "), is(nullValue()));
+        assertThat(lookup.calls.isEmpty(), is(true));
+        assertThat(sut.getMisses(), is(0L));
+    }
+
+    @Test
+    public void resolve_evictsLeastRecentlyUsed() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 2, null);
+
+        sut.resolve("a");
+        sut.resolve("b");
+        sut.resolve("a");
+        sut.resolve("c");
+        sut.resolve("a");
+        sut.resolve("b");
+
+        assertThat(lookup.calls, is(Arrays.asList("a+", "b+", "c+", "b+")));
+        assertThat(sut.size(), is(2));
+        assertThat(sut.getHits(), is(2L));
+        assertThat(sut.getMisses(), is(4L));
+    }
+
+    @Test
+    public void resolve_cacheDisabled() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 0, null);
+
+        sut.resolve("a");
+        sut.resolve("a");
+
+        assertThat(lookup.calls, is(Arrays.asList("a+", "a+")));
+        assertThat(sut.size(), is(0));
+    }
+
+    @Test
+    public void resolve_mappedByEmailNameOrAuthor() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 10,
+                "ICH@weltraumschaf.de sven\n"
+                + "  Jane   Doe \t jane \r\n"
+                + "Foo <foo@example.com> foo\n"
+                + "invalid\n");
+
+        sut.resolve("Sven <ich@weltraumschaf.de>");
+        sut.resolve("jane doe <jd@example.com>");
+        sut.resolve("Foo  <foo@example.com>");
+        sut.resolve("invalid");
+
+        // the mapped users don't exist, so the authors are looked up
+        assertThat(lookup.calls, is(Arrays.asList(
+                "sven", "Sven <ich@weltraumschaf.de>+",
+                "jane", "jane doe <jd@example.com>+",
+                "foo", "Foo <foo@example.com>+",
+                "invalid+")));
+    }
+
+    @Test
+    public void configure_emptiesCache() {
+        final RecordingLookup lookup = new RecordingLookup();
+        final DarcsAuthorResolver sut = new DarcsAuthorResolver(lookup, 10, null);
+        sut.resolve("a");
+
+        sut.configure(10, "a b");
+        sut.resolve("a");
+
+        assertThat(lookup.calls, is(Arrays.asList("a+", "b", "a+")));
+        assertThat(sut.getMisses(), is(2L));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsChangeLogBinaryTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File copyResource(final String name) throws IOException {
+        final File file = tmp.newFile("changelog.xml");
+        final InputStream in = getClass().getResourceAsStream(name);
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            final byte[] buf = new byte[1024];
+
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return file;
+    }
+
+    private static DarcsChangeSetList parseFully(final File file) throws IOException, SAXException {
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            return new DarcsChangeLogParser().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readWithoutSidecar() throws IOException {
+        assertThat(DarcsChangeLogBinary.read(copyResource("/changes-summary.xml")), is(nullValue()));
+    }
+
+    @Test
+    public void roundTrip() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        final DarcsChangeSetList expected = parseFully(file);
+        DarcsChangeLogBinary.write(file, expected);
+        final DarcsChangeLogBinary sut = DarcsChangeLogBinary.read(file);
+
+        assertThat(sut.getCount(), is(expected.size()));
+        assertThat(sut.getDigest(), is(expected.digest()));
+        assertThat(sut.getFingerprint(), is(expected.getFingerprint()));
+        assertThat(sut.load(0, sut.getCount()), is(expected.getChangeSets()));
+        assertThat(sut.load(2, 4), is(expected.getChangeSets().subList(2, 4)));
+    }
+
+    @Test
+    public void roundTripOfNullsAndUnicode() throws IOException {
+        final File file = tmp.newFile("changelog.xml");
+        final DarcsChangeSet changeSet = new DarcsChangeSet();
+        changeSet.setHash("hash");
+        changeSet.setAuthor("Jürgen <j@example.com>");
+        changeSet.setComment("Ünïcödé 日本");
+        changeSet.getModifiedPaths().add("src/ä.java");
+        changeSet.getAddedPaths().add("src/ä.java");
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>();
+        changeSets.add(changeSet);
+        final DarcsChangeSetList expected = new DarcsChangeSetList(changeSets);
+        DarcsChangeLogBinary.write(file, expected);
+
+        assertThat(DarcsChangeLogBinary.read(file).load(0, 1), is(expected.getChangeSets()));
+    }
+
+    @Test
+    public void outdatedSidecarIsIgnored() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        DarcsChangeLogBinary.write(file, parseFully(file));
+        final OutputStream out = new FileOutputStream(file, true);
+        out.write(' ');
+        out.close();
+
+        assertThat(DarcsChangeLogBinary.read(file), is(nullValue()));
+    }
+
+    @Test
+    public void truncatedSidecarIsIgnored() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        DarcsChangeLogBinary.write(file, parseFully(file));
+        final RandomAccessFile sidecar = new RandomAccessFile(DarcsChangeLogBinary.fileFor(file), "rw");
+        sidecar.setLength(20);
+        sidecar.close();
+
+        assertThat(DarcsChangeLogBinary.read(file), is(nullValue()));
+    }
+
+    @Test
+    public void partlyWrittenSidecarIsIgnored() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        final DarcsChangeSetList expected = parseFully(file);
+        DarcsChangeLogBinary.write(file, expected);
+        final File sidecar = DarcsChangeLogBinary.fileFor(file);
+        final long length = sidecar.length();
+
+        // cut off the tail at every length behind the header, e.g. after a full disk
+        for (long cut = 100; cut < length; cut += 7) {
+            final RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+            raf.setLength(cut);
+            raf.close();
+
+            assertThat("cut at " + cut, DarcsChangeLogBinary.read(file), is(nullValue()));
+            DarcsChangeLogBinary.write(file, expected);
+        }
+
+        final RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+        raf.setLength(length - 1);
+        raf.close();
+
+        assertThat(DarcsChangeLogBinary.read(file), is(nullValue()));
+        assertThat(new DarcsChangeLogParser().parse(null, file).getChangeSets(), is(expected.getChangeSets()));
+    }
+
+    @Test
+    public void writeReplacesSidecarAndLeavesNoTemporaryFile() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        final File sidecar = DarcsChangeLogBinary.fileFor(file);
+        final OutputStream out = new FileOutputStream(sidecar);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+        final DarcsChangeSetList expected = parseFully(file);
+        DarcsChangeLogBinary.write(file, expected);
+
+        final List<String> files = Arrays.asList(tmp.getRoot().list());
+        Collections.sort(files);
+        assertThat(files, is(Arrays.asList("changelog.xml", "changelog.xml" + DarcsChangeLogBinary.SUFFIX)));
+        assertThat(DarcsChangeLogBinary.read(file).load(0, expected.size()), is(expected.getChangeSets()));
+    }
+
+    @Test
+    public void parserPrefersSidecar() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        final DarcsChangeSetList expected = parseFully(file);
+        new DarcsChangeLogParser().writeSidecar(file);
+
+        assertThat(DarcsChangeLogBinary.fileFor(file).isFile(), is(true));
+        assertThat(DarcsChangeLogIndex.fileFor(file).exists(), is(false));
+        // blank the change log w/o changing its length, so only the sidecar has the changes
+        final RandomAccessFile changeLog = new RandomAccessFile(file, "rw");
+        changeLog.write(new byte[(int) changeLog.length()]);
+        changeLog.close();
+        final DarcsChangeSetList sut = new DarcsChangeLogParser().parse(null, file);
+
+        assertThat(sut.size(), is(expected.size()));
+        assertThat(sut.digest(), is(expected.digest()));
+        assertThat(sut.getChangeSets(), is(expected.getChangeSets()));
+    }
+
+    private File writeChangeLog(final int count) throws IOException {
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>();
+
+        for (int i = 0; i < count; i++) {
+            final DarcsChangeSet changeSet = Helper.createChangeSet(String.valueOf(i));
+            changeSet.setName("name" + i);
+            changeSet.getModifiedPaths().add("src/main/java/Foo" + i + ".java");
+            changeSets.add(changeSet);
+        }
+
+        final File file = tmp.newFile("changelog.xml");
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            new DarcsChangeLogWriter(out).write(changeSets);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    @Test
+    public void parseWritesSidecarOfLargeChangeLog() throws IOException, SAXException {
+        final File file = writeChangeLog(1000);
+        assertThat(file.length() >= DarcsChangeLogParser.SIDECAR_THRESHOLD, is(true));
+        final DarcsChangeSetList expected = new DarcsChangeLogParser().parse(null, file);
+
+        assertThat(DarcsChangeLogBinary.fileFor(file).isFile(), is(true));
+        assertThat(DarcsChangeLogIndex.fileFor(file).exists(), is(false));
+        assertThat(DarcsChangeLogBinary.read(file).load(0, expected.size()), is(expected.getChangeSets()));
+        assertThat(new DarcsChangeLogParser().parse(null, file).getChangeSets(), is(expected.getChangeSets()));
+    }
+
+    @Test
+    public void parseWritesNoSidecarOfSmallChangeLog() throws IOException, SAXException {
+        final File file = writeChangeLog(10);
+        assertThat(file.length() < DarcsChangeLogParser.SIDECAR_THRESHOLD, is(true));
+        new DarcsChangeLogParser().parse(null, file);
+
+        assertThat(DarcsChangeLogBinary.fileFor(file).exists(), is(false));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsChangeLogFileTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File copyResource(final String name, final boolean compressed) throws IOException {
+        final File file = tmp.newFile(compressed ? "changelog-gz.xml" : "changelog.xml");
+        final InputStream in = getClass().getResourceAsStream(name);
+        final OutputStream out = DarcsChangeLogFile.create(file, compressed);
+
+        try {
+            final byte[] buf = new byte[1024];
+
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return file;
+    }
+
+    private static String read(final File file) throws IOException {
+        final InputStream in = DarcsChangeLogFile.open(file);
+
+        try {
+            final StringBuilder res = new StringBuilder();
+            final byte[] buf = new byte[1024];
+
+            for (int n; (n = in.read(buf)) != -1; ) {
+                res.append(new String(buf, 0, n, "ISO-8859-1"));
+            }
+
+            return res.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void isCompressed() throws IOException {
+        assertThat(DarcsChangeLogFile.isCompressed(copyResource("/changes-summary.xml", true)), is(true));
+        assertThat(DarcsChangeLogFile.isCompressed(copyResource("/changes-summary.xml", false)), is(false));
+        assertThat(DarcsChangeLogFile.isCompressed(tmp.newFile("empty.xml")), is(false));
+    }
+
+    @Test
+    public void open_readsCompressedAndPlainFiles() throws IOException {
+        final File compressed = copyResource("/changes-summary.xml", true);
+        final File plain = copyResource("/changes-summary.xml", false);
+
+        assertThat(compressed.length(), is(lessThan(plain.length())));
+        assertThat(read(compressed), is(read(plain)));
+        assertThat(read(plain), startsWith("<changelog>"));
+        assertThat(read(tmp.newFile("empty.xml")), is(""));
+    }
+
+    @Test
+    public void parse_compressedFile() throws IOException, SAXException {
+        final File compressed = copyResource("/changes-summary.xml", true);
+        final List<DarcsChangeSet> expected = new DarcsChangeLogParser()
+                .parseChangeSets(copyResource("/changes-summary.xml", false));
+
+        for (final DarcsXmlBackend backend : DarcsXmlBackend.values()) {
+            assertThat(new DarcsChangeLogParser(backend).parseChangeSets(compressed), is(expected));
+        }
+
+        assertThat(new DarcsChangeLogParser().parse(null, compressed).getChangeSets(),
+                   is(new DarcsChangeSetList(expected).getChangeSets()));
+    }
+
+    @Test
+    public void cleanse_compressedFile() throws IOException {
+        final DarcsXmlSanitizer sut = new DarcsXmlSanitizer();
+
+        assertThat(sut.cleanse(copyResource("/changes-summary.xml", true)),
+                   is(sut.cleanse(copyResource("/changes-summary.xml", false))));
+    }
+
+    @Test
+    public void writeSidecar_compressedFileHasCompressedSidecar() throws IOException, SAXException {
+        final File compressed = copyResource("/changes-summary.xml", true);
+        new DarcsChangeLogParser().writeSidecar(compressed);
+
+        assertThat(DarcsChangeLogIndex.fileFor(compressed).exists(), is(false));
+        assertThat(DarcsChangeLogFile.isCompressed(DarcsChangeLogBinary.fileFor(compressed)), is(true));
+        final DarcsChangeLogBinary binary = DarcsChangeLogBinary.read(compressed);
+        assertThat(binary, is(notNullValue()));
+        assertThat(new DarcsChangeLogParser().parse(null, compressed).getChangeSets(),
+                   is(new DarcsChangeLogParser().parse(null, copyResource("/changes-summary.xml", false))
+                           .getChangeSets()));
+    }
+
+    @Test
+    public void truncatedCompressedSidecarIsIgnored() throws IOException, SAXException {
+        final File compressed = copyResource("/changes-summary.xml", true);
+        new DarcsChangeLogParser().writeSidecar(compressed);
+        final RandomAccessFile sidecar = new RandomAccessFile(DarcsChangeLogBinary.fileFor(compressed), "rw");
+        sidecar.setLength(sidecar.length() / 2);
+        sidecar.close();
+
+        assertThat(DarcsChangeLogBinary.read(compressed), is(nullValue()));
+    }
+
+    @Test
+    public void writeSidecar_plainFileHasPlainSidecar() throws IOException, SAXException {
+        final File plain = copyResource("/changes-summary.xml", false);
+        new DarcsChangeLogParser().writeSidecar(plain);
+
+        assertThat(DarcsChangeLogFile.isCompressed(DarcsChangeLogBinary.fileFor(plain)), is(false));
+        assertThat(DarcsChangeLogBinary.read(plain), is(notNullValue()));
+    }
+
+    @Test(expected = IOException.class)
+    public void writeIndex_compressedFile() throws IOException, SAXException {
+        DarcsChangeLogIndex.write(copyResource("/changes-summary.xml", true));
+    }
+}
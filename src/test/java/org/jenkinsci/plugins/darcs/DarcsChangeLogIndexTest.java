@@ -0,0 +1,152 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsChangeLogIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File copyResource(final String name) throws IOException {
+        final File file = tmp.newFile("changelog.xml");
+        final InputStream in = getClass().getResourceAsStream(name);
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            final byte[] buf = new byte[1024];
+
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+
+        return file;
+    }
+
+    private File generate(final int patches) throws IOException {
+        final List<DarcsChangeSet> changeSets = new ArrayList<DarcsChangeSet>();
+
+        for (int i = 0; i < patches; i++) {
+            final DarcsChangeSet changeSet = Helper.createChangeSet(String.valueOf(i));
+            changeSet.getModifiedPaths().add("src/File" + i + ".java");
+            changeSets.add(changeSet);
+        }
+
+        final File file = tmp.newFile("changelog.xml");
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            new DarcsChangeLogWriter(out).write(changeSets);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    private static DarcsChangeSetList parseFully(final File file) throws IOException, SAXException {
+        final InputStream in = new FileInputStream(file);
+
+        try {
+            return new DarcsChangeLogParser().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readWithoutIndex() throws IOException {
+        assertThat(DarcsChangeLogIndex.read(copyResource("/changes-summary.xml")), is(nullValue()));
+    }
+
+    @Test
+    public void indexHasCountAndDigestOfChangeSetList() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        DarcsChangeLogIndex.write(file);
+        final DarcsChangeLogIndex sut = DarcsChangeLogIndex.read(file);
+        final DarcsChangeSetList expected = parseFully(file);
+
+        assertThat(sut.getCount(), is(expected.size()));
+        assertThat(sut.getDigest(), is(expected.digest()));
+        assertThat(sut.getFingerprint(), is(expected.getFingerprint()));
+        assertThat(sut.load(0, sut.getCount()), is(expected.getChangeSets()));
+        assertThat(sut.load(1, 3), is(expected.getChangeSets().subList(1, 3)));
+    }
+
+    @Test
+    public void indexOfEmptyChangeLog() throws IOException, SAXException {
+        final File file = generate(0);
+        DarcsChangeLogIndex.write(file);
+        final DarcsChangeSetList sut = new DarcsChangeLogParser().parse(null, file);
+
+        assertThat(sut.isEmptySet(), is(true));
+        assertThat(sut.iterator().hasNext(), is(false));
+        assertThat(sut.digest(), is(new DarcsChangeSetList().digest()));
+    }
+
+    @Test
+    public void outdatedIndexIsIgnored() throws IOException, SAXException {
+        final File file = copyResource("/changes-summary.xml");
+        DarcsChangeLogIndex.write(file);
+        final OutputStream out = new FileOutputStream(file, true);
+        out.write(' ');
+        out.close();
+
+        assertThat(DarcsChangeLogIndex.read(file), is(nullValue()));
+        assertThat(new DarcsChangeLogParser().parse(null, file), is(parseFully(file)));
+    }
+
+    @Test
+    public void lazyListPagesThroughChanges() throws IOException, SAXException {
+        final File file = generate(250);
+        DarcsChangeLogIndex.write(file);
+        final DarcsChangeSetList expected = parseFully(file);
+        final DarcsChangeSetList sut = new DarcsChangeLogParser().parse(null, file);
+
+        assertThat(sut.size(), is(250));
+        assertThat(sut.isEmptySet(), is(false));
+        assertThat(sut.digest(), is(expected.digest()));
+        assertThat(sut, is(expected));
+
+        final Iterator<DarcsChangeSet> it = sut.iterator();
+
+        for (final DarcsChangeSet changeSet : expected) {
+            assertThat(it.hasNext(), is(true));
+            final DarcsChangeSet loaded = it.next();
+            assertThat(loaded, is(changeSet));
+        }
+
+        assertThat(it.hasNext(), is(false));
+        assertThat(sut.getChangeSets(), is(expected.getChangeSets()));
+    }
+}
@@ -9,6 +9,7 @@
  */
 package org.jenkinsci.plugins.darcs;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -210,4 +211,90 @@ public class DarcsChangeLogParserTest {
             assertThat(logs.get(i), is(equalTo(expected.get(i))));
         }
     }
+
+    @Test
+    public void parse_stream() throws SAXException, URISyntaxException, IOException {
+        final DarcsChangeLogParser sut = new DarcsChangeLogParser();
+        final URL resource = getClass().getResource("/changes-summary.xml");
+        final FileInputStream fis = new FileInputStream(new File(resource.toURI()));
+        final DarcsChangeSetList list;
+
+        try {
+            list = sut.parse(fis);
+        } finally {
+            fis.close();
+        }
+
+        assertNotNull(list);
+        assertThat(list.size(), is(expected.size()));
+        final List<DarcsChangeSet> logs = list.getChangeSets();
+
+        for (int i = 0; i < expected.size(); ++i) {
+            assertThat(logs.get(i), is(equalTo(expected.get(i))));
+        }
+    }
+
+    @Test
+    public void parse_pullDryRunOutput() throws SAXException, IOException {
+        final DarcsChangeLogParser sut = new DarcsChangeLogParser();
+        final String xml = "<patches>\n"
+                + "<patch author='ich@weltraumschaf.de' date='20130224204531' local_date='Sun Feb 24 21:45:31 CET 2013' "
+                + "inverted='False' hash='20130224204531-7677a-1b935a82ba6408ffa9add3642ab52f233fe4ef54.gz'>\n"
+                + "    <name>Readd Bar.java</name>\n"
+                + "    <comment>Ignore-this: 7c0271b552e03728bbc7d4f33cb545f9\nThis is an other comment.</comment>\n"
+                + "    <summary>\n    <add_file>\n    Bar.java\n    </add_file>\n    </summary>\n"
+                + "</patch>\n"
+                + "</patches>\n";
+        final DarcsChangeSetList list = sut.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+
+        assertThat(list.size(), is(1));
+        final DarcsChangeSet patch = list.getChangeSets().get(0);
+        assertThat(patch.getName(), is("Readd Bar.java"));
+        assertThat(patch.getComment(), is("This is an other comment."));
+        assertThat(patch.getAddedPaths(), is(Arrays.asList("Bar.java")));
+    }
+
+    @Test
+    public void parse_emptyPullDryRunOutput() throws SAXException, IOException {
+        final DarcsChangeLogParser sut = new DarcsChangeLogParser();
+        final DarcsChangeSetList list = sut.parse(new ByteArrayInputStream("<patches>\n</patches>\n".getBytes("UTF-8")));
+
+        assertThat(list.isEmptySet(), is(true));
+    }
+
+    @Test
+    public void parse_fileWithStax() throws IOException, SAXException, URISyntaxException {
+        final URL resource = getClass().getResource("/changes-summary.xml");
+        final File file = new File(resource.toURI());
+
+        assertThat(new DarcsChangeLogParser(DarcsXmlBackend.STAX).parseChangeSets(file),
+                   is(new DarcsChangeLogParser(DarcsXmlBackend.SAX).parseChangeSets(file)));
+    }
+
+    @Test
+    public void parse_pooledReaderAfterError() throws IOException, SAXException {
+        for (final DarcsXmlBackend backend : DarcsXmlBackend.values()) {
+            final DarcsChangeLogParser sut = new DarcsChangeLogParser(backend);
+
+            try {
+                sut.parse(new ByteArrayInputStream("<patches><patch>".getBytes("UTF-8")));
+                fail("Expected SAXException with " + backend);
+            } catch (SAXException ex) {
+                // expected
+            }
+
+            final DarcsChangeSetList list = sut.parse(new ByteArrayInputStream(
+                    "<patches><patch hash='foo'><name>bar</name></patch></patches>".getBytes("UTF-8")));
+            assertThat(list.size(), is(1));
+            assertThat(list.getChangeSets().get(0).getName(), is("bar"));
+        }
+    }
+
+    @Test
+    public void backendForName() {
+        assertThat(DarcsXmlBackend.forName("sax"), is(DarcsXmlBackend.SAX));
+        assertThat(DarcsXmlBackend.forName(" StAX "), is(DarcsXmlBackend.STAX));
+        assertThat(DarcsXmlBackend.forName("dom"), is(nullValue()));
+        assertThat(DarcsXmlBackend.forName(null), is(nullValue()));
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsChangeLogWriterTest {
+
+    @Test
+    public void escape() {
+        assertThat(DarcsChangeLogWriter.escape(null), is(""));
+        assertThat(DarcsChangeLogWriter.escape("foo"), is("foo"));
+        assertThat(DarcsChangeLogWriter.escape("<a href=\"x\">&</a>"),
+                is("&lt;a href=&quot;x&quot;&gt;&amp;&lt;/a&gt;"));
+    }
+
+    @Test
+    public void writtenChangeLogIsParsedToEqualChangeSets() throws Exception {
+        final DarcsChangeSet first = new DarcsChangeSet();
+        first.setAuthor("Sven Strittmatter <ich@weltraumschaf.de>");
+        first.setName("foo & bar");
+        first.setDate("20110214201356");
+        first.setLocalDate("Mon Feb 14 21:13:56 CET 2011");
+        first.setHash("20110214201356-7677a-15b1d7313611ef85de46d8daf57123a365d5b800.gz");
+        first.setComment("Ünïcödé \"comment\"");
+        first.setInverted(false);
+        first.getAddedPaths().addAll(Arrays.asList("Bar.java", "Baz.java"));
+        first.getModifiedPaths().add("Foo.java");
+        first.getDeletedPaths().add("Old.java");
+        final DarcsChangeSet second = new DarcsChangeSet();
+        second.setAuthor("ich@weltraumschaf.de");
+        second.setName("<tag>");
+        second.setDate("20110224143546");
+        second.setLocalDate("Thu Feb 24 15:35:46 CET 2011");
+        second.setHash("20110224143546-7677a-e7a3a6a5d0f1fa7b4d6a2cd6dfbdac2e13b5c1d0.gz");
+        second.setComment("");
+        second.setInverted(true);
+        final List<DarcsChangeSet> changeSets = Arrays.asList(first, second);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DarcsChangeLogWriter(out).write(changeSets);
+        final List<DarcsChangeSet> parsed = new DarcsChangeLogParser()
+                .parseChangeSets(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(parsed, is(changeSets));
+    }
+}
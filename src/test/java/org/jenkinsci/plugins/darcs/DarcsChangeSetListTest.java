@@ -12,6 +12,7 @@ package org.jenkinsci.plugins.darcs;
 import static org.junit.Assert.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import hudson.Util;
 import org.junit.Test;
 import static org.hamcrest.CoreMatchers.*;
@@ -78,6 +79,21 @@ public class DarcsChangeSetListTest {
         assertEquals(sut1.digest(), sut2.digest());
     }
 
+    @Test
+    public void testFingerprintOnOrderOfPatches() {
+        final DarcsChangeSet cs1 = Helper.createChangeSet("1");
+        final DarcsChangeSet cs2 = Helper.createChangeSet("2");
+        final List<DarcsChangeSet> list1 = new ArrayList<DarcsChangeSet>(Arrays.asList(cs1, cs2));
+        final List<DarcsChangeSet> list2 = new ArrayList<DarcsChangeSet>(Arrays.asList(cs2, cs1));
+
+        final DarcsChangeSetList sut1 = new DarcsChangeSetList(list1);
+        final DarcsChangeSetList sut2 = new DarcsChangeSetList(list2);
+        assertThat(sut1.getFingerprint(), is(sut2.getFingerprint()));
+        assertThat(sut2.getChangeSets(), is(Arrays.asList(cs1, cs2)));
+        // the list of the caller is not reordered
+        assertThat(list2, is(Arrays.asList(cs2, cs1)));
+    }
+
     @Test
     public void testGetKind() {
         final DarcsChangeSetList sut = new DarcsChangeSetList(new ArrayList<DarcsChangeSet>());
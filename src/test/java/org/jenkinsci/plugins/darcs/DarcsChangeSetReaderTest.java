@@ -0,0 +1,167 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsChangeSetReaderTest {
+
+    private static List<DarcsChangeSet> parseWithSax(final String resource) throws IOException, SAXException {
+        final InputStream in = DarcsChangeSetReaderTest.class.getResourceAsStream(resource);
+
+        try {
+            return new DarcsChangeLogParser(DarcsXmlBackend.SAX).parseChangeSets(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<DarcsChangeSet> readAll(final String resource) throws IOException, SAXException {
+        final DarcsChangeSetReader sut = new DarcsChangeLogParser()
+                .read(DarcsChangeSetReaderTest.class.getResourceAsStream(resource));
+
+        try {
+            return sut.readAll();
+        } finally {
+            sut.close();
+        }
+    }
+
+    @Test
+    public void readAll_sameAsSaxHandler() throws IOException, SAXException {
+        assertThat(readAll("/changes-summary.xml"), is(parseWithSax("/changes-summary.xml")));
+        assertThat(readAll("/changes.xml"), is(parseWithSax("/changes.xml")));
+    }
+
+    @Test
+    public void read_stopsEarly() throws IOException, SAXException {
+        final List<DarcsChangeSet> expected = parseWithSax("/changes-summary.xml");
+        final DarcsChangeSetReader sut = new DarcsChangeLogParser()
+                .read(getClass().getResourceAsStream("/changes-summary.xml"));
+
+        try {
+            assertThat(sut.read(), is(expected.get(0)));
+            assertThat(sut.read(), is(expected.get(1)));
+        } finally {
+            sut.close();
+        }
+    }
+
+    @Test
+    public void read_endOfChangeLog() throws IOException, SAXException {
+        final DarcsChangeSetReader sut = new DarcsChangeSetReader(new StringReader("<patches>\n</patches>\n"));
+
+        try {
+            assertThat(sut.read(), is(nullValue()));
+            assertThat(sut.read(), is(nullValue()));
+        } finally {
+            sut.close();
+        }
+    }
+
+    @Test
+    public void read_movesAndUnknownTags() throws IOException, SAXException {
+        final String xml = "<changelog>\n"
+                + "<patch author='foo' date='20130224204531' local_date='x' inverted='True' hash='h'>\n"
+                + "  <name> Move  it </name>\n"
+                + "  <created_as original_name='foo'/>\n"
+                + "  <summary>\n"
+                + "    <move from='a.txt' to='b.txt'/>\n"
+                + "    <modify_file>\n    c.txt<added_lines num='1'/>\n    </modify_file>\n"
+                + "    <add_directory>\n    d\n    </add_directory>\n"
+                + "  </summary>\n"
+                + "</patch>\n"
+                + "</changelog>\n";
+        final DarcsChangeSetReader sut = new DarcsChangeLogParser()
+                .read(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+        final DarcsChangeSet patch;
+
+        try {
+            patch = sut.read();
+            assertThat(sut.read(), is(nullValue()));
+        } finally {
+            sut.close();
+        }
+
+        assertThat(patch, is(new DarcsChangeLogParser(DarcsXmlBackend.SAX)
+                .parseChangeSets(new ByteArrayInputStream(xml.getBytes("UTF-8"))).get(0)));
+        assertThat(patch.getName(), is(" Move  it "));
+        assertThat(patch.isInverted(), is(true));
+        assertThat(patch.getDeletedPaths(), is(Arrays.asList("a.txt")));
+        assertThat(patch.getAddedPaths(), is(Arrays.asList("b.txt", "d")));
+        assertThat(patch.getModifiedPaths(), is(Arrays.asList("c.txt")));
+    }
+
+    @Test
+    public void readUntilUnknown_stopsAtUnknownPatch() throws IOException, SAXException {
+        final List<DarcsChangeSet> expected = parseWithSax("/changes-summary.xml");
+        final Set<String> known = new HashSet<String>();
+
+        for (final DarcsChangeSet changeSet : expected) {
+            known.add(changeSet.getHash());
+        }
+
+        known.remove(expected.get(2).getHash());
+        final DarcsChangeSetReader sut = new DarcsChangeLogParser()
+                .read(getClass().getResourceAsStream("/changes-summary.xml"));
+
+        try {
+            assertThat(sut.readUntilUnknown(known), is(expected.subList(0, 3)));
+        } finally {
+            sut.close();
+        }
+    }
+
+    @Test
+    public void readUntilUnknown_allKnown() throws IOException, SAXException {
+        final List<DarcsChangeSet> expected = parseWithSax("/changes-summary.xml");
+        final Set<String> known = new HashSet<String>();
+
+        for (final DarcsChangeSet changeSet : expected) {
+            known.add(changeSet.getHash());
+        }
+
+        known.add("foo");
+        final DarcsChangeSetReader sut = new DarcsChangeLogParser()
+                .read(getClass().getResourceAsStream("/changes-summary.xml"));
+
+        try {
+            assertThat(sut.readUntilUnknown(known), is(expected));
+        } finally {
+            sut.close();
+        }
+    }
+
+    @Test(expected = SAXException.class)
+    public void read_malformed() throws IOException, SAXException {
+        final DarcsChangeSetReader sut = new DarcsChangeSetReader(new StringReader("<patches><patch></patches>"));
+
+        try {
+            sut.read();
+        } finally {
+            sut.close();
+        }
+    }
+}
@@ -10,6 +10,7 @@
 package org.jenkinsci.plugins.darcs;
 
 import hudson.scm.EditType;
+import java.util.Iterator;
 import java.util.List;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -93,6 +94,21 @@ public class DarcsChangeSetTest {
         assertThat(mod.get(2), is("/baz/3"));
     }
 
+    @Test
+    public void testCopy() {
+        final DarcsChangeSet sut = createSutWithPaths();
+        final DarcsChangeSet copy = sut.copy();
+
+        assertNotSame(sut, copy);
+        assertThat(copy, is(sut));
+        assertThat(copy.getAffectedPaths(), is(sut.getAffectedPaths()));
+        assertThat(createSutWithoutPaths().copy(), is(createSutWithoutPaths()));
+
+        copy.getAddedPaths().add("/foo/4");
+        assertThat(sut.getAddedPaths().size(), is(3));
+        assertThat(copy.getAddedPaths().size(), is(4));
+    }
+
     @Test
     public void testEquals() {
         final DarcsChangeSet sut1 = createSutWithPaths();
@@ -271,4 +287,116 @@ public class DarcsChangeSetTest {
         final DarcsChangeSet sut = createSutWithoutPaths();
         assertThat(sut.getMsg(), is(sut.getComment()));
     }
+
+    @Test
+    public void pathsOfInterleavedKindsKeepTheirOrder() {
+        final DarcsChangeSet sut = new DarcsChangeSet();
+        sut.getModifiedPaths().add("src/A.java");
+        sut.getAddedPaths().add("src/B.java");
+        sut.getModifiedPaths().add("src/C.java");
+        sut.getDeletedPaths().add("src/D.java");
+        sut.getAddedPaths().add("E.java");
+
+        assertThat(sut.getAddedPaths(), contains("src/B.java", "E.java"));
+        assertThat(sut.getDeletedPaths(), contains("src/D.java"));
+        assertThat(sut.getModifiedPaths(), contains("src/A.java", "src/C.java"));
+        assertThat(sut.getAffectedPaths(), contains("src/B.java", "E.java", "src/D.java", "src/A.java", "src/C.java"));
+    }
+
+    @Test
+    public void removeAndSetPaths() {
+        final DarcsChangeSet sut = createSutWithPaths();
+        assertThat(sut.getDeletedPaths().remove(1), is("/bar/2"));
+        assertThat(sut.getModifiedPaths().set(0, "/qux/1"), is("/baz/1"));
+        sut.getAddedPaths().add(1, "/foo/4");
+
+        assertThat(sut.getAddedPaths(), contains("/foo/1", "/foo/4", "/foo/2", "/foo/3"));
+        assertThat(sut.getDeletedPaths(), contains("/bar/1", "/bar/3"));
+        assertThat(sut.getModifiedPaths(), contains("/qux/1", "/baz/2", "/baz/3"));
+        assertThat(sut.getAffectedPaths().size(), is(9));
+    }
+
+    @Test
+    public void removePathsWithIterator() {
+        final DarcsChangeSet sut = createSutWithPaths();
+        final Iterator<String> it = sut.getDeletedPaths().iterator();
+
+        while (it.hasNext()) {
+            if (!"/bar/2".equals(it.next())) {
+                it.remove();
+            }
+        }
+
+        assertThat(sut.getDeletedPaths(), contains("/bar/2"));
+        assertThat(sut.getAffectedPaths().size(), is(7));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void affectedPathsAreReadOnly() {
+        createSutWithPaths().getAffectedPaths().add("/foo");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void affectedPathsOutOfBounds() {
+        createSutWithPaths().getAffectedPaths().get(9);
+    }
+
+    @Test
+    public void nullPath() {
+        final DarcsChangeSet sut = new DarcsChangeSet();
+        sut.getAddedPaths().add(null);
+        assertThat(sut.getAddedPaths().get(0), is(nullValue()));
+    }
+
+    @Test
+    public void affectedPathsIterator() {
+        final DarcsChangeSet sut = new DarcsChangeSet();
+        sut.getModifiedPaths().add("/baz/1");
+        sut.getAddedPaths().add("/foo/1");
+        sut.getDeletedPaths().add("/bar/1");
+        sut.getAddedPaths().add("/foo/2");
+
+        assertThat(sut.getAffectedPaths(), contains("/foo/1", "/foo/2", "/bar/1", "/baz/1"));
+        assertThat(new DarcsChangeSet().getAffectedPaths().iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void countsOfPathsAfterRemove() {
+        final DarcsChangeSet sut = createSutWithPaths();
+        sut.getAddedPaths().remove(1);
+        sut.getModifiedPaths().remove("/baz/3");
+        sut.getAddedPaths().add(0, "/foo/0");
+
+        assertThat(sut.getAddedPaths(), contains("/foo/0", "/foo/1", "/foo/3"));
+        assertThat(sut.getDeletedPaths().size(), is(3));
+        assertThat(sut.getModifiedPaths(), contains("/baz/1", "/baz/2"));
+        assertThat(sut.getAffectedPaths().size(), is(8));
+        assertThat(sut.getAffectedPaths().get(7), is("/baz/2"));
+    }
+
+    @Test(timeout = 10000)
+    public void manyPathsInLinearTime() {
+        final int count = 100000;
+        final DarcsChangeSet sut = new DarcsChangeSet();
+        final DarcsChangeSet other = new DarcsChangeSet();
+
+        for (int i = 0; i < count; i++) {
+            final String path = "/dir" + (i % 100) + "/file" + i;
+            final List<String> paths = i % 3 == 0 ? sut.getAddedPaths() : sut.getModifiedPaths();
+            paths.add(path);
+            (i % 3 == 0 ? other.getAddedPaths() : other.getModifiedPaths()).add(path);
+        }
+
+        int seen = 0;
+
+        for (final String path : sut.getAffectedPaths()) {
+            assertThat(path, is(notNullValue()));
+            ++seen;
+        }
+
+        assertThat(seen, is(count));
+        assertThat(sut.getAddedPaths().size(), is(33334));
+        assertThat(sut.equals(other), is(true));
+        assertThat(sut.hashCode(), is(other.hashCode()));
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsCheckoutTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Records the darcs commands instead of running them.
+     */
+    private static final class StubCmd extends DarcsCmd {
+
+        private final String dryRun;
+        private final List<String> calls = new ArrayList<String>();
+
+        StubCmd(final String dryRun) {
+            super(null, null, "darcs", null);
+            this.dryRun = dryRun;
+        }
+
+        @Override
+        public void pullDryRun(final String repo, final String from, final OutputStream out) {
+            calls.add("pull --dry-run " + from);
+
+            try {
+                out.write(dryRun.getBytes("UTF-8"));
+            } catch (IOException ex) {
+                throw new DarcsCmdException("Can't write dry run!", ex);
+            }
+        }
+
+        @Override
+        public void pull(final String repo, final String from) {
+            calls.add("pull " + from);
+        }
+
+        @Override
+        public void pull(final String repo, final String from, final List<String> hashes) {
+            calls.add("pull " + from + " " + hashes);
+        }
+
+        @Override
+        public void get(final String repo, final String from, final boolean lazy, final String tag) {
+            calls.add("get " + from);
+        }
+
+        @Override
+        public List<DarcsChangeSet> allChanges(final String repo) {
+            calls.add("changes");
+            return new ArrayList<DarcsChangeSet>();
+        }
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private File createRepo() throws IOException {
+        final File repo = tmp.newFolder("repo");
+        assertThat(new File(repo, "_darcs").mkdir(), is(true));
+        return repo;
+    }
+
+    private static DarcsCheckout createCheckout(final ByteArrayOutputStream changeLog,
+            final ByteArrayOutputStream log) {
+        return new DarcsCheckout("http://foo/bar", "darcs", null, new StreamTaskListener(log)).changeLog(changeLog);
+    }
+
+    @Test
+    public void keepUnknown() throws IOException, SAXException {
+        final List<DarcsChangeSet> incoming = new ArrayList<DarcsChangeSet>();
+
+        for (int i = 0; i < 4; i++) {
+            incoming.add(Helper.createChangeSet(String.valueOf(i)));
+        }
+
+        final ByteArrayOutputStream changeLog = new ByteArrayOutputStream();
+        DarcsCheckout.keepUnknown(incoming, Arrays.asList("hash3", "hash1"), changeLog);
+        final List<DarcsChangeSet> kept = new DarcsChangeLogParser()
+                .parseChangeSets(new ByteArrayInputStream(changeLog.toByteArray()));
+
+        assertThat(kept.size(), is(2));
+        // the order of the dry run is kept
+        assertThat(kept.get(0).getHash(), is("hash1"));
+        assertThat(kept.get(1).getHash(), is("hash3"));
+    }
+
+    @Test
+    public void result_survivesRemoting() throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(DarcsCheckout.Result.changed());
+        out.writeObject(DarcsCheckout.Result.unchanged());
+        out.writeObject(DarcsCheckout.Result.failed());
+        out.close();
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        final DarcsCheckout.Result changed = (DarcsCheckout.Result) in.readObject();
+        assertThat(changed.isSuccess(), is(true));
+        assertThat(changed.isChanged(), is(true));
+
+        final DarcsCheckout.Result unchanged = (DarcsCheckout.Result) in.readObject();
+        assertThat(unchanged.isSuccess(), is(true));
+        assertThat(unchanged.isChanged(), is(false));
+
+        final DarcsCheckout.Result failed = (DarcsCheckout.Result) in.readObject();
+        assertThat(failed.isSuccess(), is(false));
+        assertThat(failed.isChanged(), is(false));
+    }
+
+    @Test
+    public void pull_malformedDryRunStillPulls() throws IOException, InterruptedException {
+        final File repo = createRepo();
+        final StubCmd cmd = new StubCmd("<patches><patch hash='foo'>");
+        final ByteArrayOutputStream changeLog = new ByteArrayOutputStream();
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        final DarcsCheckout.Result result = createCheckout(changeLog, log).checkout(cmd, repo, null);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.isChanged(), is(false));
+        assertThat(cmd.calls, is(Arrays.asList("pull --dry-run http://foo/bar", "pull http://foo/bar")));
+        assertThat(changeLog.size(), is(0));
+        assertThat(log.toString("UTF-8"), containsString("Failed to parse patches to pull"));
+    }
+
+    @Test
+    public void pull_malformedDryRunDropsPatchIndex() throws IOException, InterruptedException {
+        final File repo = createRepo();
+        DarcsPatchIndex.add(DarcsPatchIndex.file(repo), Arrays.asList("hash1"));
+
+        createCheckout(new ByteArrayOutputStream(), new ByteArrayOutputStream())
+                .checkout(new StubCmd("no xml at all"), repo, null);
+
+        assertThat(DarcsPatchIndex.file(repo).exists(), is(false));
+    }
+
+    @Test
+    public void pull_nothingToPull() throws IOException, InterruptedException {
+        final File repo = createRepo();
+        DarcsPatchIndex.add(DarcsPatchIndex.file(repo), Arrays.asList("hash1"));
+        final StubCmd cmd = new StubCmd("No remote changes to pull in!\n");
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        final DarcsCheckout.Result result = createCheckout(new ByteArrayOutputStream(), log)
+                .checkout(cmd, repo, null);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.isChanged(), is(false));
+        assertThat(cmd.calls, is(Arrays.asList("pull --dry-run http://foo/bar")));
+        assertThat(log.toString("UTF-8"), not(containsString("Failed")));
+        assertThat(DarcsPatchIndex.file(repo).exists(), is(true));
+    }
+
+    @Test
+    public void pull_emptyDryRunIsNothingToPull() throws IOException, InterruptedException {
+        final StubCmd cmd = new StubCmd("");
+
+        final DarcsCheckout.Result result = createCheckout(new ByteArrayOutputStream(), new ByteArrayOutputStream())
+                .checkout(cmd, createRepo(), null);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.isChanged(), is(false));
+        assertThat(cmd.calls, is(Arrays.asList("pull --dry-run http://foo/bar")));
+    }
+
+    @Test
+    public void pull_writesChangeLog() throws IOException, InterruptedException, SAXException {
+        final File repo = createRepo();
+        final StubCmd cmd = new StubCmd("<patches>\n"
+                + "<patch author='foo' date='20130224204531' local_date='x' inverted='False' hash='hash1'>\n"
+                + "    <name>bar</name>\n"
+                + "</patch>\n"
+                + "</patches>\n");
+        final ByteArrayOutputStream changeLog = new ByteArrayOutputStream();
+
+        final DarcsCheckout.Result result = createCheckout(changeLog, new ByteArrayOutputStream())
+                .checkout(cmd, repo, null);
+
+        assertThat(result.isChanged(), is(true));
+        assertThat(cmd.calls, is(Arrays.asList("pull --dry-run http://foo/bar", "pull http://foo/bar [hash1]",
+                "changes")));
+        final List<DarcsChangeSet> changeSets = new DarcsChangeLogParser()
+                .parseChangeSets(new ByteArrayInputStream(changeLog.toByteArray()));
+        assertThat(changeSets.size(), is(1));
+        assertThat(changeSets.get(0).getHash(), is("hash1"));
+    }
+
+    @Test
+    public void pull_outdatedPatchIndexIsBuiltAnew() throws IOException, InterruptedException, SAXException {
+        final File repo = createRepo();
+        final File inventory = new File(repo, DarcsInventoryReader.INVENTORY);
+        write(inventory, "pristine:foo\n");
+        DarcsPatchIndex.add(DarcsPatchIndex.file(repo), Arrays.asList("hash1"));
+        // hash1 was unpulled, so it is incoming again
+        write(inventory, "pristine:bar\n");
+        final StubCmd cmd = new StubCmd("<patches>\n"
+                + "<patch author='foo' date='20130224204531' local_date='x' inverted='False' hash='hash1'>\n"
+                + "    <name>bar</name>\n"
+                + "</patch>\n"
+                + "</patches>\n");
+        final ByteArrayOutputStream changeLog = new ByteArrayOutputStream();
+
+        createCheckout(changeLog, new ByteArrayOutputStream()).checkout(cmd, repo, null);
+
+        assertThat(cmd.calls, is(Arrays.asList("pull --dry-run http://foo/bar", "pull http://foo/bar [hash1]",
+                "changes")));
+        final List<DarcsChangeSet> changeSets = new DarcsChangeLogParser()
+                .parseChangeSets(new ByteArrayInputStream(changeLog.toByteArray()));
+        assertThat(changeSets.size(), is(1));
+        // built from the patches the repository has, none in the stub
+        assertThat(DarcsPatchIndex.isCurrent(DarcsPatchIndex.file(repo)), is(true));
+        assertThat(DarcsPatchIndex.unknown(DarcsPatchIndex.file(repo), Arrays.asList("hash1")),
+                is(Arrays.asList("hash1")));
+    }
+
+    @Test
+    public void get_fallsBackToSourceIfMirrorFails() throws IOException, InterruptedException {
+        // a file where the mirror cache directory should be
+        final File cacheRoot = tmp.newFile("cache");
+        final StubCmd cmd = new StubCmd("");
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final DarcsCheckout sut = createCheckout(new ByteArrayOutputStream(), log)
+                .mirror(cacheRoot.getPath(), new DarcsMirror("http://foo/bar", "darcs", null,
+                        new StreamTaskListener(log), 0L));
+
+        final DarcsCheckout.Result result = sut.checkout(cmd, new File(tmp.getRoot(), "repo"), null);
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.isChanged(), is(false));
+        assertThat(cmd.calls, is(Arrays.asList("get http://foo/bar")));
+        assertThat(log.toString("UTF-8"), containsString("Failed to update mirror of http://foo/bar"));
+    }
+}
@@ -10,8 +10,15 @@
 
 package org.jenkinsci.plugins.darcs;
 
+import hudson.Proc;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Ignore;
 import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -36,4 +43,97 @@ public class DarcsCmdTest {
     public void testGet() {
 
     }
+
+    @Test
+    public void timeout_configuredPerOperation() {
+        final DarcsCmd sut = new DarcsCmd(null, null, "darcs", null);
+        assertThat(sut.getTimeout(DarcsCmd.Operation.CHANGES), is(0L));
+
+        sut.timeout(DarcsCmd.Operation.CHANGES, 1000L).timeout(DarcsCmd.Operation.GET, 0L);
+        assertThat(sut.getTimeout(DarcsCmd.Operation.CHANGES), is(1000L));
+        assertThat(sut.getTimeout(DarcsCmd.Operation.GET), is(0L));
+
+        sut.timeout(DarcsCmd.Operation.CHANGES, -1L);
+        assertThat(sut.getTimeout(DarcsCmd.Operation.CHANGES), is(0L));
+    }
+
+    @Test
+    public void matchHashes() {
+        assertThat(DarcsCmd.matchHashes(Arrays.asList("foo")), is("hash foo"));
+        assertThat(DarcsCmd.matchHashes(Arrays.asList("foo", "bar", "baz")), is("hash foo || hash bar || hash baz"));
+    }
+
+    @Test
+    public void watchdog_killsProcessAfterTimeout() throws Exception {
+        final HangingProc proc = new HangingProc();
+        final DarcsCmd.Watchdog sut = DarcsCmd.Watchdog.watch(proc, 50L);
+        proc.join();
+        sut.cancel();
+
+        try {
+            sut.check(DarcsCmd.Operation.PULL);
+            fail("Expected exception not thrown!");
+        } catch (DarcsCmd.DarcsCmdTimeoutException ex) {
+            assertThat(ex.getMessage(), is("darcs pull exceeded the timeout of 50 ms and was killed!"));
+        }
+    }
+
+    @Test
+    public void watchdog_doesNotKillFinishedProcess() throws Exception {
+        final HangingProc proc = new HangingProc();
+        final DarcsCmd.Watchdog sut = DarcsCmd.Watchdog.watch(proc, 50L);
+        sut.cancel();
+        Thread.sleep(100L);
+
+        assertThat(proc.killed.getCount(), is(1L));
+        sut.check(DarcsCmd.Operation.PULL);
+    }
+
+    @Test
+    public void watchdog_withoutTimeout() throws Exception {
+        final HangingProc proc = new HangingProc();
+        final DarcsCmd.Watchdog sut = DarcsCmd.Watchdog.watch(proc, 0L);
+        sut.cancel();
+        sut.check(DarcsCmd.Operation.GET);
+        assertThat(proc.killed.getCount(), is(1L));
+    }
+
+    /**
+     * Runs until killed.
+     */
+    private static final class HangingProc extends Proc {
+
+        private final CountDownLatch killed = new CountDownLatch(1);
+
+        @Override
+        public boolean isAlive() {
+            return killed.getCount() > 0;
+        }
+
+        @Override
+        public void kill() {
+            killed.countDown();
+        }
+
+        @Override
+        public int join() throws InterruptedException {
+            killed.await();
+            return 143;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
 }
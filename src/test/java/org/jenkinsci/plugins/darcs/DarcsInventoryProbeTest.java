@@ -0,0 +1,143 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsInventoryProbeTest {
+
+    private final InventoryHandler handler = new InventoryHandler();
+    private HttpServer server;
+    private String source;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/repo/", handler);
+        server.start();
+        source = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void isHttp() {
+        assertThat(DarcsInventoryProbe.isHttp("http://darcs.net/"), is(true));
+        assertThat(DarcsInventoryProbe.isHttp(" HTTPS://darcs.net/"), is(true));
+        assertThat(DarcsInventoryProbe.isHttp("/home/darcs/repo"), is(false));
+        assertThat(DarcsInventoryProbe.isHttp("user@host:repo"), is(false));
+        assertThat(DarcsInventoryProbe.isHttp(null), is(false));
+    }
+
+    @Test
+    public void probe_notModifiedByETag() throws IOException {
+        final DarcsInventoryProbe sut = new DarcsInventoryProbe(1000);
+        final DarcsInventoryProbe.Version first = sut.probe(source, null);
+
+        assertThat(first.getETag(), is("\"1\""));
+        assertThat(handler.notModified.get(), is(0));
+        assertThat(sut.probe(source + "/", first), is(sameInstance(first)));
+        assertThat(handler.notModified.get(), is(1));
+    }
+
+    @Test
+    public void probe_modified() throws IOException {
+        final DarcsInventoryProbe sut = new DarcsInventoryProbe(1000);
+        final DarcsInventoryProbe.Version first = sut.probe(source, null);
+
+        handler.update("pristine:0123\n[foo\nSven Strittmatter**20120101000000]\n");
+        final DarcsInventoryProbe.Version second = sut.probe(source, first);
+
+        assertThat(second, is(not(first)));
+        assertThat(second.getETag(), is("\"2\""));
+        assertThat(handler.notModified.get(), is(0));
+    }
+
+    @Test
+    public void probe_withoutValidatorsComparesDigest() throws IOException {
+        handler.validators = false;
+        final DarcsInventoryProbe sut = new DarcsInventoryProbe(1000);
+        final DarcsInventoryProbe.Version first = sut.probe(source, null);
+
+        assertThat(first.getETag(), is(nullValue()));
+        assertThat(sut.probe(source, first), is(sameInstance(first)));
+
+        handler.update("pristine:4567\n");
+        assertThat(sut.probe(source, first), is(not(first)));
+    }
+
+    @Test(expected = IOException.class)
+    public void probe_notHashed() throws IOException {
+        new DarcsInventoryProbe(1000).probe(source.replace("/repo", "/old"), null);
+    }
+
+    /**
+     * Serves the inventory of one repository.
+     */
+    private static final class InventoryHandler implements HttpHandler {
+
+        private final AtomicInteger notModified = new AtomicInteger();
+        private volatile boolean validators = true;
+        private volatile String inventory = "pristine:0123\n";
+        private volatile int version = 1;
+
+        void update(final String inventory) {
+            this.inventory = inventory;
+            ++version;
+        }
+
+        public void handle(final HttpExchange exchange) throws IOException {
+            try {
+                if (!exchange.getRequestURI().getPath().equals("/repo/" + DarcsInventoryProbe.INVENTORY)) {
+                    exchange.sendResponseHeaders(404, -1);
+                    return;
+                }
+
+                final String eTag = "\"" + version + "\"";
+
+                if (validators && eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    return;
+                }
+
+                if (validators) {
+                    exchange.getResponseHeaders().set("ETag", eTag);
+                }
+
+                final byte[] body = inventory.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsInventoryReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] readResource(final String name) throws IOException {
+        final InputStream in = DarcsInventoryReaderTest.class.getResourceAsStream(name);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            final byte[] buf = new byte[1024];
+
+            for (int n; (n = in.read(buf)) != -1; ) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void write(final File file, final byte[] content, final boolean gzip) throws IOException {
+        file.getParentFile().mkdirs();
+        final OutputStream out = gzip
+                ? new GZIPOutputStream(new FileOutputStream(file))
+                : new FileOutputStream(file);
+
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> hashesOf(final String changeLog) throws IOException, SAXException {
+        final InputStream in = DarcsInventoryReaderTest.class.getResourceAsStream(changeLog);
+        final List<String> hashes = new ArrayList<String>();
+
+        try {
+            for (final DarcsChangeSet changeSet : new DarcsChangeLogParser().parseChangeSets(in)) {
+                hashes.add(changeSet.getHash());
+            }
+        } finally {
+            in.close();
+        }
+
+        return hashes;
+    }
+
+    @Test
+    public void invoke_notHashed() throws IOException {
+        assertThat(new DarcsInventoryReader().invoke(tmp.getRoot(), null), is(nullValue()));
+    }
+
+    @Test
+    public void invoke_sameHashesAsDarcsChanges() throws IOException, SAXException {
+        final File repo = tmp.newFolder("repo");
+        write(new File(repo, DarcsInventoryReader.INVENTORY), readResource("/inventory/hashed_inventory"), false);
+
+        assertThat(new DarcsInventoryReader().invoke(repo, null), is(hashesOf("/changes.xml")));
+    }
+
+    @Test
+    public void read_chainedCompressedInventories() throws IOException, SAXException {
+        final String inventory = new String(readResource("/inventory/hashed_inventory"), "ISO-8859-1");
+        // split after the fourth patch like a tag does
+        final int split = inventory.indexOf("\n[", inventory.indexOf("Implemented class Foo")) + 1;
+        final File repo = tmp.newFolder("repo");
+        write(new File(repo, DarcsInventoryReader.INVENTORIES + "/0000000042-older"),
+                ("Starting with inventory:\n0000000023-oldest\n" + inventory.substring(0, split))
+                .getBytes("ISO-8859-1"), true);
+        write(new File(repo, DarcsInventoryReader.INVENTORIES + "/0000000023-oldest"), new byte[0], true);
+        write(new File(repo, DarcsInventoryReader.INVENTORY),
+                ("pristine:0\nStarting with inventory:\n0000000042-older\n" + inventory.substring(split))
+                .getBytes("ISO-8859-1"), false);
+
+        assertThat(DarcsInventoryReader.read(repo), is(hashesOf("/changes.xml")));
+    }
+
+    @Test
+    public void read_patchInfoWithoutLogAndInverted() throws IOException {
+        final File repo = tmp.newFolder("repo");
+        write(new File(repo, DarcsInventoryReader.INVENTORY), ("pristine:0\n"
+                + "[foo\nich@weltraumschaf.de**20110214201356] \nhash: 0000000001-a\n"
+                + "[bar\nich@weltraumschaf.de*-20110214201357] \nhash: 0000000002-b\n").getBytes("UTF-8"), false);
+        final List<String> hashes = DarcsInventoryReader.read(repo);
+
+        assertThat(hashes.size(), is(2));
+        // SHA-1 of "barich@weltraumschaf.de20110214201357t"
+        assertThat(hashes.get(0), is("20110214201357-7677a-8dc38530a5e16493caffea74b5cc90ed4dc3204a.gz"));
+        // SHA-1 of "fooich@weltraumschaf.de20110214201356f"
+        assertThat(hashes.get(1), is("20110214201356-7677a-1cf7e72d6eccef4bc246251e023d56340bf4df75.gz"));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_malformed() throws IOException {
+        final File repo = tmp.newFolder("repo");
+        write(new File(repo, DarcsInventoryReader.INVENTORY), "pristine:0\n[foo\nnobody\n".getBytes("UTF-8"), false);
+        DarcsInventoryReader.read(repo);
+    }
+
+    @Test(expected = IOException.class)
+    public void read_missingChainedInventory() throws IOException {
+        final File repo = tmp.newFolder("repo");
+        write(new File(repo, DarcsInventoryReader.INVENTORY),
+                "pristine:0\nStarting with inventory:\n0000000042-missing\n".getBytes("UTF-8"), false);
+        DarcsInventoryReader.read(repo);
+    }
+}
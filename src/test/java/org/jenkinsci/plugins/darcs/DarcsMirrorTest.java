@@ -0,0 +1,184 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsMirrorTest {
+
+    private static final String SOURCE = "http://darcs.net/repo";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * Records the darcs commands and creates the repositories instead of running darcs.
+     */
+    private static class StubCmd extends DarcsCmd {
+
+        private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        StubCmd() {
+            super(null, null, "darcs", null);
+        }
+
+        @Override
+        public void getMirror(final String repo, final String from) {
+            run("get " + repo + " " + from);
+            assertThat(new File(repo, "_darcs").mkdirs(), is(true));
+        }
+
+        @Override
+        public void pull(final String repo, final String from) {
+            run("pull " + repo + " " + from);
+        }
+
+        private void run(final String call) {
+            final int now = running.incrementAndGet();
+
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), now));
+            }
+
+            calls.add(call);
+
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private static DarcsMirror createMirror() {
+        return new DarcsMirror(SOURCE, "darcs", null, new StreamTaskListener(new ByteArrayOutputStream()), 0L);
+    }
+
+    @Test
+    public void directoryName() {
+        final String name = DarcsMirror.directoryName("http://darcs.net/repo");
+
+        assertThat(name, is(DarcsMirror.directoryName("http://darcs.net/repo")));
+        assertThat(name, is(not(DarcsMirror.directoryName("http://darcs.net/other"))));
+        assertThat(name.matches("[0-9a-f]+"), is(true));
+    }
+
+    @Test
+    public void invoke_getsNewMirrorIntoTemporaryDirectory() throws IOException, InterruptedException {
+        final File cacheRoot = new File(tmp.getRoot(), "cache");
+        final File mirror = new File(cacheRoot, DarcsMirror.directoryName(SOURCE)).getAbsoluteFile();
+        final StubCmd cmd = new StubCmd();
+
+        assertThat(createMirror().invoke(cacheRoot, cmd), is(mirror.getPath()));
+        assertThat(cmd.calls, is(Arrays.asList("get " + mirror.getPath() + ".tmp " + SOURCE)));
+        assertThat(new File(mirror, "_darcs").isDirectory(), is(true));
+        assertThat(new File(mirror.getPath() + ".tmp").exists(), is(false));
+    }
+
+    @Test
+    public void invoke_pullsIntoExistingMirror() throws IOException, InterruptedException {
+        final File cacheRoot = tmp.newFolder("cache");
+        final File mirror = new File(cacheRoot, DarcsMirror.directoryName(SOURCE)).getAbsoluteFile();
+        assertThat(new File(mirror, "_darcs").mkdirs(), is(true));
+        final StubCmd cmd = new StubCmd();
+
+        assertThat(createMirror().invoke(cacheRoot, cmd), is(mirror.getPath()));
+        assertThat(cmd.calls, is(Arrays.asList("pull " + mirror.getPath() + " " + SOURCE)));
+    }
+
+    @Test
+    public void invoke_failedGetLeavesNoBrokenMirror() throws IOException, InterruptedException {
+        final File cacheRoot = tmp.newFolder("cache");
+        final File mirror = new File(cacheRoot, DarcsMirror.directoryName(SOURCE)).getAbsoluteFile();
+        final StubCmd failing = new StubCmd() {
+            @Override
+            public void getMirror(final String repo, final String from) {
+                assertThat(new File(repo, "_darcs").mkdirs(), is(true));
+                throw new DarcsCmdException("Can't do darcs get!");
+            }
+        };
+
+        try {
+            createMirror().invoke(cacheRoot, failing);
+            fail("Expected DarcsCmdException!");
+        } catch (DarcsCmd.DarcsCmdException ex) {
+            assertThat(ex.getMessage(), is("Can't do darcs get!"));
+        }
+
+        assertThat(mirror.exists(), is(false));
+
+        // the next update gets the mirror again instead of pulling into the partial one
+        final StubCmd cmd = new StubCmd();
+        createMirror().invoke(cacheRoot, cmd);
+        assertThat(cmd.calls, is(Arrays.asList("get " + mirror.getPath() + ".tmp " + SOURCE)));
+        assertThat(new File(mirror, "_darcs").isDirectory(), is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void invoke_cacheRootIsNoDirectory() throws IOException, InterruptedException {
+        createMirror().invoke(tmp.newFile("cache"), new StubCmd());
+    }
+
+    @Test
+    public void invoke_lockSerializesUpdates() throws IOException, InterruptedException {
+        final File cacheRoot = tmp.newFolder("cache");
+        final StubCmd cmd = new StubCmd();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Thread[] threads = new Thread[4];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        createMirror().invoke(cacheRoot, cmd);
+                    } catch (Throwable ex) {
+                        errors.add(ex);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(errors.toString(), errors.size(), is(0));
+        assertThat(cmd.maxRunning.get(), is(1));
+        assertThat(cmd.calls.size(), is(4));
+        // only the first one gets, all others pull into its mirror
+        assertThat(cmd.calls.get(0), startsWith("get "));
+
+        for (final String call : cmd.calls.subList(1, 4)) {
+            assertThat(call, startsWith("pull "));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsPatchIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void write(final File file, final String content) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> hashes(final int from, final int to) {
+        final List<String> hashes = new ArrayList<String>();
+
+        for (int i = from; i < to; i++) {
+            hashes.add(String.format("20130101%06d-7677a-%040d.gz", i, i));
+        }
+
+        return hashes;
+    }
+
+    @Test
+    public void lookupWithoutIndexReturnsNull() throws IOException, InterruptedException {
+        final File repo = tmp.newFolder("repo");
+        assertThat(new DarcsPatchIndex.Lookup(hashes(0, 3)).invoke(repo, null), is(nullValue()));
+    }
+
+    @Test
+    public void addAndLookup() throws IOException {
+        final File index = tmp.newFile("index");
+        assertThat(index.delete(), is(true));
+        DarcsPatchIndex.add(index, hashes(0, 100));
+
+        assertThat(DarcsPatchIndex.unknown(index, hashes(0, 100)).isEmpty(), is(true));
+        assertThat(DarcsPatchIndex.unknown(index, hashes(90, 110)), is(hashes(100, 110)));
+        assertThat(DarcsPatchIndex.unknown(index, Arrays.asList("foo", "20130101000042-7677a-bar.gz")),
+                is(Arrays.asList("foo", "20130101000042-7677a-bar.gz")));
+    }
+
+    @Test
+    public void mergeDropsDuplicates() throws IOException {
+        final File index = tmp.newFile("index");
+        assertThat(index.delete(), is(true));
+        DarcsPatchIndex.add(index, hashes(0, 50));
+        final List<String> added = hashes(25, 75);
+        added.addAll(hashes(25, 30));
+        DarcsPatchIndex.add(index, added);
+
+        assertThat(DarcsPatchIndex.unknown(index, hashes(0, 80)), is(hashes(75, 80)));
+        // header with inventory digest plus one record per distinct hash
+        assertThat(index.length(), is(28L + 75 * 20));
+    }
+
+    @Test
+    public void addEmpty() throws IOException {
+        final File index = tmp.newFile("index");
+        assertThat(index.delete(), is(true));
+        DarcsPatchIndex.add(index, new ArrayList<String>());
+
+        assertThat(DarcsPatchIndex.unknown(index, hashes(0, 2)), is(hashes(0, 2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptIndex() throws IOException {
+        final File index = tmp.newFile("index");
+        DarcsPatchIndex.unknown(index, hashes(0, 1));
+    }
+
+    @Test
+    public void isCurrent_untilInventoryChanges() throws IOException {
+        final File darcs = tmp.newFolder("_darcs");
+        final File inventory = new File(darcs, "hashed_inventory");
+        write(inventory, "pristine:foo\n");
+        final File index = new File(darcs, DarcsPatchIndex.FILE_NAME);
+        DarcsPatchIndex.add(index, hashes(0, 10));
+        assertThat(DarcsPatchIndex.isCurrent(index), is(true));
+
+        // e.g. after darcs unpull
+        write(inventory, "pristine:bar\n");
+        assertThat(DarcsPatchIndex.isCurrent(index), is(false));
+
+        DarcsPatchIndex.add(index, new ArrayList<String>());
+        assertThat(DarcsPatchIndex.isCurrent(index), is(true));
+    }
+
+    @Test
+    public void isCurrent_withoutInventory() throws IOException {
+        final File index = tmp.newFile("index");
+        assertThat(index.delete(), is(true));
+        DarcsPatchIndex.add(index, hashes(0, 10));
+        assertThat(DarcsPatchIndex.isCurrent(index), is(true));
+
+        write(new File(tmp.getRoot(), "inventory"), "[foo\n");
+        assertThat(DarcsPatchIndex.isCurrent(index), is(false));
+    }
+
+    @Test
+    public void callablesUseIndexInDarcsDirectory() throws IOException, InterruptedException {
+        final File repo = tmp.newFolder("repo");
+        assertThat(new File(repo, "_darcs").mkdir(), is(true));
+        new DarcsPatchIndex.Add(hashes(0, 10)).invoke(repo, null);
+
+        assertThat(new File(new File(repo, "_darcs"), DarcsPatchIndex.FILE_NAME).isFile(), is(true));
+        assertThat(new DarcsPatchIndex.Lookup(hashes(5, 15)).invoke(repo, null), is(hashes(10, 15)));
+    }
+}
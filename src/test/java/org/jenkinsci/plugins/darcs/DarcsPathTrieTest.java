@@ -0,0 +1,44 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsPathTrieTest {
+
+    private final DarcsPathTrie sut = new DarcsPathTrie();
+
+    @Test
+    public void internReturnsSameNodeForEqualPaths() {
+        final DarcsPathTrie.Node node = sut.intern("src/main/Foo.java");
+        assertThat(sut.intern(new String("src/main/Foo.java")), is(sameInstance(node)));
+        assertThat(sut.intern("src/main/Bar.java"), is(not(sameInstance(node))));
+    }
+
+    @Test
+    public void toStringRebuildsPath() {
+        final String[] paths = {"Foo.java", "src/main/Foo.java", "./src/Foo.java", "/abs/path", "dir/", "a//b", ""};
+
+        for (final String path : paths) {
+            assertThat(sut.intern(path).toString(), is(path));
+        }
+    }
+
+    @Test
+    public void internNull() {
+        assertThat(sut.intern(null), is(nullValue()));
+    }
+}
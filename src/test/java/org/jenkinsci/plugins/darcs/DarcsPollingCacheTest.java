@@ -0,0 +1,174 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsPollingCacheTest {
+
+    private static final class CountingLoader implements DarcsPollingCache.Loader {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        public List<DarcsChangeSet> load() {
+            calls.incrementAndGet();
+            final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>();
+            changes.add(Helper.createChangeSet("b"));
+            changes.add(Helper.createChangeSet("a"));
+            return changes;
+        }
+    }
+
+    @Test
+    public void get_sharesResultInTtlWindow() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(60000L);
+        final CountingLoader loader = new CountingLoader();
+
+        final List<DarcsChangeSet> first = sut.get("http://foo/bar#0", loader);
+        final List<DarcsChangeSet> second = sut.get("http://foo/bar#0", loader);
+
+        assertThat(loader.calls.get(), is(1));
+        assertThat(first.size(), is(2));
+        assertThat(second.get(0).getHash(), is("hashb"));
+        assertNotSame(first, second);
+        assertNotSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void get_loadsPerKey() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(60000L);
+        final CountingLoader loader = new CountingLoader();
+
+        sut.get("http://foo/bar#0", loader);
+        sut.get("http://foo/baz#0", loader);
+        sut.get("http://foo/bar#10", loader);
+
+        assertThat(loader.calls.get(), is(3));
+        assertThat(sut.size(), is(3));
+    }
+
+    @Test
+    public void get_reloadsExpired() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(0L);
+        final CountingLoader loader = new CountingLoader();
+
+        sut.get("http://foo/bar#0", loader);
+        sut.get("http://foo/bar#0", loader);
+
+        assertThat(loader.calls.get(), is(2));
+        assertThat(sut.size(), is(0));
+    }
+
+    @Test
+    public void get_doesNotCacheFailures() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(60000L);
+
+        try {
+            sut.get("http://foo/bar#0", new DarcsPollingCache.Loader() {
+                public List<DarcsChangeSet> load() {
+                    throw new DarcsCmd.DarcsCmdException("failed");
+                }
+            });
+            fail("Expected exception not thrown!");
+        } catch (DarcsCmd.DarcsCmdException ex) {
+            assertThat(ex.getMessage(), is("failed"));
+        }
+
+        assertThat(sut.size(), is(0));
+        final CountingLoader loader = new CountingLoader();
+        sut.get("http://foo/bar#0", loader);
+        assertThat(loader.calls.get(), is(1));
+    }
+
+    @Test
+    public void get_doesNotPurgeEntriesInUse() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(0L);
+        sut.put("http://foo/bar#0", new ArrayList<DarcsChangeSet>());
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Thread poll = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    sut.get("http://foo/bar#0", new DarcsPollingCache.Loader() {
+                        public List<DarcsChangeSet> load() throws InterruptedException {
+                            loading.countDown();
+                            proceed.await();
+                            return new ArrayList<DarcsChangeSet>();
+                        }
+                    });
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        poll.start();
+        loading.await();
+
+        sut.get("http://foo/baz#0", new CountingLoader());
+        assertThat(sut.size(), is(1));
+
+        proceed.countDown();
+        poll.join();
+        assertThat(sut.size(), is(0));
+    }
+
+    @Test
+    public void configure() {
+        final DarcsPollingCache sut = new DarcsPollingCache(1000L);
+        sut.configure(2000L);
+
+        assertThat(sut.getTtl(), is(2000L));
+    }
+
+    @Test
+    public void peek_onlyReturnsFreshEntries() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(60000L);
+        final CountingLoader loader = new CountingLoader();
+        assertThat(sut.peek("http://foo/bar#0"), is(nullValue()));
+
+        sut.get("http://foo/bar#0", loader);
+        assertThat(sut.peek("http://foo/bar#0").size(), is(2));
+
+        sut.configure(0L);
+        assertThat(sut.peek("http://foo/bar#0"), is(nullValue()));
+        assertThat(loader.calls.get(), is(1));
+    }
+
+    @Test
+    public void put_sharesChangesWithGet() throws InterruptedException {
+        final DarcsPollingCache sut = new DarcsPollingCache(60000L);
+        final CountingLoader loader = new CountingLoader();
+        final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>();
+        changes.add(Helper.createChangeSet("c"));
+
+        sut.put("http://foo/bar#0", changes);
+        final DarcsChangeSet put = changes.get(0);
+        changes.clear();
+
+        final DarcsChangeSet cached = sut.get("http://foo/bar#0", loader).get(0);
+        assertThat(cached.getHash(), is("hashc"));
+        assertNotSame(cached, put);
+        assertThat(loader.calls.get(), is(0));
+
+        sut.put("http://foo/bar#0", Arrays.asList(Helper.createChangeSet("d")));
+        assertThat(sut.peek("http://foo/bar#0").get(0).getHash(), is("hashd"));
+    }
+}
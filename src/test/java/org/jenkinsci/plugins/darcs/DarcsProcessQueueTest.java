@@ -0,0 +1,218 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import hudson.remoting.LocalChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsProcessQueueTest {
+
+    @Test
+    public void forNode_returnsSameQueuePerChannel() {
+        final Object channel = new Object();
+        final DarcsProcessQueue queue = DarcsProcessQueue.forNode(channel, 2);
+
+        assertThat(DarcsProcessQueue.forNode(channel, 3), is(sameInstance(queue)));
+        assertThat(queue.getLimit(), is(3));
+        assertThat(DarcsProcessQueue.forNode(new Object(), 2), is(not(sameInstance(queue))));
+    }
+
+    @Test
+    public void forSource_returnsSameQueuePerSource() {
+        final DarcsProcessQueue queue = DarcsProcessQueue.forSource("http://foo/bar", 1);
+
+        assertThat(DarcsProcessQueue.forSource("http://foo/bar", 1), is(sameInstance(queue)));
+        assertThat(DarcsProcessQueue.forSource("http://foo/baz", 1), is(not(sameInstance(queue))));
+    }
+
+    @Test
+    public void acquire_unlimitedNeverWaits() throws InterruptedException {
+        final DarcsProcessQueue sut = new DarcsProcessQueue("node");
+        sut.setLimit(0);
+
+        assertThat(sut.acquire(null), is(nullValue()));
+        assertThat(sut.acquire(null), is(nullValue()));
+        DarcsProcessQueue.release(null);
+    }
+
+    @Test
+    public void acquire_logsWaitTime() throws InterruptedException {
+        final DarcsProcessQueue sut = new DarcsProcessQueue("node");
+        sut.setLimit(1);
+        final Semaphore first = sut.acquire(null);
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ex) {
+                    // release anyway
+                }
+
+                DarcsProcessQueue.release(first);
+            }
+        }).start();
+
+        final Semaphore second = sut.acquire(new PrintStream(log, true));
+        DarcsProcessQueue.release(second);
+
+        assertThat(log.toString(), startsWith("[darcs] Waited "));
+        assertThat(log.toString(), containsString("for one of 1 darcs process slots of the node."));
+    }
+
+    @Test
+    public void acquire_limitsConcurrentProcesses() throws InterruptedException {
+        final DarcsProcessQueue sut = new DarcsProcessQueue("node");
+        sut.setLimit(2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; ++i) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        final Semaphore slot = sut.acquire(null);
+
+                        try {
+                            final int now = running.incrementAndGet();
+
+                            synchronized (maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), now));
+                            }
+
+                            Thread.sleep(20);
+                            running.decrementAndGet();
+                        } finally {
+                            DarcsProcessQueue.release(slot);
+                        }
+                    } catch (InterruptedException ex) {
+                        // ignore
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        done.await();
+        assertThat(maxRunning.get(), is(2));
+    }
+
+    @Test
+    public void setLimit_keepsRunningSlots() throws InterruptedException {
+        final DarcsProcessQueue sut = new DarcsProcessQueue("node");
+        sut.setLimit(1);
+        final Semaphore slot = sut.acquire(null);
+        sut.setLimit(1);
+        assertThat(slot.availablePermits(), is(0));
+
+        sut.setLimit(2);
+        final Semaphore other = sut.acquire(null);
+        assertThat(other, is(not(sameInstance(slot))));
+
+        DarcsProcessQueue.release(slot);
+        DarcsProcessQueue.release(other);
+        assertThat(slot.availablePermits(), is(1));
+        assertThat(other.availablePermits(), is(2));
+    }
+
+    @Test
+    public void forNode_localChannelsShareQueue() {
+        final DarcsProcessQueue queue = DarcsProcessQueue.forNode(null, 1);
+
+        assertThat(DarcsProcessQueue.forNode(new LocalChannel(null), 1), is(sameInstance(queue)));
+        assertThat(DarcsProcessQueue.forNode(new LocalChannel(null), 1), is(sameInstance(queue)));
+    }
+
+    @Test
+    public void forProcess_nodeFirstThenLimitedSource() {
+        final Object channel = new Object();
+        final List<DarcsProcessQueue> queues = DarcsProcessQueue.forProcess(channel, 2, "http://foo/limited", 1);
+
+        assertThat(queues.size(), is(2));
+        assertThat(queues.get(0), is(sameInstance(DarcsProcessQueue.forNode(channel, 2))));
+        assertThat(queues.get(1), is(sameInstance(DarcsProcessQueue.forSource("http://foo/limited", 1))));
+        assertThat(DarcsProcessQueue.forProcess(channel, 2, "http://foo/unlimited", 0).size(), is(1));
+    }
+
+    @Test
+    public void pollingAndCheckoutShareLimitOfNode() throws InterruptedException {
+        final Object channel = new Object();
+        // the checkout holds the slots of the node for its whole callable
+        final List<Semaphore> checkout = DarcsProcessQueue.acquireAll(
+                DarcsProcessQueue.forProcess(channel, 1, "http://foo/bar", 0), null);
+        final CountDownLatch polled = new CountDownLatch(1);
+        // polling launches its darcs processes w/ the queues of the same node
+        final Thread poll = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    final List<Semaphore> slots = DarcsProcessQueue.acquireAll(
+                            DarcsProcessQueue.forProcess(channel, 1, "http://foo/baz", 0), null);
+                    polled.countDown();
+                    DarcsProcessQueue.releaseAll(slots);
+                } catch (InterruptedException ex) {
+                    // test fails
+                }
+            }
+        });
+        poll.start();
+
+        assertThat(polled.await(100, TimeUnit.MILLISECONDS), is(false));
+        DarcsProcessQueue.releaseAll(checkout);
+        assertThat(polled.await(5, TimeUnit.SECONDS), is(true));
+        poll.join();
+    }
+
+    @Test
+    public void acquireAll_releasesAcquiredSlotsIfInterrupted() throws InterruptedException {
+        final DarcsProcessQueue node = new DarcsProcessQueue("node");
+        node.setLimit(1);
+        final DarcsProcessQueue source = new DarcsProcessQueue("source");
+        source.setLimit(1);
+        final Semaphore held = source.acquire(null);
+        final AtomicInteger interrupted = new AtomicInteger();
+        final Thread waiting = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    DarcsProcessQueue.acquireAll(Arrays.asList(node, source), null);
+                } catch (InterruptedException ex) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        waiting.start();
+        Thread.sleep(50);
+        waiting.interrupt();
+        waiting.join();
+
+        assertThat(interrupted.get(), is(1));
+        final Semaphore nodeSlot = node.acquire(null);
+        assertThat(nodeSlot.availablePermits(), is(0));
+        DarcsProcessQueue.release(nodeSlot);
+        DarcsProcessQueue.release(held);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * LICENSE
+ *
+ * "THE BEER-WARE LICENSE" (Revision 42):
+ * "Sven Strittmatter" <ich@weltraumschaf.de> wrote this file.
+ * As long as you retain this notice you can do whatever you want with
+ * this stuff. If we meet some day, and you think this stuff is worth it,
+ * you can buy me a beer in return.
+ */
+package org.jenkinsci.plugins.darcs;
+
+import org.junit.Test;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sven Strittmatter <ich@weltraumschaf.de>
+ */
+public class DarcsRevisionFingerprintTest {
+
+    private static DarcsRevisionFingerprint fingerprint(final String... hashes) {
+        final DarcsRevisionFingerprint.Accumulator accumulator = new DarcsRevisionFingerprint.Accumulator();
+
+        for (final String hash : hashes) {
+            accumulator.add(hash);
+        }
+
+        return accumulator.toFingerprint();
+    }
+
+    @Test
+    public void noPatchesIsEmpty() {
+        assertThat(fingerprint(), is(DarcsRevisionFingerprint.EMPTY));
+        assertThat(new DarcsChangeSetList().getFingerprint(), is(DarcsRevisionFingerprint.EMPTY));
+    }
+
+    @Test
+    public void doesNotDependOnOrder() {
+        assertThat(fingerprint("a", "b", "c"), is(fingerprint("c", "a", "b")));
+        assertThat(fingerprint("a", "b", "c").hashCode(), is(fingerprint("b", "c", "a").hashCode()));
+    }
+
+    @Test
+    public void differsForDifferentPatches() {
+        assertThat(fingerprint("a", "b"), is(not(fingerprint("a", "c"))));
+        assertThat(fingerprint("a", "b"), is(not(fingerprint("a", "b", "c"))));
+        assertThat(fingerprint("a"), is(not(fingerprint("a", "a"))));
+        assertThat(fingerprint("a"), is(not(DarcsRevisionFingerprint.EMPTY)));
+    }
+
+    @Test
+    public void singlePatchIsMd5OfHash() {
+        // md5("a") = 0cc175b9c0f1b6a831c399e269772661
+        final DarcsRevisionFingerprint sut = fingerprint("a");
+        assertThat(sut.getHigh(), is(0x0cc175b9c0f1b6a8L));
+        assertThat(sut.getLow(), is(0x31c399e269772661L));
+        assertThat(sut.toString(), is("0cc175b9c0f1b6a831c399e269772661"));
+    }
+
+    @Test
+    public void equalsComparesBothHalves() {
+        final DarcsRevisionFingerprint sut = new DarcsRevisionFingerprint(1L, 2L);
+        assertThat(sut, is(new DarcsRevisionFingerprint(1L, 2L)));
+        assertThat(sut, is(not(new DarcsRevisionFingerprint(1L, 3L))));
+        assertThat(sut, is(not(new DarcsRevisionFingerprint(3L, 2L))));
+        assertThat(sut.equals(null), is(false));
+    }
+}
@@ -9,7 +9,11 @@
  */
 package org.jenkinsci.plugins.darcs;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
+import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
 /**
@@ -62,4 +66,96 @@ public class DarcsRevisionStateTest {
         sut = new DarcsRevisionState(csl);
         assertEquals(csl.hashCode(), sut.hashCode());
     }
+
+    private static List<DarcsChangeSet> createChanges(final String... suffixes) {
+        final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>();
+
+        for (final String suffix : suffixes) {
+            changes.add(Helper.createChangeSet(suffix));
+        }
+
+        return changes;
+    }
+
+    @Test
+    public void fromChanges_takesMarkerInDarcsOrder() {
+        final DarcsRevisionState sut = DarcsRevisionState.fromChanges(createChanges("c", "b", "a"));
+
+        assertThat(sut.isComplete(), is(true));
+        assertThat(sut.getMarker(), is(Arrays.asList("hashc", "hashb", "hasha")));
+        assertThat(sut.getCount(), is(3));
+        assertThat(sut.getChanges().size(), is(3));
+        assertThat(sut.getChanges().getChangeSets().get(0).getHash(), is("hasha"));
+    }
+
+    @Test
+    public void fromChanges_limitsMarkerSize() {
+        final List<DarcsChangeSet> changes = new ArrayList<DarcsChangeSet>();
+
+        for (int i = 0; i < DarcsRevisionState.MARKER_SIZE + 5; ++i) {
+            changes.add(Helper.createChangeSet(Integer.toString(i)));
+        }
+
+        final DarcsRevisionState sut = DarcsRevisionState.fromChanges(changes);
+        assertThat(sut.getMarker().size(), is(DarcsRevisionState.MARKER_SIZE));
+        assertThat(sut.getMarker().get(0), is("hash0"));
+        assertThat(sut.getCount(), is(DarcsRevisionState.MARKER_SIZE + 5));
+    }
+
+    @Test
+    public void fromMarker() {
+        final DarcsRevisionState sut = DarcsRevisionState.fromMarker(createChanges("c", "b"), 42);
+
+        assertThat(sut.isComplete(), is(false));
+        assertThat(sut.getMarker(), is(Arrays.asList("hashc", "hashb")));
+        assertThat(sut.getCount(), is(42));
+        assertThat(sut.getChanges().isEmptySet(), is(true));
+        assertThat(sut.toString(), is("hashc@42"));
+    }
+
+    @Test
+    public void equalsAndHashCode_markerOnly() {
+        final DarcsRevisionState sut1 = DarcsRevisionState.fromMarker(createChanges("c", "b"), 42);
+        final DarcsRevisionState sut2 = DarcsRevisionState.fromMarker(createChanges("c", "b"), 42);
+
+        assertTrue(sut1.equals(sut2));
+        assertThat(sut1.hashCode(), is(sut2.hashCode()));
+        assertFalse(sut1.equals(DarcsRevisionState.fromMarker(createChanges("c", "b"), 43)));
+        assertFalse(sut1.equals(DarcsRevisionState.fromMarker(createChanges("d", "c"), 42)));
+        assertFalse(sut1.equals(DarcsRevisionState.fromChanges(createChanges("c", "b"))));
+        assertFalse(DarcsRevisionState.fromChanges(createChanges("c", "b")).equals(sut1));
+    }
+
+    @Test
+    public void findMarker() {
+        final DarcsRevisionState sut = DarcsRevisionState.fromChanges(createChanges("c", "b", "a"));
+
+        assertThat(sut.findMarker(createChanges("c", "b", "a")), is(0));
+        assertThat(sut.findMarker(createChanges("e", "d", "c", "b")), is(2));
+        assertThat(sut.findMarker(createChanges("e", "d", "c")), is(2));
+        assertThat(sut.findMarker(createChanges("e", "d")), is(-1));
+        assertThat(sut.findMarker(createChanges("d", "c", "a")), is(-1));
+        assertThat(sut.findMarker(new ArrayList<DarcsChangeSet>()), is(-1));
+    }
+
+    @Test
+    public void findMarker_withoutMarker() {
+        final DarcsRevisionState sut = new DarcsRevisionState(Helper.createChangeSetList(3));
+
+        assertThat(sut.getMarker().isEmpty(), is(true));
+        assertThat(sut.findMarker(createChanges("2", "1", "0")), is(-1));
+    }
+
+    @Test
+    public void withInventory() {
+        final DarcsRevisionState sut = DarcsRevisionState.fromChanges(createChanges("c", "b", "a"));
+        final DarcsInventoryProbe.Version version = new DarcsInventoryProbe.Version("\"1\"", null, "abc");
+        final DarcsRevisionState withInventory = sut.withInventory(version);
+
+        assertThat(sut.getInventory(), is(nullValue()));
+        assertThat(withInventory.getInventory(), is(sameInstance(version)));
+        assertTrue(sut.equals(withInventory));
+        assertThat(withInventory.hashCode(), is(sut.hashCode()));
+        assertThat(withInventory.getMarker(), is(sut.getMarker()));
+    }
 }
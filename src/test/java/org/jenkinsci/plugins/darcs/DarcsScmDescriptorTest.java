@@ -55,6 +55,200 @@ public class DarcsScmDescriptorTest {
         assertThat(sut.getDarcsExe(), is(exe));
     }
 
+    @Test
+    public void isInventoryPolling_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.isInventoryPolling(), is(false));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.inventoryPolling")).thenReturn(null);
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isInventoryPolling(), is(false));
+
+        when(req.getParameter("darcs.inventoryPolling")).thenReturn("on");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isInventoryPolling(), is(true));
+    }
+
+    @Test
+    public void getAuthorCacheSize_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.getAuthorCacheSize(), is(DarcsAuthorResolver.DEFAULT_CAPACITY));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.authorCacheSize")).thenReturn("42");
+        when(req.getParameter("darcs.authorMappings")).thenReturn("  foo@example.com foo\n");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getAuthorCacheSize(), is(42));
+        assertThat(sut.getAuthorMappings(), is("foo@example.com foo"));
+
+        when(req.getParameter("darcs.authorCacheSize")).thenReturn("-1");
+        when(req.getParameter("darcs.authorMappings")).thenReturn(" ");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getAuthorCacheSize(), is(DarcsAuthorResolver.DEFAULT_CAPACITY));
+        assertThat(sut.getAuthorMappings(), is(nullValue()));
+    }
+
+    @Test
+    public void getXmlBackend_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.getXmlBackend(), is("SAX"));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.xmlBackend")).thenReturn("stax");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getXmlBackend(), is("STAX"));
+
+        when(req.getParameter("darcs.xmlBackend")).thenReturn("foo");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getXmlBackend(), is("SAX"));
+    }
+
+    @Test
+    public void isStreamingComparison_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.isStreamingComparison(), is(false));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.streamingComparison")).thenReturn(null);
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isStreamingComparison(), is(false));
+
+        when(req.getParameter("darcs.streamingComparison")).thenReturn("on");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isStreamingComparison(), is(true));
+    }
+
+    @Test
+    public void isCompressChangeLogs_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.isCompressChangeLogs(), is(false));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.compressChangeLogs")).thenReturn(null);
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isCompressChangeLogs(), is(false));
+
+        when(req.getParameter("darcs.compressChangeLogs")).thenReturn("on");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isCompressChangeLogs(), is(true));
+    }
+
+    @Test
+    public void isIncrementalPolling_default() {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        assertThat(sut.isIncrementalPolling(), is(false));
+    }
+
+    @Test
+    public void isIncrementalPolling_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.incrementalPolling")).thenReturn(null);
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isIncrementalPolling(), is(false));
+
+        when(req.getParameter("darcs.incrementalPolling")).thenReturn("on");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.isIncrementalPolling(), is(true));
+    }
+
+    @Test
+    public void getPollingOptions_default() {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        assertThat(sut.getPollingCacheTtl(), is(60));
+    }
+
+    @Test
+    public void getPollingOptions_configured() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.pollingCacheTtl")).thenReturn(" 120 ");
+        sut.configure(req, new JSONObject());
+
+        assertThat(sut.getPollingCacheTtl(), is(120));
+        assertThat(sut.getPollingCache().getTtl(), is(120000L));
+
+        when(req.getParameter("darcs.pollingCacheTtl")).thenReturn("foo");
+        sut.configure(req, new JSONObject());
+
+        assertThat(sut.getPollingCacheTtl(), is(60));
+    }
+
+    @Test
+    public void getProcessLimits() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.getMaxConcurrentProcesses(), is(0));
+        assertThat(sut.getSourceProcessLimit("http://foo/bar"), is(0));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.maxConcurrentProcesses")).thenReturn("2");
+        when(req.getParameter("darcs.sourceProcessLimits")).thenReturn("http://foo/bar 2\n\nhttp://foo/baz\tx\n");
+        sut.configure(req, new JSONObject());
+
+        assertThat(sut.getMaxConcurrentProcesses(), is(2));
+        assertThat(sut.getSourceProcessLimit("http://foo/bar"), is(2));
+        assertThat(sut.getSourceProcessLimit("http://foo/baz"), is(0));
+        assertThat(sut.getSourceProcessLimit("http://foo"), is(0));
+    }
+
+    @Test
+    public void getTimeouts() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.getChangesTimeout(), is(600));
+        assertThat(sut.getPullTimeout(), is(0));
+        assertThat(sut.getGetTimeout(), is(0));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.changesTimeout")).thenReturn("0");
+        when(req.getParameter("darcs.pullTimeout")).thenReturn("1800");
+        when(req.getParameter("darcs.getTimeout")).thenReturn("-1");
+        sut.configure(req, new JSONObject());
+
+        assertThat(sut.getChangesTimeout(), is(0));
+        assertThat(sut.getPullTimeout(), is(1800));
+        assertThat(sut.getGetTimeout(), is(0));
+    }
+
+    @Test
+    public void getMirrorCacheRoot() throws Descriptor.FormException {
+        final DarcsScmDescriptor sut = mock(DarcsScmDescriptor.class, CALLS_REAL_METHODS);
+        doNothing().when(sut).load();
+        doNothing().when(sut).save();
+        assertThat(sut.getMirrorCacheRoot(), is(nullValue()));
+
+        final StaplerRequest req = mock(StaplerRequest.class);
+        when(req.getParameter("darcs.mirrorCacheRoot")).thenReturn(" /var/cache/darcs ");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getMirrorCacheRoot(), is("/var/cache/darcs"));
+
+        when(req.getParameter("darcs.mirrorCacheRoot")).thenReturn("  ");
+        sut.configure(req, new JSONObject());
+        assertThat(sut.getMirrorCacheRoot(), is(nullValue()));
+    }
+
     @Test
     @Ignore("Not ready yet")
     public void doDarcsExeCheck() {
@@ -13,6 +13,8 @@ import hudson.model.TaskListener;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.xml.sax.SAXException;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -27,4 +29,16 @@ public class DarcsScmTest {
         sut.getRevisionState(null, TaskListener.NULL, "", null);
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedConstructorGetsAllPatches() {
+        final DarcsScm sut = new DarcsScm("http://foo/bar", "baz", true, null);
+
+        assertThat(sut.getSource(), is("http://foo/bar"));
+        assertThat(sut.getLocalDir(), is("baz"));
+        assertThat(sut.isClean(), is(true));
+        assertThat(sut.isLazy(), is(false));
+        assertThat(sut.getTag(), is(nullValue()));
+    }
+
 }
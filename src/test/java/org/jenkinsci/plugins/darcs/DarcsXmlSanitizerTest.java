@@ -9,8 +9,21 @@
  */
 package org.jenkinsci.plugins.darcs;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
 
 /**
@@ -57,6 +70,84 @@ public class DarcsXmlSanitizerTest {
         assertEquals(output, result);
     }
 
+    @Test
+    public void cleanse_stream() throws IOException {
+        final byte[] iso = "foo <name>äöüÄÖÜß</name> bar ".getBytes("ISO-8859-1");
+        final byte[] utf8 = "<comment>äöüÄÖÜß</comment> foobar".getBytes("UTF-8");
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        input.write(iso);
+        input.write(utf8);
+        final String output = "foo <name>äöüÄÖÜß</name> bar <comment>äöüÄÖÜß</comment> foobar";
+        assertEquals(output, read(sut.cleanse(new ByteArrayInputStream(input.toByteArray()))));
+    }
+
+    @Test
+    public void cleanse_streamWithTagsAcrossBufferBoundaries() throws IOException {
+        final StringBuilder expected = new StringBuilder();
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+
+        for (int i = 0; i < 2000; i++) {
+            final String name = "<name>äöü " + i + "</name>";
+            final String comment = "<comment>ÄÖÜß " + i + "</comment>\n";
+            expected.append(name).append(comment);
+            input.write(name.getBytes("ISO-8859-1"));
+            input.write(comment.getBytes("UTF-8"));
+        }
+
+        assertEquals(expected.toString(), read(sut.cleanse(new ByteArrayInputStream(input.toByteArray()))));
+        assertEquals(expected.toString(), sut.cleanse(input.toByteArray()));
+    }
+
+    @Test
+    public void cleanse_nameWithoutComment() throws UnsupportedEncodingException {
+        final byte[] iso = "<name>ä</name> <comment>ö</comment> ".getBytes("ISO-8859-1");
+        final byte[] utf8 = "<name>ü</name> ".getBytes("UTF-8");
+        final byte[] input = new byte[iso.length + utf8.length];
+        System.arraycopy(iso, 0, input, 0, iso.length);
+        System.arraycopy(utf8, 0, input, iso.length, utf8.length);
+        assertEquals("<name>ä</name> <comment>ö</comment> <name>ü</name> ", sut.cleanse(input));
+    }
+
+    @Test
+    public void cleanse_overlappingDelimiterPrefixes() throws UnsupportedEncodingException {
+        final byte[] name = "<<name></na</n</name>".getBytes("UTF-8");
+        final byte[] comment = "<<comment><com</comment>ä</comment>".getBytes("ISO-8859-1");
+        final byte[] input = new byte[name.length + comment.length];
+        System.arraycopy(name, 0, input, 0, name.length);
+        System.arraycopy(comment, 0, input, name.length, comment.length);
+        assertEquals("<<name></na</n</name><<comment><com</comment>ä</comment>", sut.cleanse(input));
+    }
+
+    @Test
+    public void cleanse_manyPatchesWithoutComments() throws UnsupportedEncodingException {
+        final StringBuilder expected = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            expected.append("<patch hash='").append(i).append("'><name>ä").append(i).append("</name></patch>\n");
+        }
+
+        assertEquals(expected.toString(), sut.cleanse(expected.toString().getBytes("ISO-8859-1")));
+    }
+
+    @Test
+    public void cleanse_replacesInvalidChars() throws UnsupportedEncodingException {
+        final byte[] input = "<name>a\u0001b</name>\u0002".getBytes("UTF-8");
+        assertEquals("<name>a�b</name>�", sut.cleanse(input));
+    }
+
+    private static String read(final Reader reader) throws IOException {
+        final StringBuilder buffer = new StringBuilder();
+        final char[] chars = new char[100];
+        int numRead;
+
+        while ((numRead = reader.read(chars)) != -1) {
+            buffer.append(chars, 0, numRead);
+        }
+
+        reader.close();
+        return buffer.toString();
+    }
+
     @Test
     public void replaceInvalidChars() {
 
@@ -113,4 +204,115 @@ public class DarcsXmlSanitizerTest {
         assertEquals('�', sut.replaceInvalidChar((char) 0x1E));
         assertEquals('�', sut.replaceInvalidChar((char) 0x1F));
     }
+
+    private static byte[] mixedChangeLog(final int patches) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("<changelog>\n".getBytes("US-ASCII"));
+        final String[] encodings = {"UTF-8", "ISO-8859-1", "UTF-16"};
+
+        for (int i = 0; i < patches; i++) {
+            final String encoding = encodings[i % encodings.length];
+            out.write(("<patch hash='h" + i + "'>\n\t<name>").getBytes("US-ASCII"));
+            out.write(("Pätch " + i).getBytes(encoding));
+            out.write("</name>\n".getBytes("US-ASCII"));
+
+            if (i % 2 == 0) {
+                out.write("\t<comment>".getBytes("US-ASCII"));
+                out.write(("Cömment\u0001 " + i).getBytes(encoding));
+                out.write("</comment>\n".getBytes("US-ASCII"));
+            }
+
+            // paths in the summary are outside of any name or comment
+            out.write("\t<summary><add_file>".getBytes("US-ASCII"));
+            out.write(("Fïle" + i).getBytes(encodings[(i + 1) % encodings.length]));
+            out.write("</add_file></summary>\n</patch>\n".getBytes("US-ASCII"));
+        }
+
+        out.write("</changelog>\n".getBytes("US-ASCII"));
+        return out.toByteArray();
+    }
+
+    private static String drain(final Reader reader) throws IOException {
+        final StringBuilder result = new StringBuilder();
+        final char[] buffer = new char[100];
+
+        for (int n; (n = reader.read(buffer)) != -1; ) {
+            result.append(buffer, 0, n);
+        }
+
+        reader.close();
+        return result.toString();
+    }
+
+    @Test
+    public void cleanse_parallelIsIdenticalToSequential() throws IOException {
+        final byte[] input = mixedChangeLog(500);
+        final String expected = sut.cleanse(input);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            for (final int chunkSize : new int[] {1, 100, 1000, 10000, input.length}) {
+                assertThat(DarcsXmlSanitizer.splitPoints(ByteBuffer.wrap(input), chunkSize).isEmpty(),
+                        is(chunkSize == input.length));
+                assertThat(drain(sut.cleanse(ByteBuffer.wrap(input), executor, 0, chunkSize, 4)), is(expected));
+                assertThat(drain(sut.cleanse(ByteBuffer.wrap(input), executor, 0, chunkSize, 1)), is(expected));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cleanse_parallelSubmitsChunksAsTheyAreRead() throws IOException {
+        final byte[] input = mixedChangeLog(500);
+        final int chunks = DarcsXmlSanitizer.splitPoints(ByteBuffer.wrap(input), 1000).size() + 1;
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+
+        try {
+            final Reader sanitized = sut.cleanse(ByteBuffer.wrap(input), executor, 0, 1000, 2);
+            assertThat(executor.getTaskCount(), is(2L));
+
+            assertThat(sanitized.read(), is((int) '<'));
+            assertThat(executor.getTaskCount(), is(3L));
+
+            drain(sanitized);
+            assertThat(executor.getTaskCount(), is((long) chunks));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cleanse_parallelSubmitsNoChunksAfterClose() throws IOException {
+        final byte[] input = mixedChangeLog(500);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+
+        try {
+            final Reader sanitized = sut.cleanse(ByteBuffer.wrap(input), executor, 0, 1000, 2);
+            sanitized.close();
+
+            assertThat(sanitized.read(), is(-1));
+            assertThat(executor.getTaskCount(), is(2L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cleanse_parallelBelowThresholdIsSequential() throws IOException {
+        final byte[] input = mixedChangeLog(10);
+        // no executor needed below the threshold
+        assertThat(drain(sut.cleanse(ByteBuffer.wrap(input), null)), is(sut.cleanse(input)));
+    }
+
+    @Test
+    public void splitPoints_areBeforeClosingTags() throws IOException {
+        final byte[] input = "<name>a</name> <comment>b<name>c</comment> </name> <name>d</name>".getBytes("US-ASCII");
+        final List<Integer> points = DarcsXmlSanitizer.splitPoints(ByteBuffer.wrap(input), 1);
+
+        // the name in the comment and the closing name tag outside are no delimiters
+        assertThat(points, is(Arrays.asList(7, 32, 58)));
+    }
 }
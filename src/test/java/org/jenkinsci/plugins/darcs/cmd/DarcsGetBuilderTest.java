@@ -68,4 +68,44 @@ public class DarcsGetBuilderTest {
         assertThat(args.toList(), is(Arrays.asList("foo", "get", "from", "to")));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void callTagWithEmptyThrowsException() {
+        thrown.expect(IllegalArgumentException.class);
+        sut.tag("");
+    }
+
+    @Test
+    public void callToMatchWithNullThrowsException() {
+        thrown.expect(IllegalArgumentException.class);
+        sut.toMatch(null);
+    }
+
+    @Test
+    public void createWithTagAndToMatchThrowsException() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Set either tag or to match!");
+        sut.from("from").tag("1.0").toMatch("hash 123").create();
+    }
+
+    @Test
+    public void createLazyWithTag() {
+        final DarcsCommand cmd = sut.from("from").to("to").lazy().tag("1.0").create();
+        final ArgumentListBuilder args = cmd.getArgs();
+        assertThat(args.toList(), is(Arrays.asList("foo", "get", "--lazy", "--tag=1.0", "from", "to")));
+    }
+
+    @Test
+    public void createWithToMatch() {
+        final DarcsCommand cmd = sut.from("from").toMatch("hash 123").create();
+        final ArgumentListBuilder args = cmd.getArgs();
+        assertThat(args.toList(), is(Arrays.asList("foo", "get", "--to-match=hash 123", "from")));
+    }
+
+    @Test
+    public void createWithoutWorkingDir() {
+        final DarcsCommand cmd = sut.from("from").to("to").noWorkingDir().create();
+        final ArgumentListBuilder args = cmd.getArgs();
+        assertThat(args.toList(), is(Arrays.asList("foo", "get", "--no-working-dir", "from", "to")));
+    }
+
+}
@@ -94,4 +94,26 @@ public class DarcsPullBuilderTest {
         final ArgumentListBuilder args = cmd.getArgs();
         assertThat(args.toList(), is(Arrays.asList("foo", "pull", "from", "--repo=repodir", "--all", "--verbose")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void createDryRunWithXmlOutputAndSummary() {
+        final DarcsCommand cmd = sut.from("from").repoDir("repodir").all().dryRun().xmlOutput().summary().create();
+        final ArgumentListBuilder args = cmd.getArgs();
+        assertThat(args.toList(), is(Arrays.asList("foo", "pull", "from", "--repo=repodir", "--all", "--dry-run",
+                "--xml-output", "--summary")));
+    }
+
+    @Test
+    public void callMatchesWithEmptyThrowsException() {
+        thrown.expect(IllegalArgumentException.class);
+        sut.matches("");
+    }
+
+    @Test
+    public void createWithMatches() {
+        final DarcsCommand cmd = sut.from("from").repoDir("repodir").all().matches("hash foo || hash bar").create();
+        final ArgumentListBuilder args = cmd.getArgs();
+        assertThat(args.toList(), is(Arrays.asList("foo", "pull", "from", "--repo=repodir", "--all",
+                "--matches=hash foo || hash bar")));
+    }
+}